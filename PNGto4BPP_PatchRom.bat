@@ -1,7 +1,7 @@
 ::Summary
 ::Command Line Usage:
 ::imgSrc: Full Path for Image
-::palMethod: palFileMethod [0:ASCII(.GPL|.PAL), 1:Binary(YY .PAL), 2:Extract from Last Block of PNG]
+::palMethod: palFileMethod [0:ASCII(.GPL|.PAL), 1:Binary(YY .PAL), 2:Extract from Last Block of PNG, 3:Palette of indexed PNG]
 ::palSrc:(Used if Method 0 or 1 selected): Full Path for Pal File.
 ::sprTarget(optional): Name of Sprite that will be created. Will default to name of imgSrc with new extension. 
 ::romTarget(optional): Path of Rom to patch.
@@ -0,0 +1,173 @@
+package pngconvert.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pngconvert.Colors;
+import pngconvert.CompiledPalette;
+import pngconvert.ConversionContext;
+import pngconvert.ConversionException;
+import pngconvert.ConversionRequest;
+import pngconvert.PNGException;
+import pngconvert.PaletteReader;
+import pngconvert.SpriteConverter;
+import pngconvert.SpriteData;
+import pngconvert.TilePacker;
+import pngconvert.ZSPRWriter;
+import spritemanipulator.SpriteManipulator;
+import spritemanipulator.ZSPRFile;
+import spritemanipulator.ZSPRFormatException;
+
+/**
+ * Rounding, indexing, tile export and output of a sheet, plus whole conversions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertBenchmark {
+	private byte[] raster;
+	private byte[] rounded;
+	private int[] palette;
+	private int[] decimalPalette;
+	private CompiledPalette compiled;
+	private byte[][][] eightbyeight;
+	private byte[] tiles;
+	private byte[] spr;
+	private SpriteData sprite;
+	private ZSPRFile zspr;
+	private File sprFile;
+	private Path sprPath;
+	private File romFile;
+	private ConversionRequest rgbaRequest;
+	private ConversionRequest indexedRequest;
+
+	@Setup
+	public void setup() throws IOException {
+		raster = Sheets.rgbaRaster(1);
+		rounded = SpriteManipulator.roundRaster(raster);
+		palette = Colors.roundPalette(PaletteReader.palFromBinary(Sheets.binaryPalette()));
+		decimalPalette = Colors.toDecimal(palette);
+		eightbyeight = SpriteManipulator.indexAnd8x8(rounded, decimalPalette);
+		compiled = new CompiledPalette(palette);
+		tiles = new byte[rounded.length / 4];
+		compiled.indexTiles(rounded, tiles);
+		spr = new byte[tiles.length / TilePacker.BLOCK_PIXELS * TilePacker.BLOCK_BYTES];
+		sprite = new SpriteData(SpriteManipulator.export8x8ToSPR(eightbyeight),
+				compiled.getPalData(), compiled.getGlovesData());
+		zspr = sprite.toZSPRFile();
+
+		sprFile = File.createTempFile("bench", "." + ZSPRFile.EXTENSION);
+		sprFile.deleteOnExit();
+		sprPath = sprFile.toPath();
+
+		// blank 2MB ROM
+		romFile = File.createTempFile("bench", ".sfc");
+		romFile.deleteOnExit();
+		try (RandomAccessFile rom = new RandomAccessFile(romFile, "rw")) {
+			rom.setLength(0x200000);
+		}
+
+		// the generated sheets carry their palette in the last block
+		rgbaRequest = new ConversionRequest("rgba.png", SpriteConverter.PAL_EXTRACT, "");
+		rgbaRequest.setImageData(Sheets.rgbaPNG(1));
+		indexedRequest = new ConversionRequest("indexed.png", SpriteConverter.PAL_EXTRACT, "");
+		indexedRequest.setImageData(Sheets.indexedPNG(1));
+	}
+
+	@Benchmark
+	public byte[] roundRaster() {
+		return SpriteManipulator.roundRaster(raster);
+	}
+
+	@Benchmark
+	public byte[][][] indexAnd8x8() {
+		return SpriteManipulator.indexAnd8x8(rounded, decimalPalette);
+	}
+
+	@Benchmark
+	public CompiledPalette compilePalette() {
+		return new CompiledPalette(palette);
+	}
+
+	@Benchmark
+	public boolean indexWithLookupTable() {
+		return compiled.indexTiles(rounded, tiles);
+	}
+
+	@Benchmark
+	public byte[] export8x8ToSPR() {
+		return SpriteManipulator.export8x8ToSPR(eightbyeight);
+	}
+
+	@Benchmark
+	public byte[] packTiles() {
+		TilePacker.pack(tiles, spr);
+		return spr;
+	}
+
+	@Benchmark
+	public byte[] packTilesScalar() {
+		TilePacker.packScalar(tiles, spr, 0);
+		return spr;
+	}
+
+	@Benchmark
+	public byte[] packTilesSWAR() {
+		TilePacker.packSWAR(tiles, spr, 0);
+		return spr;
+	}
+
+	@Benchmark
+	public void writeSPRFile() throws IOException, ZSPRFormatException {
+		SpriteManipulator.writeSPRFile(sprFile.getPath(), zspr);
+	}
+
+	@Benchmark
+	public long writeZSPRGathered() throws IOException, PNGException {
+		return ZSPRWriter.local().write(sprite, sprPath, false);
+	}
+
+	@Benchmark
+	public long writeZSPRAtomic() throws IOException, PNGException {
+		return ZSPRWriter.local().write(sprite, sprPath, true);
+	}
+
+	/**
+	 * What the server sends back, without touching the disk.
+	 */
+	@Benchmark
+	public byte[] zsprToBytes() throws PNGException {
+		return ZSPRWriter.local().toBytes(sprite);
+	}
+
+	@Benchmark
+	public void patchRom() throws IOException, ZSPRFormatException {
+		SpriteManipulator.patchRom(romFile.getPath(), zspr);
+	}
+
+	@Benchmark
+	public SpriteData convertRGBA() throws ConversionException {
+		return SpriteConverter.convert(rgbaRequest);
+	}
+
+	/**
+	 * Same as {@link #convertRGBA()}, keeping the sprite in the context's buffer instead of copying it.
+	 */
+	@Benchmark
+	public SpriteData convertRGBAInContext() throws ConversionException {
+		return ConversionContext.local().convert(rgbaRequest);
+	}
+
+	@Benchmark
+	public SpriteData convertIndexed() throws ConversionException {
+		return SpriteConverter.convert(indexedRequest);
+	}
+}
@@ -0,0 +1,97 @@
+package pngconvert.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.*;
+
+import pngconvert.Colors;
+import pngconvert.PNGException;
+import pngconvert.SheetDecoder;
+import pngconvert.SpriteConverter;
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * Getting from PNG bytes to an ABGR raster, rounded or not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+	private byte[] rgba;
+	private byte[] indexed;
+	private BufferedImage abgr;
+	private SheetDecoder decoder;
+	private byte[] rounded;
+
+	@Setup
+	public void setup() throws IOException {
+		rgba = Sheets.rgbaPNG(1);
+		indexed = Sheets.indexedPNG(1);
+		abgr = SpriteManipulator.convertToABGR(ImageIO.read(new ByteArrayInputStream(rgba)));
+		decoder = new SheetDecoder();
+		rounded = new byte[SheetDecoder.WIDTH * SheetDecoder.HEIGHT * 4];
+	}
+
+	@Benchmark
+	public BufferedImage imageIOReadAndConvertToABGR() throws IOException {
+		return SpriteManipulator.convertToABGR(ImageIO.read(new ByteArrayInputStream(rgba)));
+	}
+
+	@Benchmark
+	public byte[] getImageRaster() throws PNGException {
+		return SpriteConverter.getImageRaster(abgr);
+	}
+
+	@Benchmark
+	public byte[] sheetDecoderRGBA() {
+		decoder.decode(rgba);
+		return decoder.getRaster();
+	}
+
+	@Benchmark
+	public byte[] sheetDecoderIndexed() {
+		decoder.decode(indexed);
+		return decoder.getIndices();
+	}
+
+	/**
+	 * Decoding, then rounding the whole raster in a second pass.
+	 */
+	@Benchmark
+	public byte[] sheetDecoderThenRound() {
+		decoder.decode(rgba);
+		Colors.roundRaster(decoder.getRaster(), rounded, rounded.length);
+		return rounded;
+	}
+
+	/**
+	 * Rounding each row as soon as it is decoded.
+	 */
+	@Benchmark
+	public byte[] sheetDecoderRounded() {
+		decoder.decode(rgba, rgba.length, true);
+		return decoder.getRaster();
+	}
+
+	@Benchmark
+	public byte[] roundRasterLUT() {
+		byte[] raster = decoder.getRaster();
+		Colors.roundRasterLUT(raster, 0, rounded, 0, rounded.length);
+		return rounded;
+	}
+
+	@Benchmark
+	public byte[] roundRasterSWAR() {
+		byte[] raster = decoder.getRaster();
+		Colors.roundRasterSWAR(raster, 0, rounded, 0, rounded.length);
+		return rounded;
+	}
+}
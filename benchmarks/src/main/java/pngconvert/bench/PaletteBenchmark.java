@@ -0,0 +1,145 @@
+package pngconvert.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pngconvert.Colors;
+import pngconvert.PNGException;
+import pngconvert.PaletteReader;
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * Every palette reader, against the sample palettes in {@code examples/palettes}.
+ * File readers include opening the file, as a conversion would.
+ * The {@code BufferedReader} readers are kept for comparison with the byte-level ones conversions use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteBenchmark {
+	private String gimp;
+	private String gale;
+	private String paintNET;
+	private String ase;
+	private String aco;
+	private byte[] binary;
+	private byte[] raster;
+	private byte[] scratch;
+	private int[] palette;
+	private int[] decimalPalette;
+
+	@Setup
+	public void setup() throws Exception {
+		gimp = Sheets.palette("alttp-link-gimp.gpl");
+		gale = Sheets.palette("alttp-link-graphics-gale.pal");
+		paintNET = Sheets.palette("alttp-link-paint-net.txt");
+		ase = Sheets.palette("alttp-link-photoshop-exchange.ase");
+		aco = Sheets.palette("alttp-link-photoshop-swatches.aco");
+		binary = Sheets.binaryPalette();
+		raster = Sheets.rgbaRaster(1);
+		scratch = new byte[raster.length];
+		palette = PaletteReader.palFromBinary(binary);
+		decimalPalette = Colors.toDecimal(palette);
+	}
+
+	@Benchmark
+	public int[] getPaletteColorsFromFileGIMP() throws IOException, PNGException {
+		try (BufferedReader br = new BufferedReader(new FileReader(gimp))) {
+			return PaletteReader.getPaletteColorsFromFile(br);
+		}
+	}
+
+	@Benchmark
+	public int[] getPaletteColorsFromFileGraphicsGale() throws IOException, PNGException {
+		try (BufferedReader br = new BufferedReader(new FileReader(gale))) {
+			return PaletteReader.getPaletteColorsFromFile(br);
+		}
+	}
+
+	@Benchmark
+	public int[] getPaletteColorsFromPaintNET() throws IOException, PNGException {
+		try (BufferedReader br = new BufferedReader(new FileReader(paintNET))) {
+			return PaletteReader.getPaletteColorsFromPaintNET(br);
+		}
+	}
+
+	@Benchmark
+	public int[] palFromTextGIMP() throws IOException, PNGException {
+		return PaletteReader.palFromText(Files.readAllBytes(Paths.get(gimp)));
+	}
+
+	@Benchmark
+	public int[] palFromTextGraphicsGale() throws IOException, PNGException {
+		return PaletteReader.palFromText(Files.readAllBytes(Paths.get(gale)));
+	}
+
+	@Benchmark
+	public int[] palFromPaintNET() throws IOException, PNGException {
+		return PaletteReader.palFromPaintNET(Files.readAllBytes(Paths.get(paintNET)));
+	}
+
+	@Benchmark
+	public int[] palFromASE() throws IOException, PNGException {
+		return PaletteReader.palFromASE(Files.readAllBytes(Paths.get(ase)));
+	}
+
+	@Benchmark
+	public int[] palFromACO() throws IOException, PNGException {
+		return PaletteReader.palFromACO(Files.readAllBytes(Paths.get(aco)));
+	}
+
+	@Benchmark
+	public int[] palFromBinary() {
+		return PaletteReader.palFromBinary(binary);
+	}
+
+	@Benchmark
+	public int[] palExtract() {
+		// palExtract clears the palette block, so work on a fresh copy each time
+		System.arraycopy(raster, 0, scratch, 0, raster.length);
+		return PaletteReader.palExtract(scratch);
+	}
+
+	@Benchmark
+	public int[] roundPalette() {
+		return Colors.roundPalette(palette);
+	}
+
+	/**
+	 * Rounding the same palette as integers (RRRGGGBBB), for comparison with {@link #roundPalette()}.
+	 */
+	@Benchmark
+	public int[] roundPaletteDecimal() {
+		return SpriteManipulator.roundPalette(decimalPalette);
+	}
+
+	@Benchmark
+	public int channelSum() {
+		int sum = 0;
+		for (int c : palette) {
+			sum += Colors.red(c) + Colors.green(c) + Colors.blue(c);
+		}
+		return sum;
+	}
+
+	/**
+	 * Taking the same palette apart as integers (RRRGGGBBB), for comparison with {@link #channelSum()}.
+	 */
+	@Benchmark
+	public int channelSumDecimal() {
+		int sum = 0;
+		for (int c : decimalPalette) {
+			sum += c / 1000000 + (c / 1000) % 1000 + c % 1000;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,138 @@
+package pngconvert.bench;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import pngconvert.SheetDecoder;
+
+/**
+ * Generated sprite sheets and the sample palettes shared by the benchmarks.
+ * <br><br>
+ * Sheets are random pixels in green mail's colors, with all 64 mail colors
+ * laid out in the last 8x8 block so palette extraction has something to read.
+ * The colors are those of {@code examples/palettes/alttp-link-gimp.gpl}.
+ */
+final class Sheets {
+	static final int WIDTH = 128;
+	static final int HEIGHT = 448;
+
+	// directory of the sample palettes; override with -Dpalettes=...
+	static final String PALETTE_DIR = System.getProperty("palettes", "../examples/palettes");
+
+	// green, blue, red and bunny mail as 0xRRGGBB
+	static final int[] MAILS = {
+			0x000000, 0xF8F8F8, 0xF0D840, 0xB86820, 0xF0A068, 0x282828, 0xF87800, 0xC01820,
+			0xE860B0, 0x389068, 0x40D870, 0x509010, 0x78B820, 0xE09050, 0x885828, 0xC080F0,
+			0xB8B8A8, 0xF8F8F8, 0xF0D840, 0xB86820, 0xF0A068, 0x282828, 0xF87800, 0xC01820,
+			0xE860B0, 0x0060D0, 0x88A0E8, 0xC0A048, 0xF8D880, 0xE09050, 0xC86020, 0xC080F0,
+			0xE0D8C8, 0xF8F8F8, 0xF0D840, 0xB86820, 0xF0A068, 0x282828, 0xF87800, 0xC01820,
+			0xE860B0, 0xB81020, 0xF05888, 0x9080C0, 0xD0C0E8, 0xE09050, 0xC86020, 0xC080F0,
+			0x000000, 0xF8F8F8, 0xF0D840, 0xB86820, 0xF0A068, 0x282828, 0xF87800, 0xC01820,
+			0xE860B0, 0x389068, 0x40D870, 0x509010, 0x78B820, 0xE09050, 0x885828, 0xC080F0
+	};
+
+	private Sheets() {}
+
+	/**
+	 * @return palette index of every pixel; green mail only, except for the palette block
+	 */
+	static byte[] indices(long seed) {
+		Random r = new Random(seed);
+		byte[] ret = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = (byte) r.nextInt(16);
+		}
+		// palette in the last 8x8 block
+		int startAt = (WIDTH * HEIGHT - 8) - (WIDTH * 7);
+		for (int row = 0; row < 8; row++) {
+			for (int col = 0; col < 8; col++) {
+				ret[startAt + row * WIDTH + col] = (byte) (row * 8 + col);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return 32-bit RGBA PNG sheet
+	 */
+	static byte[] rgbaPNG(long seed) {
+		byte[] idx = indices(seed);
+		BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		for (int i = 0; i < idx.length; i++) {
+			img.setRGB(i % WIDTH, i / WIDTH, 0xFF000000 | MAILS[idx[i]]);
+		}
+		return encode(img);
+	}
+
+	/**
+	 * @return ABGR raster of {@link #rgbaPNG(long)}, as {@code getImageRaster} would return it
+	 */
+	static byte[] rgbaRaster(long seed) {
+		SheetDecoder decoder = new SheetDecoder();
+		if (!decoder.decode(rgbaPNG(seed))) {
+			throw new IllegalStateException("Generated sheet could not be decoded");
+		}
+		return decoder.getRaster().clone();
+	}
+
+	/**
+	 * @return 8-bit indexed PNG sheet with all 64 mail colors in PLTE
+	 */
+	static byte[] indexedPNG(long seed) {
+		byte[] r = new byte[64];
+		byte[] g = new byte[64];
+		byte[] b = new byte[64];
+		for (int i = 0; i < 64; i++) {
+			r[i] = (byte) (MAILS[i] >> 16);
+			g[i] = (byte) (MAILS[i] >> 8);
+			b[i] = (byte) MAILS[i];
+		}
+		byte[] idx = indices(seed);
+		BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED,
+				new IndexColorModel(8, 64, r, g, b));
+		img.getRaster().setDataElements(0, 0, WIDTH, HEIGHT, idx);
+		return encode(img);
+	}
+
+	/**
+	 * @return YY-CHR style binary palette of the 64 mail colors
+	 */
+	static byte[] binaryPalette() {
+		byte[] ret = new byte[64 * 3];
+		for (int i = 0; i < 64; i++) {
+			ret[i * 3] = (byte) (MAILS[i] >> 16);
+			ret[i * 3 + 1] = (byte) (MAILS[i] >> 8);
+			ret[i * 3 + 2] = (byte) MAILS[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * @return path of one of the sample palettes
+	 */
+	static String palette(String name) {
+		File f = new File(PALETTE_DIR, name);
+		if (!f.isFile()) {
+			throw new IllegalStateException("Sample palette not found: " + f.getAbsolutePath() +
+					" (set -Dpalettes=<path to examples/palettes>)");
+		}
+		return f.getPath();
+	}
+
+	private static byte[] encode(BufferedImage img) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(img, "png", out);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
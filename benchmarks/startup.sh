@@ -0,0 +1,29 @@
+#!/bin/sh
+# Measures how long a single command line conversion takes from JVM launch to exit,
+# and how many classes it loads, through the GUI main class and the headless entry point.
+#
+# usage: startup.sh <PNGto4BPP.jar> <sheet.png> [runs]
+
+JAR=${1:?PNGto4BPP jar}
+SHEET=${2:?sprite sheet}
+RUNS=${3:-10}
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+
+measure() {
+	name=$1
+	shift
+	start=$(date +%s%N)
+	i=0
+	while [ $i -lt "$RUNS" ]; do
+		java "$@" "imgSrc=$SHEET" palOption=2 "sprTarget=$OUT/out.zspr" > /dev/null 2>&1 || echo "$name: conversion failed"
+		i=$((i + 1))
+	done
+	end=$(date +%s%N)
+	classes=$(java -verbose:class "$@" "imgSrc=$SHEET" palOption=2 "sprTarget=$OUT/out.zspr" 2> /dev/null | grep -c -i "load")
+	swing=$(java -verbose:class "$@" "imgSrc=$SHEET" palOption=2 "sprTarget=$OUT/out.zspr" 2> /dev/null | grep -c "javax\.swing\|java\.awt\.[A-Z]")
+	echo "$name: $(( (end - start) / RUNS / 1000000 )) ms per run, $classes classes loaded ($swing Swing/AWT)"
+}
+
+measure "java -jar" -jar "$JAR"
+measure "CommandLine" -cp "$JAR" pngconvert.CommandLine
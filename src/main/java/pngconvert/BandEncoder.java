@@ -0,0 +1,121 @@
+package pngconvert;
+
+/**
+ * Converts a sheet to 4BPP one row band at a time, while it is being decoded.
+ * <br><br>
+ * Every 8 rows of the sheet make up 16 blocks. Each row is rounded and indexed into those blocks
+ * as soon as {@link SheetDecoder} unfilters it, and every finished band is packed straight
+ * into the output, so neither the raster nor the block array of the whole sheet is ever built.
+ * Working memory is one rounded row and one band of blocks.
+ * <br><br>
+ * This only works when the palette is known before the pixels:
+ * palette files, or the PLTE of an indexed sheet.
+ * Whenever something doesn't fit (extracted palettes, colors outside green mail,
+ * sheets the decoder doesn't handle), {@link #encode} gives up and the caller converts the usual way.
+ * <br><br>
+ * Instances are not thread-safe; each {@link ConversionContext} has its own.
+ */
+class BandEncoder implements SheetDecoder.RowSink {
+	private static final int BAND_BLOCKS = SheetDecoder.WIDTH / 8;
+
+	private final byte[] row = new byte[SheetDecoder.WIDTH * 4];
+	private final byte[] band = new byte[BAND_BLOCKS * TilePacker.BLOCK_PIXELS];
+	private final int[] remap = new int[256];
+
+	private SheetDecoder decoder;
+	private ConversionRequest req;
+	private CompiledPalette palette;
+	private byte[] sprite;
+
+	/**
+	 * Decodes and converts a sheet band by band.
+	 * @param decoder - decoder to read the sheet with
+	 * @param png - buffer holding the PNG file
+	 * @param length - size of the PNG file
+	 * @param req - request being converted
+	 * @param palette - palette to index against; {@code null} to use the PLTE of the sheet
+	 * @param sprite - buffer for the 4BPP data
+	 * @return {@code true} if {@code sprite} holds the whole sheet
+	 */
+	boolean encode(SheetDecoder decoder, byte[] png, int length, ConversionRequest req,
+			CompiledPalette palette, byte[] sprite) {
+		this.decoder = decoder;
+		this.req = req;
+		this.palette = palette;
+		this.sprite = sprite;
+		try {
+			return decoder.decode(png, length, this, false);
+		} finally {
+			this.decoder = null;
+			this.req = null;
+			this.sprite = null;
+		}
+	}
+
+	/**
+	 * @return palette the last sheet was indexed against
+	 */
+	CompiledPalette getPalette() {
+		return palette;
+	}
+
+	@Override
+	public boolean row(int y, byte[] abgr, byte[] indices) {
+		if (y == 0 && !start(indices != null)) {
+			return false;
+		}
+
+		int t = (y % 8) * 8;
+		if (indices != null) {
+			// indexed rows never need their colors looked at
+			for (int x = 0; x < SheetDecoder.WIDTH; x++) {
+				int s = remap[indices[x] & 0xFF];
+				if (s < 0) {
+					return false;
+				}
+				band[t + (x / 8) * 64 + x % 8] = (byte) s;
+			}
+		}
+		else {
+			Colors.roundRaster(abgr, row, row.length);
+			if (!palette.indexRow(row, 0, band, t)) {
+				return false;
+			}
+		}
+
+		// band is done
+		if (y % 8 == 7) {
+			TilePacker.pack(band, sprite, (y / 8) * BAND_BLOCKS * TilePacker.BLOCK_BYTES);
+		}
+		return true;
+	}
+
+	/**
+	 * Sets up for a new sheet once its header and palette have been read.
+	 * @return {@code false} if the sheet can't be encoded band by band
+	 */
+	private boolean start(boolean indexed) {
+		if (palette == null) {
+			// palette of an indexed PNG
+			if (!indexed) {
+				return false;
+			}
+			try {
+				palette = new CompiledPalette(SpriteConverter.readPalette(req, null, decoder));
+			} catch (ConversionException e) {
+				// converting the usual way reports it
+				return false;
+			}
+		}
+
+		if (indexed) {
+			// round the PNG palette instead of every pixel; -1 for colors that aren't in green mail
+			int size = decoder.getPaletteSize();
+			int[] plte = decoder.getPalette();
+			for (int i = 0; i < 256; i++) {
+				remap[i] = i < size ? palette.indexOf(Colors.round(plte[i] & 0xFFFFFF)) : -1;
+			}
+		}
+		return true;
+	}
+}
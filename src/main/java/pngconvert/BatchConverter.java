@@ -0,0 +1,518 @@
+package pngconvert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import spritemanipulator.*;
+
+/**
+ * Converts many sheets with the same palette settings, spread over all cores.
+ * <br><br>
+ * Sheets are handed to a {@link ForkJoinPool} one at a time;
+ * at most two sheets per worker are queued at once,
+ * so huge directories don't pile up thousands of pending tasks.
+ * With the {@link BuildCache} on, sheets whose sprite file is up to date are skipped.
+ * With a preview directory set, each worker also writes previews of every sprite it converts
+ * (see {@link SheetExporter#writePreviews(SpriteData, String)}), straight from the converted sprite.
+ */
+public class BatchConverter {
+	private final int palMethod;
+	private final String palettePath;
+	private final String outDir;
+	private final int threads;
+	private final boolean cache;
+	private String previewDir = "";
+	private boolean atomic;
+	private Path sourceDir;
+
+	// directory the output directory mirrors for the current run
+	private Path base;
+
+	// palette file shared by every sheet, compiled once
+	private CompiledPalette sharedPalette;
+	private byte[] sharedPaletteData;
+
+	/**
+	 * @param palMethod - one of the {@code PAL_} methods of {@link SpriteConverter}
+	 * @param palettePath - palette file shared by every sheet; ignored when extracting
+	 * @param outDir - directory for the {@code .zspr} files; blank to write next to each image
+	 * @param threads - number of workers; 0 or less to use every core
+	 */
+	public BatchConverter(int palMethod, String palettePath, String outDir, int threads) {
+		this(palMethod, palettePath, outDir, threads, false);
+	}
+
+	/**
+	 * @param palMethod - one of the {@code PAL_} methods of {@link SpriteConverter}
+	 * @param palettePath - palette file shared by every sheet; ignored when extracting
+	 * @param outDir - directory for the {@code .zspr} files; blank to write next to each image
+	 * @param threads - number of workers; 0 or less to use every core
+	 * @param cache - skip sheets whose sprite file is up to date, see {@link BuildCache}
+	 */
+	public BatchConverter(int palMethod, String palettePath, String outDir, int threads, boolean cache) {
+		this.palMethod = palMethod;
+		this.palettePath = palettePath == null ? "" : palettePath;
+		this.outDir = outDir == null ? "" : outDir;
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		this.cache = cache;
+	}
+
+	/**
+	 * Writes previews of every sprite in each mail as well.
+	 * @param previewDir - directory for the previews; blank for none
+	 */
+	public void setPreviewDir(String previewDir) {
+		this.previewDir = previewDir == null ? "" : previewDir;
+	}
+
+	/**
+	 * Sets the directory the sheets were found under.
+	 * Each sheet's directories below it are kept in the output directory,
+	 * so sheets with the same name in different directories don't overwrite each other.
+	 * @param sourceDir - directory holding every sheet; {@code null} for the deepest one that does
+	 */
+	public void setSourceDir(Path sourceDir) {
+		this.sourceDir = sourceDir;
+		base = sourceDir;
+	}
+
+	/**
+	 * Writes every sprite file to a temporary file and renames it into place,
+	 * so readers never see one half written.
+	 */
+	public void setAtomicWrites(boolean atomic) {
+		this.atomic = atomic;
+	}
+
+	/**
+	 * Converts every image and waits for all of them to finish.
+	 * @param images - sheets to convert
+	 */
+	public BatchSummary convertAll(List<Path> images) throws InterruptedException {
+		BatchSummary summary = new BatchSummary();
+
+		// every sheet uses the same palette file; read it once
+		if (palMethod == SpriteConverter.PAL_ASCII || palMethod == SpriteConverter.PAL_BINARY) {
+			try {
+				ConversionRequest req = new ConversionRequest("", palMethod, palettePath);
+				sharedPaletteData = SpriteConverter.readPaletteData(req);
+				req.setPaletteData(sharedPaletteData);
+				sharedPalette = SpriteConverter.compilePalette(req);
+			} catch (ConversionException e) {
+				// leave it to each sheet to report
+				sharedPalette = null;
+			}
+		}
+
+		base = sourceDir != null ? sourceDir : commonDir(images);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore slots = new Semaphore(threads * 2);
+
+		summary.start();
+		try {
+			for (Path img : images) {
+				slots.acquire();
+				pool.execute(() -> {
+					long start = System.nanoTime();
+					try {
+						ConversionRequest req = requestFor(img);
+						makeParentDirs(req.getTarget());
+						if (req.getPreviews() != null) {
+							makeParentDirs(req.getPreviews());
+						}
+						summary.add(cache ?
+								BuildCache.run(req, sharedPaletteData) :
+								SpriteConverter.run(req));
+					} catch (RuntimeException e) {
+						summary.add(SpriteConverter.counted(ConversionResult.unexpected(img.toString(), "", e,
+								System.nanoTime() - start)));
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			summary.finish();
+		}
+
+		return summary;
+	}
+
+	/**
+	 * Builds the request for a single sheet of the batch.
+	 */
+	ConversionRequest requestFor(Path img) {
+		ConversionRequest ret = new ConversionRequest(img.toString(), palMethod, palettePath);
+		ret.setCompiledPalette(sharedPalette);
+		ret.setTarget(targetFor(img));
+		ret.setAtomicWrite(atomic);
+		if (!previewDir.equals("")) {
+			String name = img.getFileName().toString();
+			int dot = name.lastIndexOf('.');
+			ret.setPreviews(outputDir(img, base, previewDir).resolve(dot < 0 ? name : name.substring(0, dot)).toString());
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the {@code .zspr} written for {@code img}
+	 */
+	String targetFor(Path img) {
+		String name = SpriteConverter.changeExtension(img.getFileName().toString(), ZSPRFile.EXTENSION);
+		Path dir = outputDir(img, base, outDir);
+		return dir == null ? name : dir.resolve(name).toString();
+	}
+
+	/**
+	 * Works out where to write what is made from a file of a batch.
+	 * @param file - file of the batch
+	 * @param base - directory the batch was found under; {@code null} to write straight into {@code outDir}
+	 * @param outDir - output directory; blank to write next to {@code file}
+	 * @return {@code outDir} plus the directories between {@code base} and {@code file},
+	 * or the directory of {@code file} if {@code outDir} is blank;
+	 * {@code null} for the current directory
+	 */
+	static Path outputDir(Path file, Path base, String outDir) {
+		if (outDir.equals("")) {
+			return file.getParent();
+		}
+		Path ret = Paths.get(outDir);
+		if (base == null) {
+			return ret;
+		}
+		Path rel = base.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize()).getParent();
+		// files outside of base go straight into outDir
+		return rel == null || rel.startsWith("..") ? ret : ret.resolve(rel);
+	}
+
+	/**
+	 * @return the deepest directory holding every file, or {@code null} if there are no files
+	 */
+	static Path commonDir(List<Path> files) {
+		Path ret = null;
+		for (Path f : files) {
+			Path dir = f.toAbsolutePath().normalize().getParent();
+			if (ret == null) {
+				ret = dir;
+			}
+			while (ret != null && !dir.startsWith(ret)) {
+				ret = ret.getParent();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Finds two files of a batch that would be written to the same place.
+	 * @param files - files of the batch
+	 * @param target - where each file's output goes
+	 * @return {@code false} after printing the first two files that share a target
+	 */
+	static boolean checkTargets(List<Path> files, Function<Path, String> target) {
+		Map<String, Path> seen = new HashMap<String, Path>();
+		for (Path f : files) {
+			String t = Paths.get(target.apply(f)).toAbsolutePath().normalize().toString();
+			Path other = seen.putIfAbsent(t, f);
+			if (other != null) {
+				System.out.println("Both " + other + " and " + f + " would be written to " + target.apply(f) + ".");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the directories a file is to be written in.
+	 * If that fails, writing the file reports it.
+	 */
+	static void makeParentDirs(String file) {
+		Path parent = Paths.get(file).toAbsolutePath().getParent();
+		if (parent != null) {
+			try {
+				Files.createDirectories(parent);
+			} catch (IOException e) {
+				// left to the write
+			}
+		}
+	}
+
+	/**
+	 * Lists the sheets described by {@code src}.
+	 * <br><br>
+	 * A directory yields every PNG directly inside it;
+	 * a single file yields itself;
+	 * anything else is treated as a glob such as {@code sprites/**}{@code /*.png}.
+	 * @param src - directory, file or glob
+	 * @return matching files, sorted by path
+	 */
+	public static List<Path> findSheets(String src) throws IOException {
+		return findFiles(src, SpriteConverter.IMAGEEXTS);
+	}
+
+	/**
+	 * Same as {@link #findSheets(String)}, for other kinds of files.
+	 * @param src - directory, file or glob
+	 * @param exts - extensions of the files a directory yields
+	 * @return matching files, sorted by path
+	 */
+	static List<Path> findFiles(String src, String... exts) throws IOException {
+		List<Path> ret = new ArrayList<Path>();
+		int globAt = firstGlobChar(src);
+
+		if (globAt < 0) {
+			Path p = Paths.get(src);
+			if (Files.isDirectory(p)) {
+				try (Stream<Path> files = Files.list(p)) {
+					files.filter(f -> Files.isRegularFile(f) &&
+							SpriteManipulator.testFileType(f.toString(), exts))
+						.forEach(ret::add);
+				}
+			}
+			else if (Files.isRegularFile(p)) {
+				ret.add(p);
+			}
+		}
+		else {
+			// walk from the deepest directory that has no glob characters
+			int sep = Math.max(src.lastIndexOf('/', globAt), src.lastIndexOf(File.separatorChar, globAt));
+			Path base = baseDir(src);
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" +
+					(sep < 0 ? base.resolve(src).toString() : src));
+			if (Files.isDirectory(base)) {
+				try (Stream<Path> files = Files.walk(base)) {
+					files.filter(f -> Files.isRegularFile(f) && matcher.matches(f))
+						.forEach(ret::add);
+				}
+			}
+		}
+
+		Collections.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * @param src - directory, file or glob, as for {@link #findFiles(String, String...)}
+	 * @return the directory the files of {@code src} are found under:
+	 * a directory itself, the directory of a file,
+	 * or the deepest directory of a glob that has no glob characters
+	 */
+	static Path baseDir(String src) {
+		int globAt = firstGlobChar(src);
+		if (globAt < 0) {
+			Path p = Paths.get(src);
+			if (Files.isDirectory(p)) {
+				return p;
+			}
+			Path parent = p.getParent();
+			return parent == null ? Paths.get(".") : parent;
+		}
+		int sep = Math.max(src.lastIndexOf('/', globAt), src.lastIndexOf(File.separatorChar, globAt));
+		return Paths.get(sep < 0 ? "." : src.substring(0, sep + 1));
+	}
+
+	private static int firstGlobChar(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			switch (s.charAt(i)) {
+				case '*' :
+				case '?' :
+				case '[' :
+				case '{' :
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	// Summary
+	// Batch command line usage:
+	// batchSrc: Directory of images, or a glob such as sprites/**/*.png
+	// palOption: as for single conversions
+	// palSrc (Used if method 0 or 1 is selected): Full path of the palette file shared by all images.
+	// outDir (optional): Directory for the sprite files. Defaults to next to each image.
+	// threads (optional): Number of workers. Defaults to one per core.
+	// cache (optional): false to convert every sheet, even those whose sprite file is up to date.
+	// previewDir (optional): Directory for previews of each sprite in every mail, named <image>.<mail>.png,
+	//   keeping the directories of each image below batchSrc.
+	// atomic (optional): true to write each sprite file to a temporary file and rename it into place.
+	// metrics (optional): File to write stage timings and counters to when done; JSON if it ends in .json, else Prometheus text.
+	// Returns True if every sheet was converted.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> values = new HashMap<String, String>();
+		boolean argumentErrorsFound = !parseArgs(args, values, "batchSrc", "palOption", "palSrc", "outDir",
+				"previewDir", "metrics", "threads", "cache", "atomic");
+
+		String batchSrc = values.getOrDefault("batchSrc", "");
+		String palSrc = values.getOrDefault("palSrc", "");
+		String outDir = values.getOrDefault("outDir", "");
+		String previewDir = values.getOrDefault("previewDir", "");
+		String metrics = values.getOrDefault("metrics", "");
+
+		int palOption = -1;
+		if (values.containsKey("palOption")) {
+			palOption = parseNumber(values.get("palOption"), -1);
+			if (palOption < 0 || palOption >= SpriteConverter.PAL_METHOD_COUNT) {
+				System.out.println("The palOption: " + values.get("palOption") + " is out of range.");
+				argumentErrorsFound = true;
+			}
+		}
+
+		int threads = parseThreads(values.get("threads"));
+		if (threads < 0) {
+			argumentErrorsFound = true;
+		}
+
+		if (!isBoolean(values.get("cache"))) {
+			argumentErrorsFound = true;
+		}
+		if (!isBoolean(values.get("atomic"))) {
+			argumentErrorsFound = true;
+		}
+		boolean cache = Boolean.parseBoolean(values.getOrDefault("cache", "true"));
+		boolean atomic = Boolean.parseBoolean(values.getOrDefault("atomic", "false"));
+
+		if (palOption < 0) {
+			System.out.println("No palette option was specified.");
+			argumentErrorsFound = true;
+		}
+
+		if (palSrc.equals("") && (palOption == 0 || palOption == 1)) {
+			System.out.println("No palette source was specified despite using a palette method that requires it.");
+			argumentErrorsFound = true;
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		List<Path> images;
+		try {
+			images = findSheets(batchSrc);
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+			return false;
+		}
+
+		if (images.isEmpty()) {
+			System.out.println("No images found for: " + batchSrc);
+			return false;
+		}
+
+		BatchConverter batch = new BatchConverter(palOption, palSrc, outDir, threads, cache);
+		batch.setSourceDir(baseDir(batchSrc));
+		batch.setAtomicWrites(atomic);
+		// two sheets writing one sprite would overwrite each other and its build cache entry
+		if (!checkTargets(images, batch::targetFor)) {
+			return false;
+		}
+
+		if (!outDir.equals("")) {
+			new File(outDir).mkdirs();
+		}
+		if (!previewDir.equals("")) {
+			new File(previewDir).mkdirs();
+		}
+
+		BatchSummary summary;
+		try {
+			batch.setPreviewDir(previewDir);
+			summary = batch.convertAll(images);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		summary.print(System.out, "Converted", "sheets");
+
+		if (!metrics.equals("")) {
+			Metrics m = Metrics.global();
+			String text = metrics.toLowerCase().endsWith(".json") ? m.toJSON() : m.toPrometheus();
+			try {
+				Files.write(Paths.get(metrics), text.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				System.out.println("ERROR: " + e);
+			}
+		}
+
+		return summary.getFailed() == 0;
+	}
+
+	/**
+	 * Splits {@code key=value} command line arguments, printing each one that is malformed
+	 * or whose key isn't known.
+	 * @param args - arguments to split
+	 * @param values - filled with the value of every known key given
+	 * @param keys - keys the command takes
+	 * @return {@code false} if any argument was invalid
+	 */
+	static boolean parseArgs(String[] args, Map<String, String> values, String... keys) {
+		List<String> known = Arrays.asList(keys);
+		boolean ret = true;
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0 || !known.contains(arg.substring(0, eq))) {
+				System.out.println("The argument: " + arg + " is invalid.");
+				ret = false;
+				continue;
+			}
+			values.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		return ret;
+	}
+
+	/**
+	 * @param value - {@code threads} argument; {@code null} if it wasn't given
+	 * @return number of workers, 0 for one per core, or -1 after printing that it isn't valid
+	 */
+	static int parseThreads(String value) {
+		if (value == null) {
+			return 0;
+		}
+		int ret = parseNumber(value, -1);
+		if (ret < 0) {
+			System.out.println("The argument: " + value + " is not a valid number of threads.");
+		}
+		return ret;
+	}
+
+	/**
+	 * @param value - argument to check; {@code null} if it wasn't given
+	 * @return {@code false} after printing that {@code value} is neither true nor false
+	 */
+	static boolean isBoolean(String value) {
+		if (value == null || value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+			return true;
+		}
+		System.out.println("The argument: " + value + " is not true or false.");
+		return false;
+	}
+
+	/**
+	 * @return {@code value} as an integer, or {@code fallback} if it isn't one
+	 */
+	static int parseNumber(String value, int fallback) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package pngconvert;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import pngconvert.ConversionException.Failure;
+
+/**
+ * Collects the results of a batch run.
+ * Results may be added from any number of worker threads.
+ */
+public class BatchSummary {
+	private final List<ConversionResult> results = new ArrayList<ConversionResult>();
+	private long startNanos;
+	private long endNanos;
+
+	void start() {
+		startNanos = System.nanoTime();
+	}
+
+	void finish() {
+		endNanos = System.nanoTime();
+	}
+
+	synchronized void add(ConversionResult res) {
+		results.add(res);
+	}
+
+	public synchronized List<ConversionResult> getResults() {
+		return Collections.unmodifiableList(new ArrayList<ConversionResult>(results));
+	}
+
+	public synchronized int getTotal() {
+		return results.size();
+	}
+
+	public synchronized int getSucceeded() {
+		int ret = 0;
+		for (ConversionResult res : results) {
+			if (res.isSuccess()) {
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return number of items skipped because they were already up to date
+	 */
+	public synchronized int getCached() {
+		int ret = 0;
+		for (ConversionResult res : results) {
+			if (res.isCached()) {
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	public synchronized int getFailed() {
+		return results.size() - getSucceeded();
+	}
+
+	/**
+	 * @return number of failures of each kind that occurred
+	 */
+	public synchronized Map<Failure, Integer> getFailuresByType() {
+		Map<Failure, Integer> ret = new EnumMap<Failure, Integer>(Failure.class);
+		for (ConversionResult res : results) {
+			if (!res.isSuccess()) {
+				Failure f = res.getError().getFailure();
+				Integer n = ret.get(f);
+				ret.put(f, n == null ? 1 : n + 1);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return wall time of the whole run, in seconds
+	 */
+	public double getSeconds() {
+		return (endNanos - startNanos) / 1e9;
+	}
+
+	/**
+	 * @return items finished (successful or not) per second of wall time
+	 */
+	public double getSheetsPerSecond() {
+		double secs = getSeconds();
+		return secs > 0 ? getTotal() / secs : 0;
+	}
+
+	/**
+	 * Prints totals, throughput and every failure.
+	 * @param verb - what was done to each item, e.g. {@code "Converted"}
+	 * @param noun - what the items are, e.g. {@code "sheets"}
+	 */
+	public synchronized void print(PrintStream out, String verb, String noun) {
+		out.println(String.format("%s %d of %d %s in %.2f s (%.1f %s/sec)",
+				verb, getSucceeded(), getTotal(), noun, getSeconds(), getSheetsPerSecond(), noun));
+		if (getCached() > 0) {
+			out.println(String.format("Up to date: %d of %d %s (%.1f%% cache hits)",
+					getCached(), getTotal(), noun, 100.0 * getCached() / getTotal()));
+		}
+
+		if (getFailed() == 0) {
+			return;
+		}
+
+		out.println("Failed: " + getFailed());
+		for (Map.Entry<Failure, Integer> e : getFailuresByType().entrySet()) {
+			out.println("  " + e.getKey() + ": " + e.getValue());
+		}
+		for (ConversionResult res : results) {
+			if (!res.isSuccess()) {
+				out.println("  " + res.getSource() + ": " +
+						res.getError().getMessage().replace('\n', ' '));
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Skips sheets whose sprite file is already up to date.
+ * <br><br>
+ * Next to every {@code .zspr} it writes, the cache keeps a {@code .zspr.sha256} sidecar holding
+ * a hash of everything the sprite was made from: the PNG bytes, the palette bytes, the palette method
+ * and the sprite's meta data. A sheet is only converted again when that hash changes
+ * or the sprite file is gone.
+ */
+public final class BuildCache {
+	public static final String SIDECAR_EXTENSION = "sha256";
+
+	// bump whenever the same inputs would convert to different output
+	private static final int FORMAT = 2;
+
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private BuildCache() {}
+
+	/**
+	 * Converts and writes a sheet unless its sprite file is up to date.
+	 * @param req - request to run; its image is read here and kept on the request
+	 * @param paletteData - contents of the palette file, if the batch read it already; may be {@code null}
+	 * @return the result of the conversion, or a {@linkplain ConversionResult#isCached() cached} result
+	 */
+	public static ConversionResult run(ConversionRequest req, byte[] paletteData) {
+		long start = System.nanoTime();
+		String loc = SpriteConverter.resolveTarget(req);
+
+		String key;
+		try {
+			if (req.getImageData() == null) {
+				long t = Metrics.start();
+				req.setImageData(Files.readAllBytes(Paths.get(req.getImagePath())));
+				Metrics.global().time(Metrics.Stage.READ, t);
+			}
+			if (paletteData == null && usesPaletteFile(req)) {
+				paletteData = SpriteConverter.readPaletteData(req);
+			}
+			key = key(req, paletteData);
+		} catch (IOException|ConversionException e) {
+			// let the conversion report it
+			return SpriteConverter.run(req);
+		}
+
+		// previews aren't part of the hash, but have to be there too
+		if (!SpriteConverter.isROMTarget(loc) && isFresh(loc, key) &&
+				(req.getPreviews().equals("") || SheetExporter.previewsExist(req.getPreviews()))) {
+			return SpriteConverter.counted(ConversionResult.cached(req.getImagePath(), loc,
+					System.nanoTime() - start));
+		}
+
+		ConversionResult ret = SpriteConverter.run(req);
+		if (ret.isSuccess() && !ret.isPatchedROM()) {
+			record(loc, key);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return hash of everything the sprite for {@code req} is made from, in hex
+	 */
+	static String key(ConversionRequest req, byte[] paletteData) {
+		MessageDigest md = SHA256.get();
+		md.reset();
+		update(md, Integer.toString(FORMAT));
+		update(md, Integer.toString(req.getPalMethod()));
+		update(md, req.getImageData());
+		update(md, usesPaletteFile(req) && paletteData != null ? paletteData : new byte[0]);
+		// the palette file's extension picks the parser
+		update(md, usesPaletteFile(req) ? extension(req.getPalettePath()) : "");
+		update(md, req.getSpriteName());
+		update(md, req.getAuthorName());
+		update(md, req.getAuthorNameROM());
+
+		StringBuilder ret = new StringBuilder(64);
+		for (byte b : md.digest()) {
+			ret.append(Character.forDigit((b >> 4) & 0xF, 16));
+			ret.append(Character.forDigit(b & 0xF, 16));
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * @return {@code true} if the sprite file exists and was made from inputs with this hash
+	 */
+	static boolean isFresh(String loc, String key) {
+		Path sidecar = sidecarFor(loc);
+		if (!Files.isRegularFile(Paths.get(loc)) || !Files.isRegularFile(sidecar)) {
+			return false;
+		}
+		try {
+			return new String(Files.readAllBytes(sidecar), StandardCharsets.US_ASCII).trim().equals(key);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Remembers that the sprite file was made from inputs with this hash.
+	 * The cache is only an optimization, so failing to write the sidecar is ignored.
+	 */
+	static void record(String loc, String key) {
+		try {
+			Files.write(sidecarFor(loc), (key + "\n").getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			// the sheet will just be converted again next time
+		}
+	}
+
+	static Path sidecarFor(String loc) {
+		return Paths.get(loc + "." + SIDECAR_EXTENSION);
+	}
+
+	private static boolean usesPaletteFile(ConversionRequest req) {
+		return req.getPalMethod() == SpriteConverter.PAL_ASCII || req.getPalMethod() == SpriteConverter.PAL_BINARY;
+	}
+
+	private static String extension(String path) {
+		int dot = path.lastIndexOf('.');
+		return dot < 0 ? "" : path.substring(dot + 1).toLowerCase();
+	}
+
+	// length first, so neighbouring fields can't run into each other
+	private static void update(MessageDigest md, byte[] b) {
+		int n = b.length;
+		md.update(new byte[] { (byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n });
+		md.update(b);
+	}
+
+	private static void update(MessageDigest md, String s) {
+		update(md, s.getBytes(StandardCharsets.UTF_8));
+	}
+}
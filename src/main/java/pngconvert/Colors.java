@@ -0,0 +1,211 @@
+package pngconvert;
+
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * Helpers for colors packed as {@code 0xRRGGBB}, the color format used throughout PNGto4BPP.
+ * <br><br>
+ * Channels are taken apart with shifts and masks only.
+ * SpriteManipulator still speaks integers of the form RRRGGGBBB;
+ * {@link #toDecimal(int[])} converts at that boundary, once per palette.
+ * <br><br>
+ * Rasters are rounded by one of two engines producing the same bytes:
+ * a 256-entry lookup table, and a SWAR version rounding 8 bytes at a time inside a {@code long}.
+ * The lookup table is used unless {@code -Dpngconvert.rounding=swar} is given, since it measures faster;
+ * even then, the SWAR engine is only used if the rule it implements (round to a multiple of 8, at most 248)
+ * reproduces {@code roundRaster} for every byte value.
+ */
+public final class Colors {
+	// what roundPalette does to each channel, taken from roundPalette itself
+	private static final int[] ROUND_R = new int[256];
+	private static final int[] ROUND_G = new int[256];
+	private static final int[] ROUND_B = new int[256];
+
+	// what roundRaster does to each byte, taken from roundRaster itself
+	private static final byte[] ROUND_BYTE;
+
+	// SWAR lanes
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long LOW_3 = 0x0707070707070707L;
+	private static final long LOW_5 = 0x1F1F1F1F1F1F1F1FL;
+
+	// added to the low 3 bits of every byte before truncating to a multiple of 8
+	private static final long ROUND_BIAS;
+
+	/**
+	 * {@code true} if the SWAR engine reproduces {@code roundRaster} exactly
+	 */
+	public static final boolean SWAR_SUPPORTED;
+
+	/**
+	 * {@code true} if {@link #roundRaster(byte[], int, byte[], int, int)} uses the SWAR engine
+	 */
+	public static final boolean SWAR_ROUNDING;
+
+	static {
+		int[] grays = new int[256];
+		for (int v = 0; v < 256; v++) {
+			grays[v] = (v * 1000000) + (v * 1000) + v;
+		}
+		int[] rounded = SpriteManipulator.roundPalette(grays);
+		for (int v = 0; v < 256; v++) {
+			ROUND_R[v] = rounded[v] / 1000000;
+			ROUND_G[v] = (rounded[v] / 1000) % 1000;
+			ROUND_B[v] = rounded[v] % 1000;
+		}
+
+		byte[] all = new byte[256];
+		for (int v = 0; v < 256; v++) {
+			all[v] = (byte) v;
+		}
+		ROUND_BYTE = SpriteManipulator.roundRaster(all);
+
+		// the smallest value rounding up to 8 gives the bias; then check every byte against the table
+		int bias = 0;
+		for (int v = 7; v > 0 && (ROUND_BYTE[v] & 0xFF) == 8; v--) {
+			bias = 8 - v;
+		}
+		ROUND_BIAS = bias * LOW_BITS;
+		boolean exact = bias > 0;
+		for (int v = 0; v < 256 && exact; v++) {
+			exact = ((byte) roundSWAR(v) == ROUND_BYTE[v]);
+		}
+		SWAR_SUPPORTED = exact;
+
+		String engine = System.getProperty("pngconvert.rounding", "");
+		SWAR_ROUNDING = SWAR_SUPPORTED && engine.equals("swar");
+	}
+
+	private Colors() {}
+
+	/**
+	 * @return a color packed as {@code 0xRRGGBB}; each channel is masked to 8 bits
+	 */
+	public static int rgb(int r, int g, int b) {
+		return (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+	}
+
+	public static int red(int rgb) {
+		return (rgb >> 16) & 0xFF;
+	}
+
+	public static int green(int rgb) {
+		return (rgb >> 8) & 0xFF;
+	}
+
+	public static int blue(int rgb) {
+		return rgb & 0xFF;
+	}
+
+	/**
+	 * @return color of pixel {@code p} of an ABGR raster
+	 */
+	public static int fromABGR(byte[] pixels, int p) {
+		return (pixels[p * 4 + 3] & 0xFF) << 16 | (pixels[p * 4 + 2] & 0xFF) << 8 | (pixels[p * 4 + 1] & 0xFF);
+	}
+
+	/**
+	 * Rounds a color to SNES precision, exactly as {@code SpriteManipulator.roundPalette} would.
+	 */
+	public static int round(int rgb) {
+		return ROUND_R[red(rgb)] << 16 | ROUND_G[green(rgb)] << 8 | ROUND_B[blue(rgb)];
+	}
+
+	/**
+	 * @return a rounded copy of {@code pal}
+	 */
+	public static int[] roundPalette(int[] pal) {
+		int[] ret = new int[pal.length];
+		for (int i = 0; i < pal.length; i++) {
+			ret[i] = round(pal[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Rounds a raster into another buffer, exactly as {@code SpriteManipulator.roundRaster} would,
+	 * without allocating a new raster.
+	 * @param src - image raster
+	 * @param dst - buffer for the rounded raster; may be {@code src}
+	 * @param length - number of bytes to round
+	 */
+	public static void roundRaster(byte[] src, byte[] dst, int length) {
+		roundRaster(src, 0, dst, 0, length);
+	}
+
+	/**
+	 * Rounds part of a raster, such as a single row, with the selected engine.
+	 * @param src - image raster
+	 * @param srcPos - first byte to round
+	 * @param dst - buffer for the rounded bytes; may be {@code src}
+	 * @param dstPos - where the first rounded byte goes
+	 * @param length - number of bytes to round
+	 */
+	public static void roundRaster(byte[] src, int srcPos, byte[] dst, int dstPos, int length) {
+		if (SWAR_ROUNDING) {
+			roundRasterSWAR(src, srcPos, dst, dstPos, length);
+		}
+		else {
+			roundRasterLUT(src, srcPos, dst, dstPos, length);
+		}
+	}
+
+	/**
+	 * Rounds byte by byte through a lookup table.
+	 * @see #roundRaster(byte[], int, byte[], int, int)
+	 */
+	public static void roundRasterLUT(byte[] src, int srcPos, byte[] dst, int dstPos, int length) {
+		for (int i = 0; i < length; i++) {
+			dst[dstPos + i] = ROUND_BYTE[src[srcPos + i] & 0xFF];
+		}
+	}
+
+	/**
+	 * Rounds 8 bytes at a time; only exact if {@link #SWAR_SUPPORTED}.
+	 * @see #roundRaster(byte[], int, byte[], int, int)
+	 */
+	public static void roundRasterSWAR(byte[] src, int srcPos, byte[] dst, int dstPos, int length) {
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			int s = srcPos + i;
+			long x = (src[s] & 0xFFL) | (src[s + 1] & 0xFFL) << 8 |
+					(src[s + 2] & 0xFFL) << 16 | (src[s + 3] & 0xFFL) << 24 |
+					(src[s + 4] & 0xFFL) << 32 | (src[s + 5] & 0xFFL) << 40 |
+					(src[s + 6] & 0xFFL) << 48 | (src[s + 7] & 0xFFL) << 56;
+			long r = roundSWAR(x);
+			int d = dstPos + i;
+			dst[d] = (byte) r;
+			dst[d + 1] = (byte) (r >>> 8);
+			dst[d + 2] = (byte) (r >>> 16);
+			dst[d + 3] = (byte) (r >>> 24);
+			dst[d + 4] = (byte) (r >>> 32);
+			dst[d + 5] = (byte) (r >>> 40);
+			dst[d + 6] = (byte) (r >>> 48);
+			dst[d + 7] = (byte) (r >>> 56);
+		}
+		roundRasterLUT(src, srcPos + i, dst, dstPos + i, length - i);
+	}
+
+	/**
+	 * Rounds each byte of {@code x} to a multiple of 8, capped at 248.
+	 * Eighths and remainders are split first so no lane ever carries into the next.
+	 */
+	private static long roundSWAR(long x) {
+		long eighths = (x >>> 3) & LOW_5;
+		eighths += (((x & LOW_3) + ROUND_BIAS) >>> 3) & LOW_BITS;
+		// 32 eighths would be 256
+		eighths -= (eighths >>> 5) & LOW_BITS;
+		return eighths << 3;
+	}
+
+	/**
+	 * @return {@code pal} as integers (RRRGGGBBB), for SpriteManipulator
+	 */
+	public static int[] toDecimal(int[] pal) {
+		int[] ret = new int[pal.length];
+		for (int i = 0; i < pal.length; i++) {
+			ret[i] = (red(pal[i]) * 1000000) + (green(pal[i]) * 1000) + blue(pal[i]);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,203 @@
+package pngconvert;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import spritemanipulator.*;
+
+/**
+ * Headless entry point for command line, batch and server runs.
+ * <br><br>
+ * Nothing here touches Swing or AWT windows, so it starts quickly and works without a display.
+ * {@link PNGto4BPP#main(String[])} hands its arguments over to this class;
+ * scripts can also skip the GUI class entirely with {@code java -cp PNGto4BPP.jar pngconvert.CommandLine ...}.
+ */
+public final class CommandLine {
+	private CommandLine() {}
+
+	// Summary
+	// Command line usage:
+	// imgSrc: Full path for image
+	// palMethod: palFileMethod [0:Palette file (.GPL|.PAL|.TXT|.ASE|.ACO), 1:Binary (YY-CHR .PAL), 2:Extract from last block of PNG, 3:Palette of indexed PNG]
+	// palSrc (Used if method 0 or 1 is selected): Full Path for Palette File.
+	// sprTarget (optional): Name of sprite that will be created. Will default to name of imgSrc with new extension.
+	// romTarget (optional): Path of ROM to patch.
+	public static void main(String[] args) {
+		// conversions never open a window
+		System.setProperty("java.awt.headless", "true");
+		System.exit(ProcessArgs(args) ? 0 : 1);
+	}
+
+	// Summary
+	// ProcessArgs checks if the arguments are valid, and if so, converts the image with the values from the passed arguments.
+	// Returns True if the sprite was written (and the ROM patched, if asked). False if not.
+	public static boolean ProcessArgs(String[] args) {
+		// whole directories go through the batch converter
+		for(String arg : args) {
+			if(arg.startsWith("batchSrc=")) {
+				return BatchConverter.processArgs(args);
+			}
+			// sprite packs straight from one ZIP into another
+			if(arg.startsWith("zipSrc=")) {
+				return ZipConverter.processArgs(args);
+			}
+			// one sprite into many ROMs
+			if(arg.startsWith("romSrc=")) {
+				return RomFanOut.processArgs(args);
+			}
+			// one sheet with many palettes
+			if(arg.startsWith("variantSrc=")) {
+				return PaletteVariants.processArgs(args);
+			}
+			// tile deltas between revisions
+			if(arg.startsWith("diffOld=") || arg.startsWith("deltaSrc=")) {
+				return SpriteDelta.processArgs(args);
+			}
+			// sprites back to sheets
+			if(arg.startsWith("sprSrc=")) {
+				return SheetExporter.processArgs(args);
+			}
+			// and server mode keeps running
+			if(arg.startsWith("serverPort=")) {
+				return ConversionServer.processArgs(args);
+			}
+		}
+
+		if(args.length < 2 || args.length > 5) {
+			return false;
+		}
+		String imgSrc = "";
+		String palSrc = "";
+		String sprTarget = "";
+		String romTarget = "";
+		int palOption = -1;
+		boolean argumentErrorsFound = false;
+
+		for(int i = 0; i < args.length; i++) {
+			// Tokenize argument
+			String[] tokens = args[i].split("=");
+			// System.out.println(tokens[0]);
+
+			// imgSrc: Full Path for Image
+			// palOption: palFileOption [0:Palette file(.GPL|.PAL|.TXT|.ASE|.ACO), 1:Binary(YY-CHR .PAL), 2:Extract from Last Block of PNG, 3:Palette of indexed PNG]
+			// palSrc:(Used if Option 0 or 1 selected) Full Path for Pal File.
+			// sprTarget: Name of Sprite that will be created.
+			if(tokens.length == 2) {
+				switch(tokens[0]) {
+					case "imgSrc":
+						imgSrc = tokens[1];
+						break;
+					case "palOption":
+						if(IsInteger(tokens[1])) {
+							palOption = Integer.parseInt(tokens[1]);
+
+							if(palOption < 0 || palOption >= SpriteConverter.PAL_METHOD_COUNT) {
+								System.out.println("The palOption: " + palOption + " is out of range.");
+								argumentErrorsFound = true;
+							}
+						}
+						else {
+							System.out.println("The argument: " +
+									tokens[1] +
+									" is not a valid integer to specify the palette option. " +
+									"0: ASCII ; 1:Binary ; 2:Extract from last block of PNG ; 3:Palette of indexed PNG");
+							argumentErrorsFound = true;
+						}
+						break;
+					case "palSrc":
+						palSrc = tokens[1];
+						break;
+					case "sprTarget":
+						sprTarget = tokens[1];
+						break;
+					case "romTarget":
+						romTarget = tokens[1];
+						break;
+				}
+			}
+			else {
+				System.out.println("The argument: " + args[i] + " is invalid.");
+				argumentErrorsFound = true;
+			}
+		} // end loops
+
+		if(argumentErrorsFound) {
+			return false;
+		}
+
+		// Ensure imgSrc exists
+		if(imgSrc.equals("")) {
+			System.out.println("No source image was specified or was not specified correctly.");
+			argumentErrorsFound = true;
+		}
+
+		// enters here if palMethod is between 1-3
+		if(palSrc.equals("") && (palOption == 0 || palOption == 1)) {
+			System.out.println("No palette source was specified despite using a palette method that requires it.");
+			argumentErrorsFound = true;
+		}
+
+		// If sprite target name is not set, use the img source name with .zspr extension.
+		if(sprTarget.equals("")) {
+			sprTarget = SpriteConverter.changeExtension(imgSrc, ZSPRFile.EXTENSION);
+		}
+
+		if(argumentErrorsFound) {
+			return false;
+		}
+
+		// If all arguments check out, lets finish everything we want to do.
+		ConversionRequest req = new ConversionRequest(imgSrc, palOption, palSrc);
+		req.setTarget(sprTarget);
+		ConversionResult res = SpriteConverter.run(req);
+		if(!res.isSuccess()) {
+			System.out.println("ERROR: " + res.getError().getMessage());
+			return false;
+		}
+
+		if(!romTarget.equals("")) {
+			try {
+				// Push change to ROM
+				UpdateRom(res.getTarget(), romTarget);
+			} catch (IOException e) {
+				System.out.println("ERROR: " + e);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Patches the sprite in a {@code .zspr} (or old-style {@code .spr}) file into a ROM in place.
+	 * @param sprTarget - sprite file to read
+	 * @param romTarget - ROM to patch
+	 */
+	public static void UpdateRom(String sprTarget, String romTarget)
+			throws IOException, FileNotFoundException {
+		if (!new File(sprTarget).isFile()) {
+			throw new FileNotFoundException(sprTarget);
+		}
+		if (!new File(romTarget).isFile()) {
+			throw new FileNotFoundException(romTarget);
+		}
+
+		try {
+			SpriteData spr = SpriteData.fromSpriteFile(Files.readAllBytes(Paths.get(sprTarget)));
+			RomPatcher.patch(romTarget, spr);
+		} catch (PNGException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	public static boolean IsInteger(String string) {
+		try {
+			Integer.valueOf(string);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package pngconvert;
+
+import java.util.Arrays;
+
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * A palette prepared once for indexing any number of sheets.
+ * <br><br>
+ * Holds the SNES palette and gloves data along with a 32768-entry table
+ * mapping every 15-bit rounded color straight to its green mail index,
+ * so indexing a pixel is a handful of array loads instead of a search through the palette.
+ * Matching is exact, first index first, just like {@code indexAnd8x8}.
+ * <br><br>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class CompiledPalette {
+	// rank of each value roundRaster can produce among all such values; -1 for the rest
+	private static final byte[] LEVELS = new byte[256];
+	private static final boolean LUT_SUPPORTED;
+
+	static {
+		byte[] all = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			all[i] = (byte) i;
+		}
+		byte[] rounded = SpriteManipulator.roundRaster(all);
+		boolean[] seen = new boolean[256];
+		for (byte b : rounded) {
+			seen[b & 0xFF] = true;
+		}
+		Arrays.fill(LEVELS, (byte) -1);
+		int level = 0;
+		for (int i = 0; i < 256; i++) {
+			if (seen[i]) {
+				LEVELS[i] = (byte) level++;
+			}
+		}
+		// 5 bits per channel
+		LUT_SUPPORTED = level <= 32;
+	}
+
+	private final int[] colors;
+	private final int[] decimalColors;
+	private final byte[] palData;
+	private final byte[] glovesData;
+	private final byte[] lut;
+
+	/**
+	 * @param colors - 66 colors as {@code 0xRRGGBB}, as returned by the palette readers
+	 */
+	public CompiledPalette(int[] colors) {
+		this.colors = colors;
+		this.decimalColors = Colors.toDecimal(colors);
+		this.palData = SpriteManipulator.getPalDataFromArray(decimalColors);
+		this.glovesData = SpriteManipulator.getGlovesDataFromArray(decimalColors);
+
+		if (!LUT_SUPPORTED) {
+			lut = null;
+			return;
+		}
+
+		lut = new byte[1 << 15];
+		Arrays.fill(lut, (byte) -1);
+		// backwards so the first of any duplicate colors wins
+		for (int s = 15; s >= 0; s--) {
+			int key = key(colors[s]);
+			if (key >= 0) {
+				lut[key] = (byte) s;
+			}
+		}
+	}
+
+	/**
+	 * @return the 66 colors as {@code 0xRRGGBB}
+	 */
+	public int[] getColors() {
+		return colors;
+	}
+
+	/**
+	 * @return the 66 colors as integers (RRRGGGBBB), for SpriteManipulator
+	 */
+	public int[] getDecimalColors() {
+		return decimalColors;
+	}
+
+	/**
+	 * @return SNES palette data, as from {@code getPalDataFromArray}
+	 */
+	public byte[] getPalData() {
+		return palData;
+	}
+
+	/**
+	 * @return SNES gloves colors, as from {@code getGlovesDataFromArray}
+	 */
+	public byte[] getGlovesData() {
+		return glovesData;
+	}
+
+	/**
+	 * @param rgb - rounded color as {@code 0xRRGGBB}
+	 * @return green mail index of the color, or -1 if green mail doesn't have it
+	 */
+	public int indexOf(int rgb) {
+		if (lut == null) {
+			for (int s = 0; s < 16; s++) {
+				if (colors[s] == rgb) {
+					return s;
+				}
+			}
+			return -1;
+		}
+		int key = key(rgb);
+		return key < 0 ? -1 : lut[key];
+	}
+
+	/**
+	 * Splits a rounded ABGR raster into 8x8 blocks of green mail indices.
+	 * @param pixels - rounded image raster
+	 * @param tiles - buffer for one index per pixel, laid out as {@link TilePacker} expects
+	 * @return {@code false} if some pixel's color isn't in green mail
+	 * and the sheet has to go through {@code indexAnd8x8} instead
+	 */
+	public boolean indexTiles(byte[] pixels, byte[] tiles) {
+		int w = SheetDecoder.WIDTH;
+		for (int y = 0; y < SheetDecoder.HEIGHT; y++) {
+			if (!indexRow(pixels, y * w * 4, tiles, (y / 8) * (w / 8) * 64 + (y % 8) * 8)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Indexes one rounded row of the sheet into the 16 blocks it crosses.
+	 * @param pixels - rounded ABGR pixels
+	 * @param p - where the row starts in {@code pixels}
+	 * @param tiles - blocks, laid out as {@link TilePacker} expects
+	 * @param t - where the row's first pixel goes in {@code tiles}
+	 * @return {@code false} if some pixel's color isn't in green mail
+	 */
+	boolean indexRow(byte[] pixels, int p, byte[] tiles, int t) {
+		if (lut == null) {
+			return false;
+		}
+
+		for (int x = 0; x < SheetDecoder.WIDTH; x++, p += 4) {
+			int key = (LEVELS[pixels[p + 3] & 0xFF]) |
+					(LEVELS[pixels[p + 2] & 0xFF] << 5) |
+					(LEVELS[pixels[p + 1] & 0xFF] << 10);
+			// unrounded values make the key negative
+			byte s = key < 0 ? -1 : lut[key];
+			if (s < 0) {
+				return false;
+			}
+			tiles[t + (x / 8) * 64 + x % 8] = s;
+		}
+		return true;
+	}
+
+	/**
+	 * @return 15-bit table key of a color, or -1 if some channel isn't a rounded value
+	 */
+	private static int key(int rgb) {
+		int lr = LEVELS[Colors.red(rgb)];
+		int lg = LEVELS[Colors.green(rgb)];
+		int lb = LEVELS[Colors.blue(rgb)];
+		if ((lr | lg | lb) < 0) {
+			return -1;
+		}
+		return lr | (lg << 5) | (lb << 10);
+	}
+}
@@ -0,0 +1,308 @@
+package pngconvert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import pngconvert.ConversionException.Failure;
+import pngconvert.Metrics.Stage;
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * Buffers for converting sheet after sheet without allocating new ones each time.
+ * <br><br>
+ * A context owns a {@link SheetDecoder} (which also holds the rounded raster), the image file contents,
+ * the 8x8 blocks (flat, see {@link TilePacker}) and the 4BPP output, and reuses all of them
+ * for every sheet it converts. With a compiled palette on the request and a sheet
+ * {@link SheetDecoder} handles, a conversion allocates little more than the {@link SpriteData} it returns.
+ * <br><br>
+ * When the palette is known before the pixels, sheets go through a {@link BandEncoder}
+ * and the buffers for the whole raster and its blocks are never even allocated.
+ * <br><br>
+ * Sprites returned by {@link #convert(ConversionRequest)} share the context's output buffer,
+ * so they are only good until the next conversion; use {@link SpriteData#copy()} to keep one.
+ * <br><br>
+ * Instances are not thread-safe; use {@link #local()} to get one per thread.
+ */
+public class ConversionContext {
+	private static final int PIXELS = SheetDecoder.WIDTH * SheetDecoder.HEIGHT;
+	private static final int BLOCKS = PIXELS / TilePacker.BLOCK_PIXELS;
+
+	private static final ThreadLocal<ConversionContext> LOCAL = ThreadLocal.withInitial(ConversionContext::new);
+
+	private final SheetDecoder decoder = new SheetDecoder();
+	private final BandEncoder bands = new BandEncoder();
+	private final byte[] sprite = new byte[BLOCKS * TilePacker.BLOCK_BYTES];
+
+	// whole sheet, for sheets that can't be encoded band by band
+	private byte[] tiles;
+	// rounded raster of sheets only ImageIO can read; the decoder rounds its own
+	private byte[] pixels;
+
+	// indexed sheets
+	private final int[] remap = new int[256];
+	private final boolean[] used = new boolean[256];
+
+	// image file contents; grows to fit the largest file seen
+	private byte[] data = new byte[64 * 1024];
+	private int dataLength;
+
+	// last palette extracted from a sheet, kept while sheets carry the same colors
+	private int[] extractedColors;
+	private CompiledPalette extracted;
+
+	/**
+	 * @return this thread's context
+	 */
+	public static ConversionContext local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Converts a sheet without writing anything.
+	 * <br><br>
+	 * Indexed sheets whose colors all appear in the palette are tiled straight from their
+	 * index bytes; everything else is rounded and matched color by color.
+	 * @param req - image, palette and meta data to use; the target is ignored
+	 * @return the converted sprite, backed by this context until the next conversion
+	 * @throws ConversionException the first problem found
+	 */
+	public SpriteData convert(ConversionRequest req) throws ConversionException {
+		List<ConversionException> problems = SpriteConverter.validate(req);
+		if (!problems.isEmpty()) {
+			throw problems.get(0);
+		}
+
+		byte[] png = readImage(req);
+
+		// palette files don't depend on the image
+		CompiledPalette palette = req.getCompiledPalette();
+		if (palette == null && (req.getPalMethod() == SpriteConverter.PAL_ASCII ||
+				req.getPalMethod() == SpriteConverter.PAL_BINARY)) {
+			palette = PaletteCache.global().get(req);
+		}
+
+		// straight from the decoder to 4BPP, unless the palette is hiding at the end of the sheet
+		long t = Metrics.start();
+		if ((palette != null || req.getPalMethod() == SpriteConverter.PAL_PNG) &&
+				bands.encode(decoder, png, dataLength, req, palette, sprite)) {
+			Metrics.global().time(Stage.ENCODE, t);
+			palette = bands.getPalette();
+		}
+		else {
+			palette = convertSheet(req, png, palette);
+		}
+
+		SpriteData ret = new SpriteData(sprite, palette.getPalData(), palette.getGlovesData());
+		ret.setSpriteName(req.getSpriteName());
+		ret.setAuthorName(req.getAuthorName());
+		ret.setAuthorNameROM(req.getAuthorNameROM());
+		return ret;
+	}
+
+	/**
+	 * Converts the whole sheet at once into {@link #sprite}.
+	 * @param palette - palette from a palette file, or {@code null} if it comes from the sheet
+	 * @return palette the sheet was indexed against
+	 */
+	private CompiledPalette convertSheet(ConversionRequest req, byte[] png, CompiledPalette palette)
+			throws ConversionException {
+		if (tiles == null) {
+			tiles = new byte[PIXELS];
+		}
+
+		// fast path for plain 128x448 sheets, rounded as it decodes
+		Metrics m = Metrics.global();
+		long t = Metrics.start();
+		boolean decoded = decoder.decode(png, dataLength, true);
+		if (decoded) {
+			m.time(Stage.DECODE, t);
+		}
+		boolean indexed = decoded && decoder.isIndexed();
+
+		if (palette == null && req.getPalMethod() != SpriteConverter.PAL_EXTRACT) {
+			palette = new CompiledPalette(SpriteConverter.readPalette(req, null, indexed ? decoder : null,
+					decoded ? null : png, dataLength));
+		}
+
+		// split bytes into blocks
+		boolean tiled = false;
+		if (indexed) {
+			if (palette == null) {
+				t = Metrics.start();
+				palette = extracted(PaletteReader.palExtractIndexed(decoder.getIndices(), decoder.getPalette()));
+				m.time(Stage.PALETTE, t);
+			}
+			t = Metrics.start();
+			tiled = indexedTiles(palette);
+			m.time(Stage.INDEX, t);
+		}
+
+		if (!tiled) {
+			// rounded image raster
+			byte[] pixels = decoder.getRaster();
+			if (!decoded) {
+				if (this.pixels == null) {
+					this.pixels = new byte[PIXELS * 4];
+				}
+				pixels = this.pixels;
+				byte[] raster = SpriteConverter.readImageRaster(png, dataLength);
+				t = Metrics.start();
+				Colors.roundRaster(raster, pixels, pixels.length);
+				m.time(Stage.ROUND, t);
+			}
+
+			// extract from last block
+			if (req.getPalMethod() == SpriteConverter.PAL_EXTRACT && req.getCompiledPalette() == null) {
+				t = Metrics.start();
+				palette = extracted(PaletteReader.palExtract(pixels));
+				m.time(Stage.PALETTE, t);
+			}
+
+			t = Metrics.start();
+			if (!palette.indexTiles(pixels, tiles)) {
+				// some color isn't in green mail; leave it to SpriteManipulator
+				flatten(SpriteManipulator.indexAnd8x8(pixels, palette.getDecimalColors()), tiles);
+			}
+			m.time(Stage.INDEX, t);
+		}
+
+		t = Metrics.start();
+		TilePacker.pack(tiles, sprite);
+		m.time(Stage.PACK, t);
+		return palette;
+	}
+
+	/**
+	 * Reads, decodes and rounds a sheet without indexing it against any palette,
+	 * for converting the same sheet with several palettes.
+	 * @param req - request naming the image, or holding its contents
+	 * @return rounded ABGR raster, owned by the caller
+	 * @throws ConversionException if the image can't be read or isn't 128x448
+	 */
+	public byte[] decodeSheet(ConversionRequest req) throws ConversionException {
+		if (!SpriteManipulator.testFileType(req.getImagePath(), SpriteConverter.IMAGEEXTS)) {
+			throw new ConversionException(Failure.IMAGE_TYPE,
+					"Images must be one of the following types:\n" +
+							String.join(", ", SpriteConverter.IMAGEEXTS));
+		}
+
+		byte[] png = readImage(req);
+		long t = Metrics.start();
+		if (decoder.decode(png, dataLength, true)) {
+			Metrics.global().time(Stage.DECODE, t);
+			return decoder.getRaster().clone();
+		}
+
+		byte[] raster = SpriteConverter.readImageRaster(png, dataLength);
+		t = Metrics.start();
+		Colors.roundRaster(raster, raster, raster.length);
+		Metrics.global().time(Stage.ROUND, t);
+		return raster;
+	}
+
+	/**
+	 * Tiles an indexed sheet without looking at any pixel's color.
+	 * <br><br>
+	 * Each PNG palette entry is rounded once and looked up among green mail's colors,
+	 * the same way {@code indexAnd8x8} would match every pixel of that color.
+	 * @param palette - palette to index against
+	 * @return {@code false} if some color in use isn't in green mail
+	 */
+	private boolean indexedTiles(CompiledPalette palette) {
+		int size = decoder.getPaletteSize();
+		int[] plte = decoder.getPalette();
+
+		// round the PNG palette instead of every pixel
+		// -1 for colors that aren't in green mail
+		Arrays.fill(remap, -1);
+		for (int i = 0; i < size; i++) {
+			remap[i] = palette.indexOf(Colors.round(plte[i] & 0xFFFFFF));
+		}
+
+		// make sure every color in use can be mapped before building anything
+		byte[] indices = decoder.getIndices();
+		Arrays.fill(used, false);
+		for (byte i : indices) {
+			used[i & 0xFF] = true;
+		}
+		for (int i = 0; i < 256; i++) {
+			if (used[i] && remap[i] < 0) {
+				return false;
+			}
+		}
+
+		int w = SheetDecoder.WIDTH;
+		for (int y = 0, p = 0; y < SheetDecoder.HEIGHT; y++) {
+			int row = (y / 8) * (w / 8) * 64 + (y % 8) * 8;
+			for (int x = 0; x < w; x++, p++) {
+				tiles[row + (x / 8) * 64 + x % 8] = (byte) remap[indices[p] & 0xFF];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies blocks from {@code indexAnd8x8} into a flat block buffer.
+	 */
+	static void flatten(byte[][][] blocks, byte[] tiles) {
+		for (int b = 0, t = 0; b < blocks.length; b++) {
+			for (int r = 0; r < 8; r++, t += 8) {
+				System.arraycopy(blocks[b][r], 0, tiles, t, 8);
+			}
+		}
+	}
+
+	/**
+	 * @return compiled palette for extracted colors, reusing the last one if the colors are the same
+	 */
+	private CompiledPalette extracted(int[] colors) {
+		if (!Arrays.equals(colors, extractedColors)) {
+			extractedColors = colors;
+			extracted = new CompiledPalette(colors);
+		}
+		return extracted;
+	}
+
+	/**
+	 * Reads the request's image file contents into {@link #data}, unless the request already has them.
+	 * @return buffer holding the file; its size is left in {@link #dataLength}
+	 */
+	private byte[] readImage(ConversionRequest req) throws ConversionException {
+		if (req.getImageData() != null) {
+			dataLength = req.getImageData().length;
+			Metrics.global().addBytesRead(dataLength);
+			return req.getImageData();
+		}
+		if (!new File(req.getImagePath()).isFile()) {
+			throw new ConversionException(Failure.IMAGE_NOT_FOUND, "Image file not found");
+		}
+		long t = Metrics.start();
+		try (FileChannel in = FileChannel.open(Paths.get(req.getImagePath()), StandardOpenOption.READ)) {
+			long size = in.size();
+			if (size > Integer.MAX_VALUE - 8) {
+				throw new IOException("Image file is too large");
+			}
+			if (size > data.length) {
+				data = new byte[(int) size];
+			}
+			ByteBuffer buf = ByteBuffer.wrap(data, 0, (int) size);
+			while (buf.hasRemaining()) {
+				if (in.read(buf) < 0) {
+					break;
+				}
+			}
+			dataLength = buf.position();
+		} catch (IOException e) {
+			throw new ConversionException(Failure.IMAGE_READ, "Error reading image", e);
+		}
+		Metrics.global().time(Stage.READ, t);
+		Metrics.global().addBytesRead(dataLength);
+		return data;
+	}
+}
@@ -0,0 +1,50 @@
+package pngconvert;
+
+/**
+ * Thrown by {@link SpriteConverter} when a sheet cannot be converted.
+ * <br><br>
+ * Every exception carries a {@link Failure} so callers can react to the kind of problem
+ * (the GUI picks its dialog from it, batch runs count failures by it)
+ * without having to parse the message.
+ */
+@SuppressWarnings("serial")
+public class ConversionException extends Exception {
+	/**
+	 * Kinds of conversion failure.
+	 */
+	public enum Failure {
+		IMAGE_TYPE,
+		PALETTE_TYPE,
+		NO_PALETTE,
+		BINARY_PALETTE_TYPE,
+		TARGET_TYPE,
+		IMAGE_NOT_FOUND,
+		IMAGE_READ,
+		IMAGE_DIMENSIONS,
+		PALETTE_NOT_FOUND,
+		PALETTE_READ,
+		PALETTE_COLORS,
+		WRITE,
+		ZSPR_FORMAT,
+		ROM_NOT_FOUND,
+		ROM_FORMAT,
+		SPRITE_READ,
+		UNEXPECTED
+	}
+
+	private final Failure failure;
+
+	public ConversionException(Failure failure, String message) {
+		super(message);
+		this.failure = failure;
+	}
+
+	public ConversionException(Failure failure, String message, Throwable cause) {
+		super(message, cause);
+		this.failure = failure;
+	}
+
+	public Failure getFailure() {
+		return failure;
+	}
+}
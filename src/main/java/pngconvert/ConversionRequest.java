@@ -0,0 +1,157 @@
+package pngconvert;
+
+/**
+ * Everything {@link SpriteConverter} needs to convert one sheet:
+ * the image, where its palette comes from, where the result goes and the sprite's meta data.
+ * <br><br>
+ * Image and palette can be given either as paths or as raw file contents.
+ * When contents are given, the path is still used to recognize the file type.
+ */
+public class ConversionRequest {
+	private String imagePath = "";
+	private byte[] imageData;
+	private int palMethod = SpriteConverter.PAL_ASCII;
+	private String palettePath = "";
+	private byte[] paletteData;
+	private CompiledPalette compiledPalette;
+	private String target = "";
+	private String previews = "";
+	private boolean atomicWrite;
+	private String spriteName = "";
+	private String authorName = "";
+	private String authorNameROM = "";
+
+	public ConversionRequest() {}
+
+	/**
+	 * @param imagePath - full path of the sprite sheet
+	 * @param palMethod - one of the {@code PAL_} methods of {@link SpriteConverter}
+	 * @param palettePath - full path of the palette file; ignored when extracting from the image
+	 */
+	public ConversionRequest(String imagePath, int palMethod, String palettePath) {
+		setImagePath(imagePath);
+		setPalMethod(palMethod);
+		setPalettePath(palettePath);
+	}
+
+	public String getImagePath() {
+		return imagePath;
+	}
+
+	public void setImagePath(String imagePath) {
+		this.imagePath = imagePath == null ? "" : imagePath;
+	}
+
+	/**
+	 * @return contents of the image file, or {@code null} if it should be read from {@link #getImagePath()}
+	 */
+	public byte[] getImageData() {
+		return imageData;
+	}
+
+	public void setImageData(byte[] imageData) {
+		this.imageData = imageData;
+	}
+
+	public int getPalMethod() {
+		return palMethod;
+	}
+
+	public void setPalMethod(int palMethod) {
+		this.palMethod = palMethod;
+	}
+
+	public String getPalettePath() {
+		return palettePath;
+	}
+
+	public void setPalettePath(String palettePath) {
+		this.palettePath = palettePath == null ? "" : palettePath;
+	}
+
+	/**
+	 * @return contents of the palette file, or {@code null} if it should be read from {@link #getPalettePath()}
+	 */
+	public byte[] getPaletteData() {
+		return paletteData;
+	}
+
+	public void setPaletteData(byte[] paletteData) {
+		this.paletteData = paletteData;
+	}
+
+	/**
+	 * @return palette already read and compiled for this request,
+	 * or {@code null} to read it with the palette method
+	 */
+	public CompiledPalette getCompiledPalette() {
+		return compiledPalette;
+	}
+
+	/**
+	 * Skips reading the palette; used when many sheets share one palette file.
+	 * @param compiledPalette - palette from {@link SpriteConverter#compilePalette(ConversionRequest)}
+	 */
+	public void setCompiledPalette(CompiledPalette compiledPalette) {
+		this.compiledPalette = compiledPalette;
+	}
+
+	/**
+	 * @return {@code .zspr} to write or {@code .sfc} to patch; blank to derive one from the image
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	public void setTarget(String target) {
+		this.target = target == null ? "" : target;
+	}
+
+	/**
+	 * @return path and start of the name of the preview sheets to write along with the target,
+	 * see {@link SheetExporter#writePreviews(SpriteData, String)}; blank for none
+	 */
+	public String getPreviews() {
+		return previews;
+	}
+
+	public void setPreviews(String previews) {
+		this.previews = previews == null ? "" : previews;
+	}
+
+	/**
+	 * @return {@code true} to write the target to a temporary file and rename it into place,
+	 * so nothing ever sees it half written; ROMs are always patched in place
+	 */
+	public boolean isAtomicWrite() {
+		return atomicWrite;
+	}
+
+	public void setAtomicWrite(boolean atomicWrite) {
+		this.atomicWrite = atomicWrite;
+	}
+
+	public String getSpriteName() {
+		return spriteName;
+	}
+
+	public void setSpriteName(String spriteName) {
+		this.spriteName = spriteName == null ? "" : spriteName;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public void setAuthorName(String authorName) {
+		this.authorName = authorName == null ? "" : authorName;
+	}
+
+	public String getAuthorNameROM() {
+		return authorNameROM;
+	}
+
+	public void setAuthorNameROM(String authorNameROM) {
+		this.authorNameROM = authorNameROM == null ? "" : authorNameROM;
+	}
+}
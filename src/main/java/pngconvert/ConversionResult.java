@@ -0,0 +1,90 @@
+package pngconvert;
+
+import pngconvert.ConversionException.Failure;
+
+/**
+ * Outcome of {@link SpriteConverter#run(ConversionRequest)}.
+ * Either holds where the converted sprite went, or the reason it failed.
+ */
+public class ConversionResult {
+	private final String source;
+	private final String target;
+	private final boolean patchedROM;
+	private final boolean cached;
+	private final ConversionException error;
+	private final long nanos;
+
+	private ConversionResult(String source, String target, boolean patchedROM, boolean cached,
+			ConversionException error, long nanos) {
+		this.source = source;
+		this.target = target;
+		this.patchedROM = patchedROM;
+		this.cached = cached;
+		this.error = error;
+		this.nanos = nanos;
+	}
+
+	static ConversionResult success(String source, String target, boolean patchedROM, long nanos) {
+		return new ConversionResult(source, target, patchedROM, false, null, nanos);
+	}
+
+	static ConversionResult cached(String source, String target, long nanos) {
+		return new ConversionResult(source, target, false, true, null, nanos);
+	}
+
+	static ConversionResult failure(String source, String target, ConversionException error, long nanos) {
+		return new ConversionResult(source, target, false, false, error, nanos);
+	}
+
+	/**
+	 * For a bug rather than a bad sheet, so that a batch still counts it as a failure.
+	 */
+	static ConversionResult unexpected(String source, String target, RuntimeException error, long nanos) {
+		return failure(source, target, new ConversionException(Failure.UNEXPECTED, "Unexpected error: " + error, error),
+				nanos);
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * @return path of the image that was converted
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return sprite file written or ROM patched; may be blank if the failure happened before it was known
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	public boolean isPatchedROM() {
+		return patchedROM;
+	}
+
+	/**
+	 * @return {@code true} if the sprite file was already up to date and nothing was converted
+	 * @see BuildCache
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return why the conversion failed, or {@code null} on success
+	 */
+	public ConversionException getError() {
+		return error;
+	}
+
+	/**
+	 * @return wall time spent on this sheet, in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+}
@@ -0,0 +1,356 @@
+package pngconvert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import pngconvert.ConversionException.Failure;
+import spritemanipulator.*;
+
+/**
+ * Keeps a warm JVM around to convert uploads over a local HTTP endpoint.
+ * <br><br>
+ * {@code POST /convert} takes either a raw PNG body or a {@code multipart/form-data} body
+ * with an {@code image} file, an optional {@code palette} file and any of the fields
+ * {@code palOption}, {@code spriteName}, {@code authorName} and {@code authorNameROM}
+ * (fields may also be given in the query string). It answers with the {@code .zspr} file.
+ * Failed conversions are answered with the message as plain text, with {@code 400} for problems with the upload
+ * and {@code 500} when the sprite can't be written or the conversion throws;
+ * the kind of failure is in the {@code X-Conversion-Failure} header.
+ * <br><br>
+ * {@code GET /health} answers with a few counters as JSON.
+ * {@code GET /metrics} answers with the {@link Metrics} of every conversion so far,
+ * as Prometheus text, or as JSON with {@code ?format=json}.
+ * <br><br>
+ * At most {@code threads} sheets are converted at once and at most {@code queue} more wait for a worker;
+ * anything past that is turned away right away with {@code 503} so clients can back off and retry.
+ */
+public class ConversionServer {
+	// uploads are a sheet and maybe a palette; anything bigger isn't one
+	static final int MAX_BODY = 4 * 1024 * 1024;
+
+	private final HttpServer server;
+	private final ExecutorService workers;
+	private final Semaphore slots;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong converted = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param host - address to listen on; blank for loopback only
+	 * @param port - port to listen on
+	 * @param threads - number of workers; 0 or less to use every core
+	 * @param queue - number of requests allowed to wait for a worker
+	 */
+	public ConversionServer(String host, int port, int threads, int queue) throws IOException {
+		int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		InetAddress addr = host == null || host.equals("") ?
+				InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+
+		server = HttpServer.create(new InetSocketAddress(addr, port), 0);
+		workers = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		slots = new Semaphore(n + Math.max(0, queue));
+
+		// handlers run on the server's own thread; they only hand exchanges to a worker or turn them away
+		server.createContext("/convert", this::dispatch);
+		server.createContext("/health", this::health);
+		server.createContext("/metrics", this::metrics);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops taking requests, lets the ones in progress finish and releases {@link #await()}.
+	 */
+	public void stop() {
+		server.stop(1);
+		workers.shutdown();
+		try {
+			workers.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stopped.countDown();
+	}
+
+	/**
+	 * Blocks until {@link #stop()} is called.
+	 */
+	public void await() throws InterruptedException {
+		stopped.await();
+	}
+
+	/**
+	 * @return the address actually listened on
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	private void dispatch(HttpExchange ex) throws IOException {
+		if (!ex.getRequestMethod().equals("POST")) {
+			send(ex, 405, "text/plain", "Use POST\n".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		if (!slots.tryAcquire()) {
+			rejected.incrementAndGet();
+			ex.getResponseHeaders().set("Retry-After", "1");
+			send(ex, 503, "text/plain", "Too many conversions in progress\n".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		workers.execute(() -> {
+			active.incrementAndGet();
+			try {
+				convert(ex);
+			} catch (IOException e) {
+				// client went away
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				Metrics.global().failed(Failure.UNEXPECTED);
+				try {
+					ex.getResponseHeaders().set("X-Conversion-Failure", Failure.UNEXPECTED.name());
+					send(ex, 500, "text/plain", ("Conversion failed: " + e + "\n").getBytes(StandardCharsets.UTF_8));
+				} catch (IOException e2) {
+					// response already started, or client went away
+				}
+			} finally {
+				ex.close();
+				active.decrementAndGet();
+				slots.release();
+			}
+		});
+	}
+
+	private void health(HttpExchange ex) throws IOException {
+		String json = "{\"status\":\"ok\"" +
+				",\"active\":" + active.get() +
+				",\"converted\":" + converted.get() +
+				",\"failed\":" + failed.get() +
+				",\"rejected\":" + rejected.get() + "}\n";
+		send(ex, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void metrics(HttpExchange ex) throws IOException {
+		Map<String, String> fields = parseQuery(ex.getRequestURI().getRawQuery());
+		if ("json".equals(fields.get("format"))) {
+			send(ex, 200, "application/json", Metrics.global().toJSON().getBytes(StandardCharsets.UTF_8));
+		}
+		else {
+			send(ex, 200, "text/plain; version=0.0.4",
+					Metrics.global().toPrometheus().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private void convert(HttpExchange ex) throws IOException {
+		byte[] body = readBody(ex);
+		if (body == null) {
+			send(ex, 413, "text/plain", ("Uploads are limited to " + MAX_BODY + " bytes\n").getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		Map<String, String> fields = parseQuery(ex.getRequestURI().getRawQuery());
+		Map<String, Multipart.Part> files = new HashMap<String, Multipart.Part>();
+		String type = ex.getRequestHeaders().getFirst("Content-Type");
+		String boundary = Multipart.boundary(type);
+		if (boundary != null) {
+			for (Multipart.Part p : Multipart.parse(body, boundary)) {
+				if (p.getFileName() != null) {
+					// browsers send an empty part for a file input left blank
+					if (!p.getFileName().equals("") && p.getData().length > 0) {
+						files.put(p.getName(), p);
+					}
+				}
+				else {
+					fields.put(p.getName(), new String(p.getData(), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		else {
+			files.put("image", new Multipart.Part("image", "upload.png", body));
+		}
+
+		Multipart.Part image = files.get("image");
+		if (image == null) {
+			send(ex, 400, "text/plain", "No image was uploaded\n".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		Multipart.Part palette = files.get("palette");
+
+		ConversionRequest req = new ConversionRequest();
+		req.setImagePath(image.getFileName());
+		req.setImageData(image.getData());
+		if (palette != null) {
+			req.setPalettePath(palette.getFileName());
+			req.setPaletteData(palette.getData());
+		}
+		// a palette file means ASCII unless told otherwise; no palette means the sheet carries one
+		String option = fields.get("palOption");
+		int palOption = option != null ? BatchConverter.parseNumber(option, -1) :
+				palette != null ? SpriteConverter.PAL_ASCII : SpriteConverter.PAL_EXTRACT;
+		if (palOption < 0 || palOption >= SpriteConverter.PAL_METHOD_COUNT) {
+			send(ex, 400, "text/plain", ("The palOption: " + option + " is out of range.\n")
+					.getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		req.setPalMethod(palOption);
+		req.setSpriteName(fields.get("spriteName"));
+		req.setAuthorName(fields.get("authorName"));
+		req.setAuthorNameROM(fields.get("authorNameROM"));
+
+		byte[] zspr;
+		try {
+			zspr = SpriteConverter.toZSPR(ConversionContext.local().convert(req));
+		} catch (ConversionException e) {
+			failed.incrementAndGet();
+			Metrics.global().failed(e.getFailure());
+			ex.getResponseHeaders().set("X-Conversion-Failure", e.getFailure().name());
+			int code = e.getFailure() == Failure.WRITE ? 500 : 400;
+			send(ex, code, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		converted.incrementAndGet();
+		Metrics.global().converted();
+		String name = SpriteConverter.changeExtension(new File(image.getFileName()).getName(),
+				ZSPRFile.EXTENSION);
+		ex.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + name.replace("\"", "") + "\"");
+		send(ex, 200, "application/octet-stream", zspr);
+	}
+
+	/**
+	 * @return the request body, or {@code null} if it is larger than {@link #MAX_BODY}
+	 */
+	private static byte[] readBody(HttpExchange ex) throws IOException {
+		String length = ex.getRequestHeaders().getFirst("Content-Length");
+		if (length != null && BatchConverter.parseNumber(length, 0) > MAX_BODY) {
+			return null;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length != null ?
+				Math.max(0, BatchConverter.parseNumber(length, 0)) : 64 * 1024);
+		byte[] buf = new byte[16 * 1024];
+		try (InputStream in = ex.getRequestBody()) {
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+				if (out.size() > MAX_BODY) {
+					return null;
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> ret = new HashMap<String, String>();
+		if (query == null) {
+			return ret;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				ret.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return ret;
+	}
+
+	private static void send(HttpExchange ex, int code, String type, byte[] body) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", type);
+		ex.sendResponseHeaders(code, body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	// Summary
+	// Server command line usage:
+	// serverPort: Port to listen on for conversion requests.
+	// serverHost (optional): Address to listen on. Defaults to loopback only.
+	// threads (optional): Number of workers. Defaults to one per core.
+	// queue (optional): Number of requests that may wait for a worker. Defaults to one per worker.
+	// Runs until the process is stopped. Returns False if the server could not be started.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> values = new HashMap<String, String>();
+		boolean argumentErrorsFound = !BatchConverter.parseArgs(args, values, "serverPort", "serverHost", "threads", "queue");
+
+		String host = values.getOrDefault("serverHost", "");
+
+		String portArg = values.getOrDefault("serverPort", "");
+		int port = BatchConverter.parseNumber(portArg, -1);
+		if (port < 0 || port > 0xFFFF) {
+			System.out.println("The serverPort: " + portArg + " is out of range.");
+			argumentErrorsFound = true;
+		}
+
+		int threads = BatchConverter.parseThreads(values.get("threads"));
+		if (threads < 0) {
+			argumentErrorsFound = true;
+		}
+
+		int queue = -1;
+		if (values.containsKey("queue")) {
+			queue = BatchConverter.parseNumber(values.get("queue"), -1);
+			if (queue < 0) {
+				System.out.println("The argument: " + values.get("queue") + " is not a valid queue length.");
+				argumentErrorsFound = true;
+			}
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		if (threads == 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		if (queue < 0) {
+			queue = threads;
+		}
+
+		ConversionServer server;
+		try {
+			server = new ConversionServer(host, port, threads, queue);
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+			return false;
+		}
+
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+		System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" +
+				server.getAddress().getPort() + "/convert with " + threads + " workers");
+
+		try {
+			server.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+}
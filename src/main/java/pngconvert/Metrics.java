@@ -0,0 +1,249 @@
+package pngconvert;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import pngconvert.ConversionException.Failure;
+
+/**
+ * Counters and per-stage timings for every conversion this process runs.
+ * <br><br>
+ * Conversions report into the {@linkplain #global() global} registry as they go;
+ * batch runs dump it when they finish and the server answers {@code GET /metrics} with it.
+ * Counters are {@link LongAdder}s, so workers don't contend on them,
+ * and timing a stage costs two {@link System#nanoTime()} calls.
+ * <br><br>
+ * Hits and misses of the {@linkplain PaletteCache#global() palette cache} are reported along with the rest.
+ * <br><br>
+ * Stages may run inside one another: {@link Stage#ENCODE} covers decoding, rounding, indexing and packing
+ * of sheets converted band by band, which are too interleaved to time one by one,
+ * and {@link Stage#DECODE} includes rounding for sheets {@link SheetDecoder} reads.
+ */
+public final class Metrics {
+	/**
+	 * Timed steps of a conversion.
+	 */
+	public enum Stage {
+		READ, // image file
+		DECODE, // PNG to raster or indices
+		ABGR, // ImageIO image to ABGR raster
+		ROUND,
+		PALETTE, // reading, parsing or extracting
+		INDEX,
+		PACK, // 4BPP
+		ENCODE, // band by band
+		WRITE,
+		PATCH,
+		PREVIEW;
+
+		final String label = name().toLowerCase(Locale.ROOT);
+	}
+
+	private static final Metrics GLOBAL = new Metrics();
+
+	private final LongAdder[] calls = adders(Stage.values().length);
+	private final LongAdder[] nanos = adders(Stage.values().length);
+	private final LongAdder[] failures = adders(Failure.values().length);
+	private final LongAdder converted = new LongAdder();
+	private final LongAdder cached = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+
+	/**
+	 * @return the registry every conversion reports to
+	 */
+	public static Metrics global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * @return start time for {@link #time(Stage, long)}
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Counts one run of a stage.
+	 * @param stage - stage that ran
+	 * @param start - from {@link #start()} when it began
+	 */
+	public void time(Stage stage, long start) {
+		calls[stage.ordinal()].increment();
+		nanos[stage.ordinal()].add(System.nanoTime() - start);
+	}
+
+	public void addBytesRead(long n) {
+		bytesRead.add(n);
+	}
+
+	public void addBytesWritten(long n) {
+		bytesWritten.add(n);
+	}
+
+	/**
+	 * Counts the outcome of a conversion.
+	 */
+	public void add(ConversionResult res) {
+		if (res.isCached()) {
+			cached.increment();
+		}
+		else if (res.isSuccess()) {
+			converted.increment();
+		}
+		else {
+			failed(res.getError().getFailure());
+		}
+	}
+
+	public void failed(Failure failure) {
+		failures[failure.ordinal()].increment();
+	}
+
+	public void converted() {
+		converted.increment();
+	}
+
+	public long getCalls(Stage stage) {
+		return calls[stage.ordinal()].sum();
+	}
+
+	/**
+	 * @return total time spent in {@code stage}, in nanoseconds
+	 */
+	public long getNanos(Stage stage) {
+		return nanos[stage.ordinal()].sum();
+	}
+
+	public long getFailures(Failure failure) {
+		return failures[failure.ordinal()].sum();
+	}
+
+	public long getConverted() {
+		return converted.sum();
+	}
+
+	public long getCached() {
+		return cached.sum();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	/**
+	 * Sets everything back to 0.
+	 */
+	public void reset() {
+		for (LongAdder a : calls) {
+			a.reset();
+		}
+		for (LongAdder a : nanos) {
+			a.reset();
+		}
+		for (LongAdder a : failures) {
+			a.reset();
+		}
+		converted.reset();
+		cached.reset();
+		bytesRead.reset();
+		bytesWritten.reset();
+	}
+
+	/**
+	 * @return every counter as a JSON object; stages that never ran are left out
+	 */
+	public String toJSON() {
+		StringBuilder ret = new StringBuilder(1024);
+		ret.append("{\"converted\":").append(getConverted());
+		ret.append(",\"cached\":").append(getCached());
+		ret.append(",\"bytesRead\":").append(getBytesRead());
+		ret.append(",\"bytesWritten\":").append(getBytesWritten());
+		ret.append(",\"paletteCache\":{\"hits\":").append(PaletteCache.global().getHits())
+			.append(",\"misses\":").append(PaletteCache.global().getMisses()).append('}');
+
+		ret.append(",\"failures\":{");
+		boolean first = true;
+		for (Failure f : Failure.values()) {
+			long n = getFailures(f);
+			if (n > 0) {
+				ret.append(first ? "" : ",").append('"').append(f.name()).append("\":").append(n);
+				first = false;
+			}
+		}
+
+		ret.append("},\"stages\":{");
+		first = true;
+		for (Stage s : Stage.values()) {
+			long n = getCalls(s);
+			if (n > 0) {
+				long t = getNanos(s);
+				ret.append(first ? "" : ",").append('"').append(s.label).append("\":{\"calls\":").append(n)
+					.append(",\"seconds\":").append(String.format(Locale.ROOT, "%.6f", t / 1e9))
+					.append(",\"meanMicros\":").append(String.format(Locale.ROOT, "%.1f", t / 1e3 / n))
+					.append('}');
+				first = false;
+			}
+		}
+		ret.append("}}\n");
+		return ret.toString();
+	}
+
+	/**
+	 * @return every counter in the Prometheus text exposition format
+	 */
+	public String toPrometheus() {
+		StringBuilder ret = new StringBuilder(2048);
+		counter(ret, "pngconvert_conversions_total", "Sheets converted.", getConverted());
+		counter(ret, "pngconvert_cached_total", "Sheets skipped because their sprite file was up to date.",
+				getCached());
+		counter(ret, "pngconvert_read_bytes_total", "Bytes of images and palettes read.", getBytesRead());
+		counter(ret, "pngconvert_written_bytes_total", "Bytes of sprites, ROM patches and previews written.",
+				getBytesWritten());
+
+		counter(ret, "pngconvert_palette_cache_hits_total", "Palette files found in the palette cache.",
+				PaletteCache.global().getHits());
+		counter(ret, "pngconvert_palette_cache_misses_total", "Palette files read and compiled.",
+				PaletteCache.global().getMisses());
+
+		head(ret, "pngconvert_failures_total", "Failed conversions by kind of failure.");
+		for (Failure f : Failure.values()) {
+			ret.append("pngconvert_failures_total{failure=\"").append(f.name()).append("\"} ")
+				.append(getFailures(f)).append('\n');
+		}
+
+		head(ret, "pngconvert_stage_seconds_total", "Time spent in each conversion stage.");
+		for (Stage s : Stage.values()) {
+			ret.append("pngconvert_stage_seconds_total{stage=\"").append(s.label).append("\"} ")
+				.append(String.format(Locale.ROOT, "%.6f", getNanos(s) / 1e9)).append('\n');
+		}
+		head(ret, "pngconvert_stage_calls_total", "Times each conversion stage ran.");
+		for (Stage s : Stage.values()) {
+			ret.append("pngconvert_stage_calls_total{stage=\"").append(s.label).append("\"} ")
+				.append(getCalls(s)).append('\n');
+		}
+		return ret.toString();
+	}
+
+	private static void counter(StringBuilder ret, String name, String help, long value) {
+		head(ret, name, help);
+		ret.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void head(StringBuilder ret, String name, String help) {
+		ret.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		ret.append("# TYPE ").append(name).append(" counter\n");
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] ret = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			ret[i] = new LongAdder();
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,140 @@
+package pngconvert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Just enough of {@code multipart/form-data} to take uploads apart:
+ * each part's name, file name and contents. Nested multiparts and transfer encodings aren't supported.
+ */
+final class Multipart {
+	/**
+	 * One field or file of a form.
+	 */
+	static final class Part {
+		private final String name;
+		private final String fileName;
+		private final byte[] data;
+
+		Part(String name, String fileName, byte[] data) {
+			this.name = name;
+			this.fileName = fileName;
+			this.data = data;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * @return name of the uploaded file, or {@code null} if this part is a plain field
+		 */
+		String getFileName() {
+			return fileName;
+		}
+
+		byte[] getData() {
+			return data;
+		}
+	}
+
+	private Multipart() {}
+
+	/**
+	 * @param contentType - {@code Content-Type} header of the request
+	 * @return the multipart boundary, or {@code null} if the request isn't {@code multipart/form-data}
+	 */
+	static String boundary(String contentType) {
+		if (contentType == null || !contentType.toLowerCase().startsWith("multipart/form-data")) {
+			return null;
+		}
+		for (String param : contentType.split(";")) {
+			param = param.trim();
+			if (param.toLowerCase().startsWith("boundary=")) {
+				String ret = param.substring("boundary=".length());
+				if (ret.length() >= 2 && ret.startsWith("\"") && ret.endsWith("\"")) {
+					ret = ret.substring(1, ret.length() - 1);
+				}
+				return ret.isEmpty() ? null : ret;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Splits a form into its parts. Malformed parts are skipped.
+	 * @param body - request body
+	 * @param boundary - boundary from {@link #boundary(String)}
+	 */
+	static List<Part> parse(byte[] body, String boundary) {
+		List<Part> ret = new ArrayList<Part>();
+		byte[] delim = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		byte[] headerEnd = { '\r', '\n', '\r', '\n' };
+
+		int at = indexOf(body, delim, 0);
+		while (at >= 0) {
+			int start = at + delim.length;
+			// closing delimiter
+			if (start + 1 < body.length && body[start] == '-' && body[start + 1] == '-') {
+				break;
+			}
+			int next = indexOf(body, delim, start);
+			if (next < 0) {
+				break;
+			}
+			// part contents end with the CRLF before the next delimiter
+			int end = next >= 2 && body[next - 2] == '\r' && body[next - 1] == '\n' ? next - 2 : next;
+			int headers = indexOf(body, headerEnd, start);
+			if (headers >= 0 && headers < end) {
+				String head = new String(body, start, headers - start, StandardCharsets.UTF_8);
+				String name = null;
+				String fileName = null;
+				for (String line : head.split("\r\n")) {
+					if (line.toLowerCase().startsWith("content-disposition:")) {
+						name = param(line, "name");
+						fileName = param(line, "filename");
+					}
+				}
+				if (name != null) {
+					byte[] data = new byte[end - (headers + 4)];
+					System.arraycopy(body, headers + 4, data, 0, data.length);
+					ret.add(new Part(name, fileName, data));
+				}
+			}
+			at = next;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return value of {@code key="value"} in a header line, or {@code null} if it isn't there
+	 */
+	private static String param(String line, String key) {
+		for (String p : line.split(";")) {
+			p = p.trim();
+			int eq = p.indexOf('=');
+			if (eq > 0 && p.substring(0, eq).trim().equalsIgnoreCase(key)) {
+				String v = p.substring(eq + 1).trim();
+				if (v.length() >= 2 && v.startsWith("\"") && v.endsWith("\"")) {
+					v = v.substring(1, v.length() - 1);
+				}
+				return v;
+			}
+		}
+		return null;
+	}
+
+	private static int indexOf(byte[] hay, byte[] needle, int from) {
+		outer:
+		for (int i = from; i <= hay.length - needle.length; i++) {
+			for (int j = 0; j < needle.length; j++) {
+				if (hay[i + j] != needle[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+}
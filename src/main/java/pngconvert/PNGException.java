@@ -0,0 +1,12 @@
+package pngconvert;
+
+/**
+ * Thrown when an image or palette is readable but unusable for a sprite sheet,
+ * e.g. wrong dimensions or too few colors.
+ */
+@SuppressWarnings("serial")
+public class PNGException extends Exception {
+	public PNGException(String message) {
+		super(message);
+	}
+}
@@ -16,8 +16,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
+import java.util.List;
 
-import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -44,53 +44,38 @@ import static javax.swing.SpringLayout.*;
 
 public class PNGto4BPP {
 	// accepted extensions
-	private static final String[] IMAGEEXTS = { "png" }; // image import types
-	private static final String[] PALETTEEXTS = { "gpl", "pal", "txt" }; // ascii palette import types
+	private static final String[] IMAGEEXTS = SpriteConverter.IMAGEEXTS; // image import types
+	private static final String[] PALETTEEXTS = SpriteConverter.PALETTEEXTS; // palette file import types
 	private static final String[] BINARYEXTS = { "pal" }; // binary palette import types
 	private static final String[] SPREXTS = { ZSPRFile.EXTENSION }; // sprite file import types
 	private static final String[] ROMEXTS = { "sfc" }; // rom file import types
-	private static final String[] EXPORTEXTS = { ZSPRFile.EXTENSION, "sfc" }; // export types
+	private static final String[] EXPORTEXTS = SpriteConverter.EXPORTEXTS; // export types
 	private static final String[] LOGEXTS = { "txt" }; // debug file types
 
-	// Set theme here so the static ones can look good
-	static {
-		// try to set LaF
-		try {
-			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-		} catch (Exception e2) {
-				// do nothing
-		} //end System
-	}
-
 	// wiki link
 	private static final String WIKI_LINK = "https://github.com/fatmanspanda/ALttPNG/wiki/PNGto4BPP";
-	private static final JTextField wikiPath = new JTextField(WIKI_LINK);
-	private static final JPanel wikiWarn = new JPanel(new BorderLayout());
-	static {
-		wikiWarn.add(new JLabel("There was a problem opening your browser."), BorderLayout.NORTH);
-		wikiWarn.add(new JLabel("The wiki can be accessed from the following URL:"), BorderLayout.CENTER);
-		wikiWarn.add(wikiPath, BorderLayout.SOUTH);
-	}
 
-	// These fields are utilized by static functions
-	private static final JTextField imageName = new JTextField("");
-	private static final JTextField palName = new JTextField("");
-	private static final JTextField fileName = new JTextField("");
-	private static final JFormattedTextField sprName = new JFormattedTextField();
-	private static final JFormattedTextField authName = new JFormattedTextField();
-	private static final JFormattedTextField authNameROM = new JFormattedTextField();
+	// Swing state is only built by initGui(), so command line runs never load a look and feel or a window
+	private static JTextField wikiPath;
+	private static JPanel wikiWarn;
 
-	// offsets used by palette trickery to store gloves colors
-	private static int[] GLOVE_PAL_INDICES = new int[] { 16, 32 };
+	// These fields are utilized by static functions
+	private static JTextField imageName;
+	private static JTextField palName;
+	private static JTextField fileName;
+	private static JFormattedTextField sprName;
+	private static JFormattedTextField authName;
+	private static JFormattedTextField authNameROM;
 
 	// palette reading methods
 	private static String[] palChoices = {
-				"Read ASCII (" + String.join(", ",PALETTEEXTS) +")",
+				"Read palette file (" + String.join(", ",PALETTEEXTS) +")",
 				"Binary (.PAL)",
-				"Extract from last block of PNG"
+				"Extract from last block of PNG",
+				"Use palette of indexed PNG"
 				};
-	private static final JComboBox<String> palOptions = new JComboBox<String>(palChoices);
-	private static final JFrame frame = new JFrame("PNGto4BPP " + SpriteManipulator.ALTTPNG_VERSION);
+	private static JComboBox<String> palOptions;
+	private static JFrame frame;
 
 	private static StringWriter debugLogging;
 	private static PrintWriter debugWriter;
@@ -102,16 +87,14 @@ public class PNGto4BPP {
 	// this is actually getting kinda annoying to see all the time
 	private static boolean ignoreSuccess = false;
 
-	// Summary
-	// Command line usage:
-	// imgSrc: Full path for image
-	// palMethod: palFileMethod [0:ASCII (.GPL|.PAL|.TXT), 1:Binary (YY-CHR .PAL), 2:Extract from last block of PNG]
-	// palSrc (Used if method 0 or 1 is selected): Full Path for Palette File.
-	// sprTarget (optional): Name of sprite that will be created. Will default to name of imgSrc with new extension.
-	// romTarget (optional): Path of ROM to patch.
-
 	// main
 	public static void main(String[] args) {
+		// command line conversion; see CommandLine for usage
+		if (args.length > 0) {
+			CommandLine.main(args);
+			return;
+		}
+
 		javax.swing.SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				monsterMash();
@@ -119,8 +102,38 @@ public class PNGto4BPP {
 		});
 	}
 
+	/**
+	 * Sets the look and feel and builds the Swing fields shared by the static functions.
+	 */
+	private static void initGui() {
+		// Set theme here so the static ones can look good
+		try {
+			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+		} catch (Exception e2) {
+				// do nothing
+		} //end System
+
+		wikiPath = new JTextField(WIKI_LINK);
+		wikiWarn = new JPanel(new BorderLayout());
+		wikiWarn.add(new JLabel("There was a problem opening your browser."), BorderLayout.NORTH);
+		wikiWarn.add(new JLabel("The wiki can be accessed from the following URL:"), BorderLayout.CENTER);
+		wikiWarn.add(wikiPath, BorderLayout.SOUTH);
+
+		imageName = new JTextField("");
+		palName = new JTextField("");
+		fileName = new JTextField("");
+		sprName = new JFormattedTextField();
+		authName = new JFormattedTextField();
+		authNameROM = new JFormattedTextField();
+
+		palOptions = new JComboBox<String>(palChoices);
+		frame = new JFrame("PNGto4BPP " + SpriteManipulator.ALTTPNG_VERSION);
+	}
+
 	// GUI
 	public static void monsterMash() {
+		initGui();
+
 		// try setting names from defaults
 		try {
 			MY_NAME_PATH = (new File(MY_NAME_PATH)).getAbsolutePath();
@@ -552,7 +565,7 @@ public class PNGto4BPP {
 					if (!SpriteManipulator.testFileType(n,EXPORTEXTS)) {
 						// if invalid filetype
 						if(n.contains(".")) {
-							changeExtension(n, ZSPRFile.EXTENSION);
+							n = SpriteConverter.changeExtension(n, ZSPRFile.EXTENSION);
 						} else {
 							// no filetype, append zspr
 							n = n + "." + ZSPRFile.EXTENSION;
@@ -619,390 +632,40 @@ public class PNGto4BPP {
 			});
 	}
 
-	// Summary
-	// ProcessArgs checks if the arguments are valid, and if so, sets the TextFields and ComboBox with the values from the passed arguments.
-	// Returns True if arguments were processed successfully. False if not.
+	/**
+	 * @see CommandLine#ProcessArgs(String[])
+	 */
 	public static boolean ProcessArgs(String[] args) {
-		if(args.length < 2 || args.length > 5) {
-			return false;
-		}
-		String imgSrc = "";
-		String palSrc = "";
-		String sprTarget = "";
-		String romTarget = "";
-		int palOption = -1;
-		boolean argumentErrorsFound = false;
-
-		for(int i = 0; i < args.length; i++) {
-			// Tokenize argument
-			String[] tokens = args[i].split("=");
-			// System.out.println(tokens[0]);
-
-			// imgSrc: Full Path for Image
-			// palOption: palFileOption [0:ASCII(.GPL|.PAL|.TXT), 1:Binary(YY-CHR .PAL), 2:Extract from Last Block of PNG]
-			// palSrc:(Used if Option 0 or 1 selected) Full Path for Pal File.
-			// sprTarget: Name of Sprite that will be created.
-			if(tokens.length == 2) {
-				switch(tokens[0]) {
-					case "imgSrc":
-						imgSrc = tokens[1];
-						imageName.setText(imgSrc);
-						break;
-					case "palOption":
-						if(IsInteger(tokens[i])) {
-							palOption = Integer.parseInt(tokens[1]);
-
-							if(palOption >= 0 && palOption < palOptions.getItemCount()) {
-								palOptions.setSelectedIndex(palOption);
-							}
-							else {
-								System.out.println("The palOption: " + palOption + " is out of range.");
-								argumentErrorsFound = true;
-							}
-						}
-						else {
-							System.out.println("The argument: " +
-									tokens[1] +
-									" is not a valid integer to specify the palette option. " +
-									"0: ASCII ; 1:Binary ; 2:Extract from last block of PNG");
-							argumentErrorsFound = true;
-						}
-						break;
-					case "palSrc":
-						palSrc = tokens[1];
-						palName.setText(palSrc);
-						break;
-					case "sprTarget":
-						sprTarget = tokens[1];
-						fileName.setText(sprTarget);
-						break;
-					case "romTarget":
-						romTarget = tokens[1];
-						break;
-				}
-			}
-			else {
-				System.out.println("The argument: " + args[i] + " is invalid.");
-				argumentErrorsFound = true;
-			}
-		} // end loops
-
-		if(argumentErrorsFound) {
-			return false;
-		}
-
-		// Ensure imgSrc exists
-		if(imgSrc == "") {
-			System.out.println("No source image was specified or was not specified correctly.");
-			argumentErrorsFound = true;
-		}
-
-		// enters here if palMethod is between 1-3
-		if(palSrc == "" && (palOption == 0 || palOption == 1)) {
-			System.out.println("No palette source was specified despite using a palette method that requires it.");
-			argumentErrorsFound = true;
-		}
-
-		// If sprite target name is not set, use the img source name with .zspr extension.
-		if(sprTarget == "") {
-			sprTarget = changeExtension(imgSrc, ZSPRFile.EXTENSION);
-			fileName.setText(sprTarget);
-		}
-
-		// If all arguments check out, lets finish everything we want to do.
-		if(!argumentErrorsFound) {
-			// Returns true if successful
-			if(convertPngToSprite(true)) {
-
-				if(romTarget != "") {
-					try {
-						// Push change to ROM
-						UpdateRom(sprTarget, romTarget);
-					} catch (IOException e) {
-						System.out.println("ERROR: " + e);
-						return false;
-					}
-				}
-			}
-		}
-		return !argumentErrorsFound;
-	}
-
-	public static void UpdateRom(String sprTarget, String romTarget)
-			throws IOException, FileNotFoundException {
-//		byte[] spriteData = new byte[0x7078];
-
-		// filestream open .zspr file
-//		FileInputStream fsInput = new FileInputStream(sprTarget);
-//		fsInput.read(spriteData);
-//		fsInput.close();
-		//SpriteManipulator.patchRom(sprite_data, romTarget);
-	}
-
-	public static boolean IsInteger(String string) {
-		try {
-			Integer.valueOf(string);
-			return true;
-		} catch (NumberFormatException e) {
-			return false;
-		}
-	}
-
-	public static String changeExtension(String file, String extension) {
-		String filename = file;
-
-		if (filename.contains(".")) {
-			filename = filename.substring(0, filename.lastIndexOf('.'));
-		}
-		filename += "." + extension;
-
-		return filename;
+		return CommandLine.ProcessArgs(args);
 	}
 
+	/**
+	 * Converts the sheet described by the GUI fields.
+	 * Problems are shown as dialogs and logged to the debug log.
+	 * @param ignoreSuccessMessage - skip the success dialog
+	 * @return {@code true} if the sprite was written
+	 */
 	public static boolean convertPngToSprite(boolean ignoreSuccessMessage) {
-		BufferedImage img;
-		BufferedImage imgRead;
-		byte[] pixels;
-		String imgName = imageName.getText();
-		String paletteName = palName.getText();
-		File imageFile = new File(imgName);
-		BufferedReader br;
-		int[] palette = null;
-		byte[] palData = null;
-		byte[] glovesData = null;
-		byte[][][] eightbyeight;
-		int palChoice = palOptions.getSelectedIndex(); // see which palette method we're using
-
-		boolean extensionERR = false; // let the program spit out all extension errors at once
-		boolean patchingROM = false;
-
-		// test image type
-		if (!SpriteManipulator.testFileType(imgName, IMAGEEXTS)) {
-			JOptionPane.showMessageDialog(frame,
-					"Images must be one of the following types:\n" +
-							String.join(", ", IMAGEEXTS),
-					"Good job",
-					JOptionPane.WARNING_MESSAGE);
-			extensionERR = true;
-		}
-
-		// test palette type
-		if (!SpriteManipulator.testFileType(paletteName, PALETTEEXTS) && (palChoice != 2)) {
-			if(paletteName.length() == 0) {
-				JOptionPane.showMessageDialog(frame,
-						"No palette source was specified despite using a palette method that requires it",
-						"Oops",
-						JOptionPane.WARNING_MESSAGE);
-				extensionERR = true;
+		ConversionRequest req = new ConversionRequest(imageName.getText(),
+				palOptions.getSelectedIndex(), // see which palette method we're using
+				palName.getText());
+		req.setTarget(fileName.getText());
+		req.setSpriteName(sprName.getText());
+		req.setAuthorName(authName.getText());
+		req.setAuthorNameROM(authNameROM.getText());
+
+		// let the program spit out all extension errors at once
+		List<ConversionException> extensionERR = SpriteConverter.validate(req);
+		if (!extensionERR.isEmpty()) {
+			for (ConversionException e : extensionERR) {
+				showConversionError(e);
 			}
-			else {
-				JOptionPane.showMessageDialog(frame,
-						"Palettes must be one of the following types:\n" +
-								String.join(", ", PALETTEEXTS),
-						"HEY! LISTEN!",
-						JOptionPane.WARNING_MESSAGE);
-				extensionERR = true;
-			}
-		}
-
-		// save location
-		String loc = fileName.getText();
-
-		// default name
-		if (loc.equals("")) {
-			loc = imgName;
-			try {
-				loc = loc.substring(0,loc.lastIndexOf("."));
-			} catch(StringIndexOutOfBoundsException e) {
-				loc = "oops";
-			} finally {
-				// still add extension here so that the user isn't fooled into thinking they need this field
-				loc += " (exported)." + ZSPRFile.EXTENSION;
-			}
-		}
-
-		// sfc means we're patching a ROM
-		if (SpriteManipulator.testFileType(loc,"sfc")) {
-			patchingROM = true;
-		}
-
-		// only allow sprite/ROM files
-		if (!SpriteManipulator.testFileType(loc, EXPORTEXTS)) {
-			if(loc.contains(".")) {
-				JOptionPane.showMessageDialog(frame,
-						"Export location must be one of the following types:\n" +
-								String.join(", ", EXPORTEXTS),
-								"C'mon",
-								JOptionPane.WARNING_MESSAGE);
-				extensionERR = true;
-			} else {
-				loc = loc + "." + ZSPRFile.EXTENSION;
-			}
-		}
-
-		// break if any extension related errors
-		if (extensionERR) {
 			return false;
 		}
 
-		// image file
-		try {
-			imgRead = ImageIO.read(imageFile);
-		} catch (FileNotFoundException e) {
-			JOptionPane.showMessageDialog(frame,
-					"Image file not found",
-					"Where'd it go?",
-					JOptionPane.WARNING_MESSAGE);
-			e.printStackTrace(debugWriter);
-			return false;
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(frame,
-					"Error reading image",
-					"Well huh",
-					JOptionPane.WARNING_MESSAGE);
-			e.printStackTrace(debugWriter);
-			return false;
-		}
-
-		// convert to RGB colorspace
-		img = SpriteManipulator.convertToABGR(imgRead);
-
-		// image raster
-		try {
-			pixels = getImageRaster(img);
-		} catch (PNGException e) {
-			JOptionPane.showMessageDialog(frame,
-					e.getMessage(),
-					"Puh-lease",
-					JOptionPane.WARNING_MESSAGE);
-			e.printStackTrace(debugWriter);
-			return false;
-		}
-
-		// round image raster
-		pixels = SpriteManipulator.roundRaster(pixels);
-
-		// explicit ASCII palette
-		if (palChoice == 0) {
-			// get palette file
-			try {
-				br = getFileReader(paletteName);
-			} catch (FileNotFoundException e) {
-				JOptionPane.showMessageDialog(frame,
-						"Palette file not found",
-						"Hmmmmm",
-						JOptionPane.WARNING_MESSAGE);
-				e.printStackTrace(debugWriter);
-				return false;
-			}
-			// palette parsing
-			try {
-				// test file type to determine format
-				if (SpriteManipulator.testFileType(paletteName, "txt")) {
-					palette = getPaletteColorsFromPaintNET(br);
-				}
-				else {
-					palette = getPaletteColorsFromFile(br);
-				}
-				palette = SpriteManipulator.roundPalette(palette);
-				palData = SpriteManipulator.getPalDataFromArray(palette);
-			} catch (NumberFormatException|IOException e) {
-				JOptionPane.showMessageDialog(frame,
-						"Error reading palette",
-						"Uhhhhhhh",
-						JOptionPane.WARNING_MESSAGE);
-				e.printStackTrace(debugWriter);
-				return false;
-			} catch (PNGException e) {
-				JOptionPane.showMessageDialog(frame,
-						e.getMessage(),
-						"This one is YOUR fault",
-						JOptionPane.WARNING_MESSAGE);
-				e.printStackTrace(debugWriter);
-				return false;
-			}
-		}
-
-		// binary pal
-		if (palChoice == 1) {
-			if (!SpriteManipulator.testFileType(paletteName, "pal")) {
-				JOptionPane.showMessageDialog(frame,
-						"Binary palette reading must use a .PAL file",
-						"Gosh dernit",
-						JOptionPane.WARNING_MESSAGE);
-				return false;
-			}
-			try {
-				byte[] palX = SpriteManipulator.readFile(paletteName);
-				palette = palFromBinary(palX);
-				palData = SpriteManipulator.getPalDataFromArray(palette);
-			} catch(Exception e) {
-				return false;
-			}
-		}
-
-		// extract from last block
-		if (palChoice == 2) {
-			palette = palExtract(pixels);
-			palData = SpriteManipulator.getPalDataFromArray(palette);
-		}
-
-		// make the file
-		try {
-			// only try to make a file if we're making a new sprite
-			if (!patchingROM) {
-				new File(loc);
-			}
-		} catch (NullPointerException e) {
-			JOptionPane.showMessageDialog(frame,
-					"Invalid file name",
-					"FFS",
-					JOptionPane.WARNING_MESSAGE);
-			e.printStackTrace(debugWriter);
-		}
-
-		// split bytes into blocks
-		eightbyeight = SpriteManipulator.indexAnd8x8(pixels, palette);
-		glovesData = SpriteManipulator.getGlovesDataFromArray(palette);
-		byte[] sprData = SpriteManipulator.export8x8ToSPR(eightbyeight);
-		ZSPRFile newSPR = new ZSPRFile(sprData, palData, glovesData);
-
-		// add sprite name
-		String sName = sprName.getText();
-		if (!sName.equals("")) {
-			newSPR.setSpriteName(sName);
-		}
-
-		// add author name
-		String aName = authName.getText();
-		if (!aName.equals("")) {
-			newSPR.setAuthorName(aName);
-		}
-
-		// set author name rom
-		String rName = authNameROM.getText();
-		newSPR.setAuthorNameROM(rName); // if it's blank, ZSPRFile class handles it
-
-		// write data to ZSPR file
-		try {
-			if (patchingROM) {
-				SpriteManipulator.patchRom(loc, newSPR);
-			}
-			else {
-				SpriteManipulator.writeSPRFile(loc, newSPR);
-			}
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(frame,
-					"Error writing sprite",
-					"Drats!",
-					JOptionPane.WARNING_MESSAGE);
-			e.printStackTrace(debugWriter);
-			return false;
-		}  catch (ZSPRFormatException e) {
-			JOptionPane.showMessageDialog(frame,
-					e.getMessage(),
-					"PROBLEM",
-					JOptionPane.WARNING_MESSAGE);
+		ConversionResult res = SpriteConverter.run(req);
+		if (!res.isSuccess()) {
+			showConversionError(res.getError());
 			return false;
 		}
 
@@ -1010,8 +673,8 @@ public class PNGto4BPP {
 			// success
 			JOptionPane.showMessageDialog(frame,
 				"Sprite file successfully " +
-				(patchingROM ? "patched" : "written") +
-				" to:" + "\n" + (new File(loc).getName()),
+				(res.isPatchedROM() ? "patched" : "written") +
+				" to:" + "\n" + (new File(res.getTarget()).getName()),
 				"YAY",
 				JOptionPane.PLAIN_MESSAGE);
 		}
@@ -1019,18 +682,34 @@ public class PNGto4BPP {
 	}
 
 	/**
-	 * Get the full image raster
-	 * @param img - image to read
-	 * @throws BadDimensionsException if the image is not 128 pixels wide and 448 pixels tall
+	 * Shows a conversion problem to the user and logs it.
 	 */
-	public static byte[] getImageRaster(BufferedImage img) throws PNGException {
-		int w = img.getWidth();
-		int h = img.getHeight();
-		if (w != 128 || h != 448) {
-			throw new PNGException("Invalid dimensions of {" + w + "," + h + "}" +
-					"Image dimensions must be 128x448");
+	private static void showConversionError(ConversionException e) {
+		String title;
+		switch (e.getFailure()) {
+			case IMAGE_TYPE : title = "Good job"; break;
+			case NO_PALETTE : title = "Oops"; break;
+			case PALETTE_TYPE : title = "HEY! LISTEN!"; break;
+			case BINARY_PALETTE_TYPE : title = "Gosh dernit"; break;
+			case TARGET_TYPE : title = "C'mon"; break;
+			case IMAGE_NOT_FOUND : title = "Where'd it go?"; break;
+			case IMAGE_READ : title = "Well huh"; break;
+			case IMAGE_DIMENSIONS : title = "Puh-lease"; break;
+			case PALETTE_NOT_FOUND : title = "Hmmmmm"; break;
+			case PALETTE_READ : title = "Uhhhhhhh"; break;
+			case PALETTE_COLORS : title = "This one is YOUR fault"; break;
+			case WRITE : title = "Drats!"; break;
+			case ROM_NOT_FOUND : title = "Where'd it go?"; break;
+			case ROM_FORMAT : title = "Puh-lease"; break;
+			default : title = "PROBLEM"; break;
+		}
+		JOptionPane.showMessageDialog(frame,
+				e.getMessage(),
+				title,
+				JOptionPane.WARNING_MESSAGE);
+		if (debugWriter != null) {
+			e.printStackTrace(debugWriter);
 		}
-		return SpriteManipulator.getImageRaster(img);
 	}
 
 	/**
@@ -1060,234 +739,81 @@ public class PNGto4BPP {
 	}
 
 	/**
-	 * Reads a GIMP ({@code .gpl}) or Graphics Gale ({@code .pal}) palette file for colors.
-	 * <br><br>
-	 * This function first finds as many colors as it can from the palette.
-	 * Once the palette is fully read, the number of colors recognized is
-	 * rounded down to the nearest multiple of 16.
-	 * Each multiple of 16 represents one of Link's mail palettes
-	 * (green, blue, red, bunny).
-	 * If fewer than 4 palettes are found, any empty palette is copied from green mail.
-	 *
-	 * @param pal - Palette to read
-	 * @return {@code int[]} of 64 colors as integers (RRRGGGBBB)
-	 * @throws ShortPaletteException Halts the process if enough colors are not found.
+	 * @deprecated use {@link CommandLine#UpdateRom(String, String)}
 	 */
-	public static int[] getPaletteColorsFromFile(BufferedReader pal)
-			throws NumberFormatException, IOException, PNGException {
-		int[] ret = new int[64];
-		String line;
-
-		// read palette
-		int pali = 0;
-		while ((line = pal.readLine()) != null) {
-			// look for 3 numbers
-			String[] line2 = (line.trim()).split("\\D+");
-			int colori = 0;
-			int[] colorArray = new int[3];
-			if (line2.length >= 3) {
-				for (String s : line2) {
-					int curCol = -1;
-					try {
-						curCol = Integer.parseInt(s);
-					} catch(NumberFormatException e) {
-						// nothing
-					} finally {
-						colorArray[colori] = curCol;
-						colori++;
-					}
-					if (colori == 3) {
-						break;
-					}
-				}
-				// read RGB bytes as ints
-				int r = colorArray[0];
-				int g = colorArray[1];
-				int b = colorArray[2];
-				ret[pali] = (r * 1000000) + (g * 1000) + b; // add to palette as RRRGGGBBB
-				pali++; // increment palette index
-			}
-			if (pali == 64) {
-				break;
-			}
-		}
-		// short palettes throw an error
-		if (pali < 16 ) {
-			throw new PNGException("Only " + pali + " colors were found.\n" +
-					"At least 16 colors are required.");
-		}
-		// truncate long palettes
-		int[] newret = new int[64];
-		pali = 16 * (pali / 16);
-		if (pali > 64) {
-			pali = 64;
-		}
-		for (int i = 0; i < pali; i++) {
-			newret[i] = ret[i];
-		}
-		if (pali < 64) {
-			for (int i = pali; i < 64; i++) {
-				newret[i] = ret[i%16];
-			}
-		}
+	@Deprecated
+	public static void UpdateRom(String sprTarget, String romTarget)
+			throws IOException, FileNotFoundException {
+		CommandLine.UpdateRom(sprTarget, romTarget);
+	}
 
-		// add gloves colors
-		newret = addGlovesToRGBPal(newret);
+	/**
+	 * @deprecated use {@link CommandLine#IsInteger(String)}
+	 */
+	@Deprecated
+	public static boolean IsInteger(String string) {
+		return CommandLine.IsInteger(string);
+	}
 
-		return newret;
+	/**
+	 * @deprecated use {@link SpriteConverter#changeExtension(String, String)}
+	 */
+	@Deprecated
+	public static String changeExtension(String file, String extension) {
+		return SpriteConverter.changeExtension(file, extension);
 	}
 
 	/**
-	 * Reads a Paint.NET palette ({@code .txt}) for colors.
-	 * This method must be separate as Paint.NET uses HEX values to write colors.
-	 * <br><br>
-	 * This function firsts find as many colors as it can from the palette.
-	 * Once the palette is fully read, the number of colors recognized is
-	 * rounded down to the nearest multiple of 16.
-	 * Each multiple of 16 represents one of Link's mail palettes
-	 * (green, blue, red, bunny).
-	 * If fewer than 4 palettes are found, any empty palette is copied from green mail.
-	 *
-	 * @param pal - Palette to read
-	 * @return {@code int[]} of 64 colors as integers (RRRGGGBBB) of 64 colors as integers (RRRGGGBBB)
-	 * @throws ShortPaletteException Halts the process if enough colors are not found.
+	 * @deprecated use {@link SpriteConverter#getImageRaster(BufferedImage)}
 	 */
-	public static int[] getPaletteColorsFromPaintNET(BufferedReader pal)
-			throws NumberFormatException, IOException, PNGException {
-		int[] ret = new int[64];
-		String line;
-
-		// read palette
-		int pali = 0;
-		while ( (line = pal.readLine()) != null) {
-			if (line.matches("[0-9A-F] {8}")) {
-				char[] line2 = line.toCharArray();
-				// read RGB bytes as ints
-				int r = Integer.parseInt( ("" + line2[2] + line2[3]), 16);
-				int g = Integer.parseInt( ("" + line2[4] + line2[5]), 16);
-				int b = Integer.parseInt( ("" + line2[6] + line2[7]), 16);
-				ret[pali] = (r * 1000000) + (g * 1000) + b; // add to palette as RRRGGGBBB
-				pali++; // increment palette index
-			}
-			if (pali == 64) {
-				break;
-			}
-		}
-		// Paint.NET forces 96 colors, but put this here just in case
-		if (pali < 16 ) {
-			throw new PNGException("Only " + pali + " colors were found.\n" +
-					"At least 16 colors are required.");
-		}
-		// truncate long palettes
-		int[] newret = new int[64];
-		pali = 16 * (pali / 16);
-		if (pali > 64) {
-			pali = 64;
-		}
-		for (int i = 0; i < pali; i++) {
-			newret[i] = ret[i];
-		}
-		if (pali < 64) {
-			for (int i = pali; i < 64; i++) {
-				newret[i] = ret[i%16];
-			}
-		}
+	@Deprecated
+	public static byte[] getImageRaster(BufferedImage img) throws PNGException {
+		return SpriteConverter.getImageRaster(img);
+	}
 
-		// add gloves colors
-		ret = addGlovesToRGBPal(ret);
+	/**
+	 * @return {@code int[]} of 66 colors as integers (RRRGGGBBB)
+	 * @deprecated use {@link PaletteReader#getPaletteColorsFromFile(BufferedReader)}, which gives {@code 0xRRGGBB}
+	 */
+	@Deprecated
+	public static int[] getPaletteColorsFromFile(BufferedReader pal)
+			throws NumberFormatException, IOException, PNGException {
+		return Colors.toDecimal(PaletteReader.getPaletteColorsFromFile(pal));
+	}
 
-		return ret;
+	/**
+	 * @return {@code int[]} of 66 colors as integers (RRRGGGBBB)
+	 * @deprecated use {@link PaletteReader#getPaletteColorsFromPaintNET(BufferedReader)}, which gives {@code 0xRRGGBB}
+	 */
+	@Deprecated
+	public static int[] getPaletteColorsFromPaintNET(BufferedReader pal)
+			throws NumberFormatException, IOException, PNGException {
+		return Colors.toDecimal(PaletteReader.getPaletteColorsFromPaintNET(pal));
 	}
 
 	/**
-	 * Extracts palette colors from last 8x8 block of the image.
-	 * Each row of this 8x8 block represents one-half of a mail palette.
-	 * Row 1 contains green mail's colors 0x0&ndash;0x7;
-	 * row 2 contains green mail's colors 0x8&ndash;0xF; etc.
-	 * <br><br>
-	 * If any pixel of the latter 3 mails matches the color at {0,0}
-	 * (green mail's transparent pixel),
-	 * it will be replaced with the corresponding color at green mail for that palette's index.
-	 * This is done as an attempt to completely fill out all 64 colors of the palette.
-	 * <br><br>
-	 * After all 64 colors are filled, gloves colors will be added from the eventually unused
-	 * indices 16 and 32.
-	 * @param pixels - image raster, assumed ABGR
-	 * @return
+	 * @return {@code int[]} of 66 colors as integers (RRRGGGBBB)
+	 * @deprecated use {@link PaletteReader#palExtract(byte[])}, which gives {@code 0xRRGGBB}
 	 */
+	@Deprecated
 	public static int[] palExtract(byte[] pixels) {
-		int[] ret = new int[64];
-		int pali = 0;
-		int startAt = (128 * 448 - 8) - (128 * 7);
-		int endAt = startAt + (8 * 128);
-		byte b1 = pixels[startAt*4+1];
-		byte g1 = pixels[startAt*4+2];
-		byte r1 = pixels[startAt*4+3];
-		for (int i = startAt; i < endAt; i+= 128) {
-			for (int j = 0; j < 8; j++) {
-				int k = i + j;
-				int b = Byte.toUnsignedInt(pixels[k*4+1]);
-				int g = Byte.toUnsignedInt(pixels[k*4+2]);
-				int r = Byte.toUnsignedInt(pixels[k*4+3]);
-				ret[pali] = (1000000 * r) + (1000 * g) + b;
-				pali++;
-				// remove the 8x8 block by setting it to green mail trans
-				pixels[k*4+1] = b1;
-				pixels[k*4+2] = g1;
-				pixels[k*4+3] = r1;
-			}
-		}
-
-		// fill out the palette by removing empty indices
-		for (int i = 16; i < 64; i++) {
-			if (ret[i] == ret[0])
-				ret[i] = ret[i%16];
-		}
-
-		// add gloves colors
-		ret = addGlovesToRGBPal(ret);
-
-		return ret;
+		return Colors.toDecimal(PaletteReader.palExtract(pixels));
 	}
 
+	/**
+	 * @return {@code int[]} of 66 colors as integers (RRRGGGBBB)
+	 * @deprecated use {@link PaletteReader#palFromBinary(byte[])}, which gives {@code 0xRRGGBB}
+	 */
+	@Deprecated
 	public static int[] palFromBinary(byte[] pal) {
-		int[] ret = new int[64];
-		for (int i = 0; i < 64; i++) {
-			int pos = (i * 3);
-			int r = Byte.toUnsignedInt(pal[pos]);
-			int g = Byte.toUnsignedInt(pal[pos+1]);
-			int b = Byte.toUnsignedInt(pal[pos+2]);
-			ret[i] = (r * 1000000) + (g * 1000) + b;
-		}
-
-		// add gloves colors
-		ret = addGlovesToRGBPal(ret);
-
-		return ret;
+		return Colors.toDecimal(PaletteReader.palFromBinary(pal));
 	}
 
+	/**
+	 * @deprecated use {@link PaletteReader#addGlovesToRGBPal(int[])}
+	 */
+	@Deprecated
 	public static int[] addGlovesToRGBPal(int[] pal) {
-		int[] ret = new int[66];
-		// clone most of the 64 length array
-		for (int i = 0; i < 64; i++) {
-			ret[i] = pal[i];
-		}
-
-		// set gloves colors using transparent indices of 2nd and 3rd mail palettes
-		for (int i = 0; i < GLOVE_PAL_INDICES.length; i++) {
-			if (ret[GLOVE_PAL_INDICES[i]] != 0) {
-				ret[64+i] = ret[GLOVE_PAL_INDICES[i]];
-			}
-		}
-
-		return ret;
-	}
-
-	// errors
-	@SuppressWarnings("serial")
-	public static class PNGException extends Exception {
-		public PNGException(String message) {
-			super(message);
-		}
+		return PaletteReader.addGlovesToRGBPal(pal);
 	}
-}
\ No newline at end of file
+}
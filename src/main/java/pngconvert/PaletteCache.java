@@ -0,0 +1,167 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiled palettes of recently used palette files, so sheets sharing a palette file
+ * only have it read, parsed, rounded and compiled once.
+ * <br><br>
+ * Palette files are recognized by path, last modified time and size, so an edited file is read again
+ * without the cache ever opening it to check. Palettes given as file contents (uploads to the server)
+ * are recognized by their contents. The palette method is part of the key either way,
+ * since the same file reads differently as ASCII and as binary.
+ * <br><br>
+ * The least recently used palette is dropped once the cache is full.
+ * Palettes that fail to read are never cached. Instances are thread-safe.
+ */
+public final class PaletteCache {
+	public static final int DEFAULT_SIZE = 64;
+
+	private static final PaletteCache GLOBAL = new PaletteCache(DEFAULT_SIZE);
+
+	private final Map<Key, CompiledPalette> entries;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param size - number of palettes to keep
+	 */
+	public PaletteCache(int size) {
+		entries = new LinkedHashMap<Key, CompiledPalette>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CompiledPalette> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * @return the cache every conversion uses
+	 */
+	public static PaletteCache global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Returns the request's palette, reading and compiling it only if it isn't cached.
+	 * @param req - request with an ASCII or binary palette method
+	 * @throws ConversionException if the palette has to be read and can't be
+	 */
+	public CompiledPalette get(ConversionRequest req) throws ConversionException {
+		Key key = keyFor(req);
+		if (key != null) {
+			CompiledPalette ret;
+			synchronized (entries) {
+				ret = entries.get(key);
+			}
+			if (ret != null) {
+				hits.increment();
+				return ret;
+			}
+		}
+
+		misses.increment();
+		CompiledPalette ret = new CompiledPalette(SpriteConverter.readPalette(req, null, null));
+		if (key != null) {
+			synchronized (entries) {
+				entries.put(key, ret);
+			}
+		}
+		return ret;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Drops every palette and sets the counters back to 0.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * @return key for the request's palette, or {@code null} if the file can't be looked at;
+	 * reading it will report why
+	 */
+	private static Key keyFor(ConversionRequest req) {
+		String name = req.getPalettePath();
+		if (req.getPaletteData() != null) {
+			// only the extension says how to parse contents
+			int dot = name.lastIndexOf('.');
+			String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+			return new Key(req.getPalMethod(), ext, 0, 0, req.getPaletteData());
+		}
+
+		try {
+			Path p = Paths.get(name).toAbsolutePath().normalize();
+			BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+			if (!attrs.isRegularFile()) {
+				return null;
+			}
+			return new Key(req.getPalMethod(), p.toString(), attrs.lastModifiedTime().toMillis(),
+					attrs.size(), null);
+		} catch (IOException|RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static final class Key {
+		private final int palMethod;
+		private final String name;
+		private final long modified;
+		private final long size;
+		private final byte[] data;
+		private final int hash;
+
+		Key(int palMethod, String name, long modified, long size, byte[] data) {
+			this.palMethod = palMethod;
+			this.name = name;
+			this.modified = modified;
+			this.size = size;
+			this.data = data;
+			this.hash = ((palMethod * 31 + name.hashCode()) * 31 + Long.hashCode(modified ^ size)) * 31 +
+					Arrays.hashCode(data);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return hash == k.hash && palMethod == k.palMethod && modified == k.modified && size == k.size &&
+					name.equals(k.name) && Arrays.equals(data, k.data);
+		}
+	}
+}
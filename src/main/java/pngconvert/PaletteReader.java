@@ -0,0 +1,584 @@
+package pngconvert;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Palette readers for every palette method {@link SpriteConverter} supports.
+ * <br><br>
+ * All readers return 66 colors packed as {@code 0xRRGGBB} (see {@link Colors}):
+ * the 4 mail palettes (green, blue, red, bunny) followed by the 2 gloves colors.
+ */
+public final class PaletteReader {
+	// offsets used by palette trickery to store gloves colors
+	static final int[] GLOVE_PAL_INDICES = new int[] { 16, 32 };
+
+	private PaletteReader() {}
+
+	/**
+	 * Reads a palette file, picking the format from its extension:
+	 * Paint.NET for {@code .txt}, Photoshop swatches for {@code .ase} and {@code .aco},
+	 * and GIMP or Graphics Gale for anything else.
+	 * @param name - name of the palette file
+	 * @param data - contents of the palette file
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if fewer than 16 colors are found or the file isn't the format it claims
+	 */
+	public static int[] palFromFile(String name, byte[] data) throws PNGException {
+		int dot = name.lastIndexOf('.');
+		String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+		switch (ext) {
+			case "txt" :
+				return palFromPaintNET(data);
+			case "ase" :
+				return palFromASE(data);
+			case "aco" :
+				return palFromACO(data);
+			default :
+				return palFromText(data);
+		}
+	}
+
+	/**
+	 * Reads a GIMP ({@code .gpl}) or Graphics Gale ({@code .pal}) palette file for colors.
+	 * <br><br>
+	 * This function first finds as many colors as it can from the palette.
+	 * Once the palette is fully read, the number of colors recognized is
+	 * rounded down to the nearest multiple of 16.
+	 * Each multiple of 16 represents one of Link's mail palettes
+	 * (green, blue, red, bunny).
+	 * If fewer than 4 palettes are found, any empty palette is copied from green mail.
+	 *
+	 * @param pal - Palette to read
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws ShortPaletteException Halts the process if enough colors are not found.
+	 * @see #palFromText(byte[])
+	 */
+	public static int[] getPaletteColorsFromFile(BufferedReader pal)
+			throws NumberFormatException, IOException, PNGException {
+		return palFromText(readAll(pal));
+	}
+
+	/**
+	 * Same as {@link #getPaletteColorsFromFile(BufferedReader)}, straight from the file contents.
+	 * <br><br>
+	 * Every line whose numbers (after trimming) make up at least 3 fields is a color,
+	 * exactly as if the line were split around everything that isn't a digit:
+	 * a line that starts with anything else has an empty first field, which reads as -1.
+	 * The file is scanned once, byte by byte, without making any strings.
+	 * @param data - contents of the palette file
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if fewer than 16 colors are found
+	 */
+	public static int[] palFromText(byte[] data) throws PNGException {
+		int[] ret = new int[64];
+		int[] fields = new int[3];
+		int pali = 0;
+		int i = 0;
+		int n = data.length;
+
+		while (i < n && pali < 64) {
+			// trim the start of the line
+			while (i < n && isBlank(data[i]) && !isLineEnd(data[i])) {
+				i++;
+			}
+
+			int count = 0;
+			if (i < n && !isLineEnd(data[i]) && !isDigit(data[i])) {
+				// split gives an empty field before the first number
+				count = 1;
+				fields[0] = -1;
+			}
+
+			// numbers of the line, up to 3
+			int numbers = 0;
+			while (i < n && !isLineEnd(data[i])) {
+				if (!isDigit(data[i])) {
+					i++;
+					continue;
+				}
+				long v = 0;
+				while (i < n && isDigit(data[i])) {
+					if (v <= Integer.MAX_VALUE) {
+						v = v * 10 + (data[i] - '0');
+					}
+					i++;
+				}
+				numbers++;
+				if (count < 3) {
+					// too big for an int reads as -1
+					fields[count++] = v > Integer.MAX_VALUE ? -1 : (int) v;
+				}
+			}
+
+			if (numbers > 0 && count >= 3) {
+				ret[pali++] = Colors.rgb(fields[0], fields[1], fields[2]);
+			}
+			i = nextLine(data, i);
+		}
+
+		return normalize(ret, pali);
+	}
+
+	/**
+	 * Reads a Paint.NET palette ({@code .txt}) for colors.
+	 * This method must be separate as Paint.NET uses HEX values to write colors.
+	 * <br><br>
+	 * This function firsts find as many colors as it can from the palette.
+	 * Once the palette is fully read, the number of colors recognized is
+	 * rounded down to the nearest multiple of 16.
+	 * Each multiple of 16 represents one of Link's mail palettes
+	 * (green, blue, red, bunny).
+	 * If fewer than 4 palettes are found, any empty palette is copied from green mail.
+	 *
+	 * @param pal - Palette to read
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws ShortPaletteException Halts the process if enough colors are not found.
+	 * @see #palFromPaintNET(byte[])
+	 */
+	public static int[] getPaletteColorsFromPaintNET(BufferedReader pal)
+			throws NumberFormatException, IOException, PNGException {
+		return palFromPaintNET(readAll(pal));
+	}
+
+	/**
+	 * Same as {@link #getPaletteColorsFromPaintNET(BufferedReader)}, straight from the file contents.
+	 * Colors are lines of exactly 8 hex digits, {@code AARRGGBB}; everything else is skipped.
+	 * @param data - contents of the palette file
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if fewer than 16 colors are found
+	 */
+	public static int[] palFromPaintNET(byte[] data) throws PNGException {
+		int[] ret = new int[64];
+		int pali = 0;
+		int i = 0;
+		int n = data.length;
+
+		while (i < n && pali < 64) {
+			int end = i;
+			int argb = 0;
+			boolean hex = true;
+			while (end < n && !isLineEnd(data[end])) {
+				int d = hexDigit(data[end]);
+				hex &= d >= 0;
+				argb = argb << 4 | (d & 0xF);
+				end++;
+			}
+			if (hex && end - i == 8) {
+				ret[pali++] = argb & 0xFFFFFF;
+			}
+			i = nextLine(data, end);
+		}
+
+		// Paint.NET forces 96 colors, but normalize checks anyway
+		return normalize(ret, pali);
+	}
+
+	/**
+	 * Reads an Adobe Swatch Exchange ({@code .ase}) file for colors.
+	 * Swatches are read in order, skipping group markers, up to 64 of them.
+	 * RGB, CMYK and gray swatches are supported.
+	 * @param data - contents of the swatch file
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if it isn't a swatch file, has Lab colors or has fewer than 16 colors
+	 */
+	public static int[] palFromASE(byte[] data) throws PNGException {
+		if (data.length < 12 || data[0] != 'A' || data[1] != 'S' || data[2] != 'E' || data[3] != 'F') {
+			throw new PNGException("Not an Adobe Swatch Exchange file");
+		}
+
+		int[] ret = new int[64];
+		int pali = 0;
+		int blocks = readInt(data, 8);
+		int at = 12;
+		try {
+			for (int b = 0; b < blocks && pali < 64; b++) {
+				int type = readShort(data, at);
+				int length = readInt(data, at + 2);
+				int body = at + 6;
+				at = body + length;
+				if (length < 0 || at > data.length) {
+					throw new ArrayIndexOutOfBoundsException(at);
+				}
+				// colors only; groups just mark where they start and end
+				if (type != 0x0001) {
+					continue;
+				}
+
+				// name, in UTF-16 code units with a null
+				int model = body + 2 + readShort(data, body) * 2;
+				float v0 = readFloat(data, model + 4);
+				if (startsWith(data, model, "RGB ")) {
+					ret[pali++] = Colors.rgb(channel(v0), channel(readFloat(data, model + 8)),
+							channel(readFloat(data, model + 12)));
+				}
+				else if (startsWith(data, model, "CMYK")) {
+					ret[pali++] = cmyk(v0, readFloat(data, model + 8), readFloat(data, model + 12),
+							readFloat(data, model + 16));
+				}
+				else if (startsWith(data, model, "Gray")) {
+					int v = channel(v0);
+					ret[pali++] = Colors.rgb(v, v, v);
+				}
+				else {
+					throw new PNGException("Only RGB, CMYK and gray swatches are supported");
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new PNGException("Swatch file is cut short");
+		}
+
+		return normalize(ret, pali);
+	}
+
+	/**
+	 * Reads a Photoshop swatches ({@code .aco}) file for colors.
+	 * Both versions of the format are read; version 2 only adds names.
+	 * RGB, HSB, CMYK and grayscale swatches are supported.
+	 * @param data - contents of the swatch file
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if it isn't a swatch file, has Lab colors or has fewer than 16 colors
+	 */
+	public static int[] palFromACO(byte[] data) throws PNGException {
+		if (data.length < 4 || (readShort(data, 0) != 1 && readShort(data, 0) != 2)) {
+			throw new PNGException("Not a Photoshop swatches file");
+		}
+
+		int[] ret = new int[64];
+		int pali = 0;
+		int version = readShort(data, 0);
+		int count = readShort(data, 2);
+		int at = 4;
+		try {
+			for (int c = 0; c < count && pali < 64; c++, at += 10) {
+				int w = readShort(data, at + 2);
+				int x = readShort(data, at + 4);
+				int y = readShort(data, at + 6);
+				int z = readShort(data, at + 8);
+				switch (readShort(data, at)) {
+					case 0 : // RGB
+						ret[pali++] = Colors.rgb(Math.round(w / 257f), Math.round(x / 257f), Math.round(y / 257f));
+						break;
+					case 1 : // HSB
+						ret[pali++] = Color.HSBtoRGB(w / 65535f, x / 65535f, y / 65535f) & 0xFFFFFF;
+						break;
+					case 2 : // CMYK, 0 for full ink
+						ret[pali++] = cmyk(1 - w / 65535f, 1 - x / 65535f, 1 - y / 65535f, 1 - z / 65535f);
+						break;
+					case 8 : // gray, as ink from 0 to 10000
+						int v = channel(1 - w / 10000f);
+						ret[pali++] = Colors.rgb(v, v, v);
+						break;
+					default :
+						throw new PNGException("Only RGB, HSB, CMYK and grayscale swatches are supported");
+				}
+				if (version == 2) {
+					// name length in UTF-16 code units, after 2 bytes of 0
+					at += 4 + readInt(data, at + 10) * 2;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new PNGException("Swatch file is cut short");
+		}
+
+		return normalize(ret, pali);
+	}
+
+	/**
+	 * Turns the colors read from a palette into the 4 mails plus gloves, the same way for every reader.
+	 * The number of colors is rounded down to the nearest multiple of 16
+	 * and any missing mail palette is copied from green mail.
+	 * @param colors - 64 colors as {@code 0xRRGGBB}; only the first {@code count} are used
+	 * @param count - number of colors read
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if fewer than 16 colors were read
+	 */
+	static int[] normalize(int[] colors, int count) throws PNGException {
+		// short palettes throw an error
+		if (count < 16) {
+			throw new PNGException("Only " + count + " colors were found.\n" +
+					"At least 16 colors are required.");
+		}
+
+		// truncate long palettes
+		int pali = Math.min(16 * (count / 16), 64);
+		int[] ret = new int[64];
+		for (int i = 0; i < 64; i++) {
+			ret[i] = colors[i < pali ? i : i % 16];
+		}
+
+		// add gloves colors
+		return addGlovesToRGBPal(ret);
+	}
+
+	/**
+	 * Extracts palette colors from last 8x8 block of the image.
+	 * Each row of this 8x8 block represents one-half of a mail palette.
+	 * Row 1 contains green mail's colors 0x0&ndash;0x7;
+	 * row 2 contains green mail's colors 0x8&ndash;0xF; etc.
+	 * <br><br>
+	 * If any pixel of the latter 3 mails matches the color at {0,0}
+	 * (green mail's transparent pixel),
+	 * it will be replaced with the corresponding color at green mail for that palette's index.
+	 * This is done as an attempt to completely fill out all 64 colors of the palette.
+	 * <br><br>
+	 * After all 64 colors are filled, gloves colors will be added from the eventually unused
+	 * indices 16 and 32.
+	 * @param pixels - image raster, assumed ABGR
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 */
+	public static int[] palExtract(byte[] pixels) {
+		int[] ret = new int[64];
+		int pali = 0;
+		int startAt = (128 * 448 - 8) - (128 * 7);
+		int endAt = startAt + (8 * 128);
+		byte b1 = pixels[startAt*4+1];
+		byte g1 = pixels[startAt*4+2];
+		byte r1 = pixels[startAt*4+3];
+		for (int i = startAt; i < endAt; i+= 128) {
+			for (int j = 0; j < 8; j++) {
+				int k = i + j;
+				ret[pali] = Colors.fromABGR(pixels, k);
+				pali++;
+				// remove the 8x8 block by setting it to green mail trans
+				pixels[k*4+1] = b1;
+				pixels[k*4+2] = g1;
+				pixels[k*4+3] = r1;
+			}
+		}
+
+		// fill out the palette by removing empty indices
+		for (int i = 16; i < 64; i++) {
+			if (ret[i] == ret[0])
+				ret[i] = ret[i%16];
+		}
+
+		// add gloves colors
+		ret = addGlovesToRGBPal(ret);
+
+		return ret;
+	}
+
+	/**
+	 * Reads the palette (PLTE) of an indexed PNG for colors.
+	 * <br><br>
+	 * Colors are treated just like those of a palette file:
+	 * the number of colors is rounded down to the nearest multiple of 16,
+	 * and any missing mail palette is copied from green mail.
+	 *
+	 * @param plte - palette entries as ARGB
+	 * @param size - number of entries
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 * @throws PNGException if fewer than 16 colors are found
+	 */
+	public static int[] palFromPLTE(int[] plte, int size) throws PNGException {
+		int pali = Math.min(size, 64);
+		int[] ret = new int[64];
+		for (int i = 0; i < pali; i++) {
+			ret[i] = plte[i] & 0xFFFFFF;
+		}
+		return normalize(ret, pali);
+	}
+
+	/**
+	 * Same as {@link #palExtract(byte[])}, for indexed sheets.
+	 * The colors of the last 8x8 block are rounded just like the raster they would have come from,
+	 * and the block is removed by pointing it at the index of its first pixel.
+	 * @param indices - palette index of every pixel
+	 * @param plte - palette entries as ARGB
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 */
+	public static int[] palExtractIndexed(byte[] indices, int[] plte) {
+		int[] ret = new int[64];
+		int pali = 0;
+		int startAt = (128 * 448 - 8) - (128 * 7);
+		int endAt = startAt + (8 * 128);
+		byte trans = indices[startAt];
+		for (int i = startAt; i < endAt; i+= 128) {
+			for (int j = 0; j < 8; j++) {
+				int k = i + j;
+				ret[pali] = plte[indices[k] & 0xFF] & 0xFFFFFF;
+				pali++;
+				// remove the 8x8 block by setting it to green mail trans
+				indices[k] = trans;
+			}
+		}
+		ret = Colors.roundPalette(ret);
+
+		// fill out the palette by removing empty indices
+		for (int i = 16; i < 64; i++) {
+			if (ret[i] == ret[0])
+				ret[i] = ret[i%16];
+		}
+
+		// add gloves colors
+		ret = addGlovesToRGBPal(ret);
+
+		return ret;
+	}
+
+	public static int[] palFromBinary(byte[] pal) {
+		int[] ret = new int[64];
+		for (int i = 0; i < 64; i++) {
+			int pos = (i * 3);
+			ret[i] = Colors.rgb(pal[pos], pal[pos+1], pal[pos+2]);
+		}
+
+		// add gloves colors
+		ret = addGlovesToRGBPal(ret);
+
+		return ret;
+	}
+
+	/**
+	 * Reads a sprite's SNES palette data back into colors.
+	 * <br><br>
+	 * The data holds the 15 visible colors of each mail, as written by {@code getPalDataFromArray};
+	 * each channel comes back as a multiple of 8.
+	 * Transparent colors aren't stored, so entries 0 and 48 are left 0
+	 * and entries 16 and 32 take the gloves colors, as palette files have them.
+	 * @param palData - 120 bytes of SNES palette data
+	 * @param gloves - 4 bytes of SNES gloves colors, or {@code null}
+	 * @return {@code int[]} of 66 colors as {@code 0xRRGGBB}
+	 */
+	public static int[] palFromSNES(byte[] palData, byte[] gloves) {
+		int[] ret = new int[64];
+		for (int i = 0, o = 0; i < 64 && o + 1 < palData.length; i++) {
+			if (i % 16 == 0) {
+				continue;
+			}
+			ret[i] = snesColor(palData[o], palData[o + 1]);
+			o += 2;
+		}
+
+		if (gloves != null) {
+			for (int i = 0; i < GLOVE_PAL_INDICES.length && i * 2 + 1 < gloves.length; i++) {
+				ret[GLOVE_PAL_INDICES[i]] = snesColor(gloves[i * 2], gloves[i * 2 + 1]);
+			}
+		}
+
+		// add gloves colors
+		ret = addGlovesToRGBPal(ret);
+
+		return ret;
+	}
+
+	/**
+	 * @return little endian 15-bit BGR color as {@code 0xRRGGBB}
+	 */
+	private static int snesColor(byte lo, byte hi) {
+		int c = (lo & 0xFF) | (hi & 0xFF) << 8;
+		return Colors.rgb((c & 0x1F) << 3, ((c >> 5) & 0x1F) << 3, ((c >> 10) & 0x1F) << 3);
+	}
+
+	public static int[] addGlovesToRGBPal(int[] pal) {
+		int[] ret = new int[66];
+		// clone most of the 64 length array
+		for (int i = 0; i < 64; i++) {
+			ret[i] = pal[i];
+		}
+
+		// set gloves colors using transparent indices of 2nd and 3rd mail palettes
+		for (int i = 0; i < GLOVE_PAL_INDICES.length; i++) {
+			if (ret[GLOVE_PAL_INDICES[i]] != 0) {
+				ret[64+i] = ret[GLOVE_PAL_INDICES[i]];
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * @return everything left in the reader, as UTF-8
+	 */
+	private static byte[] readAll(BufferedReader pal) throws IOException {
+		StringBuilder ret = new StringBuilder(2048);
+		char[] buf = new char[2048];
+		int n;
+		while ((n = pal.read(buf)) >= 0) {
+			ret.append(buf, 0, n);
+		}
+		return ret.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return position after the line break that ends the line at {@code i}
+	 */
+	private static int nextLine(byte[] data, int i) {
+		while (i < data.length && !isLineEnd(data[i])) {
+			i++;
+		}
+		if (i < data.length) {
+			// \r\n is one break
+			if (data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n') {
+				i++;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isLineEnd(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	// same as String.trim
+	private static boolean isBlank(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static int hexDigit(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a color channel from 0 to 1 as a byte value
+	 */
+	private static int channel(float v) {
+		return Math.max(0, Math.min(255, Math.round(v * 255)));
+	}
+
+	/**
+	 * @return CMYK inks from 0 to 1 as {@code 0xRRGGBB}
+	 */
+	private static int cmyk(float c, float m, float y, float k) {
+		return Colors.rgb(channel((1 - c) * (1 - k)), channel((1 - m) * (1 - k)), channel((1 - y) * (1 - k)));
+	}
+
+	private static boolean startsWith(byte[] data, int at, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (data[at + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// swatch files are big endian
+	private static int readShort(byte[] b, int at) {
+		return (b[at] & 0xFF) << 8 | (b[at + 1] & 0xFF);
+	}
+
+	private static int readInt(byte[] b, int at) {
+		return readShort(b, at) << 16 | readShort(b, at + 2);
+	}
+
+	private static float readFloat(byte[] b, int at) {
+		return Float.intBitsToFloat(readInt(b, at));
+	}
+}
@@ -0,0 +1,259 @@
+package pngconvert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import pngconvert.Metrics.Stage;
+import spritemanipulator.SpriteManipulator;
+import spritemanipulator.ZSPRFile;
+
+/**
+ * Converts one sheet with many palettes at once, for publishing a sprite in several palette variants.
+ * <br><br>
+ * The sheet is read, decoded and rounded a single time by {@link ConversionContext#decodeSheet(ConversionRequest)};
+ * every palette then only indexes that raster, packs it and writes its own sprite file, spread over all cores.
+ * Workers only read the raster, so they all share the one copy.
+ */
+public class PaletteVariants {
+	private static final int PIXELS = SheetDecoder.WIDTH * SheetDecoder.HEIGHT;
+
+	private final int threads;
+
+	/**
+	 * @param threads - number of workers; 0 or less to use every core
+	 */
+	public PaletteVariants(int threads) {
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Converts {@code pixels} once per request and waits for all of them to finish.
+	 * @param pixels - rounded raster from {@link ConversionContext#decodeSheet(ConversionRequest)};
+	 * only read, so it is shared by every worker
+	 * @param reqs - one per variant, each with a palette file method, its palette, names and target;
+	 * the image path is only used to label results
+	 * @return one result per variant, with the time spent on it
+	 */
+	public BatchSummary convertAll(byte[] pixels, List<ConversionRequest> reqs) throws InterruptedException {
+		BatchSummary summary = new BatchSummary();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		summary.start();
+		try {
+			for (ConversionRequest req : reqs) {
+				pool.execute(() -> {
+					long start = System.nanoTime();
+					try {
+						summary.add(run(pixels, req));
+					} catch (RuntimeException e) {
+						summary.add(SpriteConverter.counted(ConversionResult.unexpected(req.getImagePath(),
+								req.getTarget(), e, System.nanoTime() - start)));
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			summary.finish();
+		}
+
+		return summary;
+	}
+
+	/**
+	 * Converts an already decoded sheet with the request's palette file and writes it.
+	 * Never throws; failures are reported in the result.
+	 * @param pixels - rounded ABGR raster; not modified
+	 * @param req - request with an ASCII or binary palette method
+	 */
+	public static ConversionResult run(byte[] pixels, ConversionRequest req) {
+		long start = System.nanoTime();
+		String loc = SpriteConverter.resolveTarget(req);
+		try {
+			SpriteData spr = convert(pixels, req);
+			SpriteConverter.write(spr, loc, req.isAtomicWrite());
+			if (!req.getPreviews().equals("")) {
+				SpriteConverter.writePreviews(spr, req.getPreviews());
+			}
+			return SpriteConverter.counted(ConversionResult.success(req.getImagePath(), loc,
+					SpriteConverter.isROMTarget(loc), System.nanoTime() - start));
+		} catch (ConversionException e) {
+			return SpriteConverter.counted(ConversionResult.failure(req.getImagePath(), loc, e,
+					System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * Converts an already decoded sheet with the request's palette file, without writing anything.
+	 * @param pixels - rounded ABGR raster; not modified
+	 * @param req - request with an ASCII or binary palette method
+	 * @return the converted sprite, with buffers of its own
+	 */
+	public static SpriteData convert(byte[] pixels, ConversionRequest req) throws ConversionException {
+		CompiledPalette palette = req.getCompiledPalette();
+		if (palette == null) {
+			palette = SpriteConverter.compilePalette(req);
+		}
+
+		Metrics m = Metrics.global();
+		long t = Metrics.start();
+		byte[] tiles = new byte[PIXELS];
+		if (!palette.indexTiles(pixels, tiles)) {
+			// some color isn't in green mail; leave it to SpriteManipulator
+			ConversionContext.flatten(SpriteManipulator.indexAnd8x8(pixels, palette.getDecimalColors()), tiles);
+		}
+		m.time(Stage.INDEX, t);
+
+		t = Metrics.start();
+		byte[] sprite = new byte[PIXELS / TilePacker.BLOCK_PIXELS * TilePacker.BLOCK_BYTES];
+		TilePacker.pack(tiles, sprite);
+		m.time(Stage.PACK, t);
+
+		SpriteData ret = new SpriteData(sprite, palette.getPalData(), palette.getGlovesData());
+		ret.setSpriteName(req.getSpriteName());
+		ret.setAuthorName(req.getAuthorName());
+		ret.setAuthorNameROM(req.getAuthorNameROM());
+		return ret;
+	}
+
+	/**
+	 * @param image - sheet being converted
+	 * @param palette - palette file of the variant
+	 * @param outDir - directory to write to; blank for next to the sheet
+	 * @return {@code <image> (<palette>).zspr}
+	 */
+	static String targetFor(String image, Path palette, String outDir) {
+		String name = new File(image).getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		String pal = palette.getFileName().toString();
+		dot = pal.lastIndexOf('.');
+		if (dot > 0) {
+			pal = pal.substring(0, dot);
+		}
+		name += " (" + pal + ")." + ZSPRFile.EXTENSION;
+
+		if (outDir.equals("")) {
+			File parent = new File(image).getParentFile();
+			return parent == null ? name : new File(parent, name).getPath();
+		}
+		return new File(outDir, name).getPath();
+	}
+
+	// Summary
+	// Palette variant command line usage:
+	// imgSrc: Full path for image
+	// variantSrc: Directory of palette files, or a glob such as palettes/*.gpl
+	// palOption (optional): 0 for palette files (default), 1 for binary YY-CHR .PAL files
+	// outDir (optional): Directory to write to. Defaults to next to the image.
+	// spriteName, authorName, authorNameROM (optional): Meta data for every variant.
+	// threads (optional): Number of workers. Defaults to one per core.
+	// Returns True if every variant was written.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> values = new HashMap<String, String>();
+		boolean argumentErrorsFound = !BatchConverter.parseArgs(args, values, "imgSrc", "variantSrc", "palOption",
+				"outDir", "spriteName", "authorName", "authorNameROM", "threads");
+
+		String imgSrc = values.getOrDefault("imgSrc", "");
+		String variantSrc = values.getOrDefault("variantSrc", "");
+		String outDir = values.getOrDefault("outDir", "");
+		String spriteName = values.getOrDefault("spriteName", "");
+		String authorName = values.getOrDefault("authorName", "");
+		String authorNameROM = values.getOrDefault("authorNameROM", "");
+
+		int palOption = SpriteConverter.PAL_ASCII;
+		if (values.containsKey("palOption")) {
+			palOption = BatchConverter.parseNumber(values.get("palOption"), -1);
+			if (palOption != SpriteConverter.PAL_ASCII && palOption != SpriteConverter.PAL_BINARY) {
+				System.out.println("The palOption: " + values.get("palOption") + " is not a palette file method (0 or 1).");
+				argumentErrorsFound = true;
+			}
+		}
+
+		int threads = BatchConverter.parseThreads(values.get("threads"));
+		if (threads < 0) {
+			argumentErrorsFound = true;
+		}
+
+		if (imgSrc.equals("")) {
+			System.out.println("No source image was specified or was not specified correctly.");
+			argumentErrorsFound = true;
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		List<Path> palettes;
+		try {
+			palettes = palOption == SpriteConverter.PAL_BINARY ?
+					BatchConverter.findFiles(variantSrc, "pal") :
+					BatchConverter.findFiles(variantSrc, SpriteConverter.PALETTEEXTS);
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+			return false;
+		}
+
+		if (palettes.isEmpty()) {
+			System.out.println("No palettes found for: " + variantSrc);
+			return false;
+		}
+
+		if (!outDir.equals("")) {
+			new File(outDir).mkdirs();
+		}
+
+		// decode once
+		long start = System.nanoTime();
+		byte[] pixels;
+		try {
+			pixels = ConversionContext.local().decodeSheet(new ConversionRequest(imgSrc, palOption, ""));
+		} catch (ConversionException e) {
+			System.out.println("ERROR: " + e.getMessage());
+			return false;
+		}
+		System.out.println(String.format("Decoded %s in %.1f ms", imgSrc, (System.nanoTime() - start) / 1e6));
+
+		List<ConversionRequest> reqs = new ArrayList<ConversionRequest>(palettes.size());
+		for (Path pal : palettes) {
+			ConversionRequest req = new ConversionRequest(imgSrc, palOption, pal.toString());
+			req.setTarget(targetFor(imgSrc, pal, outDir));
+			req.setSpriteName(spriteName);
+			req.setAuthorName(authorName);
+			req.setAuthorNameROM(authorNameROM);
+			reqs.add(req);
+		}
+
+		BatchSummary summary;
+		try {
+			summary = new PaletteVariants(threads).convertAll(pixels, reqs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		List<ConversionResult> results = new ArrayList<ConversionResult>(summary.getResults());
+		results.sort(Comparator.comparing(ConversionResult::getTarget));
+		for (ConversionResult res : results) {
+			if (res.isSuccess()) {
+				System.out.println(String.format("  %s: %.2f ms", res.getTarget(), res.getNanos() / 1e6));
+			}
+			else {
+				System.out.println("  " + res.getTarget() + ": " + res.getError().getMessage());
+			}
+		}
+		summary.print(System.out, "Converted", "variants");
+
+		return summary.getFailed() == 0;
+	}
+}
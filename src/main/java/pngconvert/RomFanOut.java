@@ -0,0 +1,186 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import pngconvert.ConversionException.Failure;
+
+/**
+ * Patches one converted sprite into many ROMs at once.
+ * <br><br>
+ * The sheet is converted a single time; every ROM then only has its header checked
+ * and the sprite's regions written in place by {@link RomPatcher}, spread over all cores.
+ * At most two ROMs per worker are queued at once, as in {@link BatchConverter}.
+ */
+public class RomFanOut {
+	private final int threads;
+
+	/**
+	 * @param threads - number of workers; 0 or less to use every core
+	 */
+	public RomFanOut(int threads) {
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Patches {@code spr} into every ROM and waits for all of them to finish.
+	 * ROMs whose header doesn't check out are left untouched.
+	 * @param spr - sprite to patch in; only read, so it is shared by every worker
+	 * @param source - where the sprite came from, for the results
+	 * @param roms - ROMs to patch
+	 * @return one result per ROM, with the time spent on it
+	 */
+	public BatchSummary patchAll(SpriteData spr, String source, List<Path> roms) throws InterruptedException {
+		BatchSummary summary = new BatchSummary();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore slots = new Semaphore(threads * 2);
+
+		summary.start();
+		try {
+			for (Path rom : roms) {
+				slots.acquire();
+				pool.execute(() -> {
+					long start = System.nanoTime();
+					try {
+						summary.add(patch(spr, source, rom));
+					} catch (RuntimeException e) {
+						summary.add(ConversionResult.unexpected(source, rom.toString(), e, System.nanoTime() - start));
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			summary.finish();
+		}
+
+		return summary;
+	}
+
+	private static ConversionResult patch(SpriteData spr, String source, Path rom) {
+		long start = System.nanoTime();
+		String loc = rom.toString();
+		try {
+			try {
+				RomPatcher.verify(rom);
+			} catch (IOException e) {
+				throw new ConversionException(Failure.WRITE, "Error reading ROM", e);
+			} catch (PNGException e) {
+				throw new ConversionException(Failure.ROM_FORMAT, e.getMessage(), e);
+			}
+			SpriteConverter.patch(spr, loc);
+			return ConversionResult.success(source, loc, true, System.nanoTime() - start);
+		} catch (ConversionException e) {
+			return ConversionResult.failure(source, loc, e, System.nanoTime() - start);
+		}
+	}
+
+	// Summary
+	// Multi-ROM command line usage:
+	// imgSrc: Full path for image
+	// palOption: as for single conversions
+	// palSrc (Used if method 0 or 1 is selected): Full path for palette file.
+	// romSrc: Directory of ROMs, or a glob such as seeds/*.sfc
+	// sprTarget (optional): Sprite file to write as well.
+	// threads (optional): Number of workers. Defaults to one per core.
+	// Returns True if every ROM was patched.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> values = new HashMap<String, String>();
+		boolean argumentErrorsFound = !BatchConverter.parseArgs(args, values,
+				"imgSrc", "palOption", "palSrc", "romSrc", "sprTarget", "threads");
+
+		String imgSrc = values.getOrDefault("imgSrc", "");
+		String palSrc = values.getOrDefault("palSrc", "");
+		String romSrc = values.getOrDefault("romSrc", "");
+		String sprTarget = values.getOrDefault("sprTarget", "");
+
+		int palOption = -1;
+		if (values.containsKey("palOption")) {
+			palOption = BatchConverter.parseNumber(values.get("palOption"), -1);
+			if (palOption < 0 || palOption >= SpriteConverter.PAL_METHOD_COUNT) {
+				System.out.println("The palOption: " + values.get("palOption") + " is out of range.");
+				argumentErrorsFound = true;
+			}
+		}
+
+		int threads = BatchConverter.parseThreads(values.get("threads"));
+		if (threads < 0) {
+			argumentErrorsFound = true;
+		}
+
+		if (imgSrc.equals("")) {
+			System.out.println("No source image was specified or was not specified correctly.");
+			argumentErrorsFound = true;
+		}
+
+		if (palOption < 0) {
+			System.out.println("No palette option was specified.");
+			argumentErrorsFound = true;
+		}
+
+		if (palSrc.equals("") && (palOption == 0 || palOption == 1)) {
+			System.out.println("No palette source was specified despite using a palette method that requires it.");
+			argumentErrorsFound = true;
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		List<Path> roms;
+		try {
+			roms = BatchConverter.findFiles(romSrc, "sfc");
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+			return false;
+		}
+
+		if (roms.isEmpty()) {
+			System.out.println("No ROMs found for: " + romSrc);
+			return false;
+		}
+
+		// convert once
+		long start = System.nanoTime();
+		SpriteData spr;
+		try {
+			spr = SpriteConverter.convert(new ConversionRequest(imgSrc, palOption, palSrc));
+			if (!sprTarget.equals("")) {
+				SpriteConverter.write(spr, sprTarget);
+			}
+		} catch (ConversionException e) {
+			System.out.println("ERROR: " + e.getMessage());
+			return false;
+		}
+		System.out.println(String.format("Converted %s in %.1f ms", imgSrc, (System.nanoTime() - start) / 1e6));
+
+		BatchSummary summary;
+		try {
+			summary = new RomFanOut(threads).patchAll(spr, imgSrc, roms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		List<ConversionResult> results = new ArrayList<ConversionResult>(summary.getResults());
+		results.sort(Comparator.comparing(ConversionResult::getTarget));
+		for (ConversionResult res : results) {
+			if (res.isSuccess()) {
+				System.out.println(String.format("  %s: %.2f ms", res.getTarget(), res.getNanos() / 1e6));
+			}
+		}
+		summary.print(System.out, "Patched", "ROMs");
+
+		return summary.getFailed() == 0;
+	}
+}
@@ -0,0 +1,201 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Patches a sprite into an ALttP ROM in place.
+ * <br><br>
+ * Only the regions that change are mapped and written: the sprite graphics, the mail palettes,
+ * the gloves colors and the checksum in the internal header.
+ * The checksum is updated by the difference between the old and new bytes,
+ * so the rest of the ROM is never read.
+ * ROMs with a 512-byte copier header are recognized by their size and patched past the header.
+ */
+public final class RomPatcher {
+	// PC offsets in an unheadered ROM
+	public static final int SPRITE_OFFSET = 0x80000;
+	public static final int SPRITE_SIZE = 0x7000;
+	public static final int PALETTE_OFFSET = 0xDD308;
+	public static final int PALETTE_SIZE = 120;
+	public static final int GLOVES_OFFSET = 0xDEDF5;
+	public static final int GLOVES_SIZE = 4;
+
+	// LoROM internal header
+	static final int HEADER_OFFSET = 0x7FC0;
+	static final int HEADER_SIZE = 0x20;
+	private static final int MAP_MODE = 0x15;
+	private static final int COMPLEMENT = 0x1C;
+	private static final int CHECKSUM = 0x1E;
+
+	static final int COPIER_HEADER = 0x200;
+
+	// smallest ROM holding every patched region
+	static final int MIN_SIZE = GLOVES_OFFSET + GLOVES_SIZE;
+
+	private RomPatcher() {}
+
+	/**
+	 * @see #patch(Path, SpriteData)
+	 */
+	public static void patch(String rom, SpriteData spr) throws IOException, PNGException {
+		patch(Paths.get(rom), spr);
+	}
+
+	/**
+	 * Writes a sprite's graphics, palette and gloves into a ROM and fixes its checksum.
+	 * @param rom - {@code .sfc} file to patch
+	 * @param spr - sprite to patch in; sprites without a palette or gloves leave the ROM's alone
+	 * @throws PNGException if the file is too small to be an ALttP ROM
+	 */
+	public static void patch(Path rom, SpriteData spr) throws IOException, PNGException {
+		try (FileChannel ch = FileChannel.open(rom, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = ch.size();
+			int base = copierHeader(size);
+			if (size - base < MIN_SIZE) {
+				throw new PNGException("Not an ALttP ROM: " + rom.getFileName());
+			}
+
+			int delta = 0;
+			delta += write(ch, base + SPRITE_OFFSET, spr.getSprite(), SPRITE_SIZE);
+			if (spr.getPalette() != null && spr.getPalette().length >= PALETTE_SIZE) {
+				delta += write(ch, base + PALETTE_OFFSET, spr.getPalette(), PALETTE_SIZE);
+			}
+			if (spr.getGloves() != null && spr.getGloves().length >= GLOVES_SIZE) {
+				delta += write(ch, base + GLOVES_OFFSET, spr.getGloves(), GLOVES_SIZE);
+			}
+
+			if (isPowerOfTwo(size - base)) {
+				MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_WRITE, base + HEADER_OFFSET, HEADER_SIZE);
+				header.order(ByteOrder.LITTLE_ENDIAN);
+				int checksum = (header.getShort(CHECKSUM) + delta) & 0xFFFF;
+				header.putShort(COMPLEMENT, (short) (checksum ^ 0xFFFF));
+				header.putShort(CHECKSUM, (short) checksum);
+				header.force();
+			}
+			else {
+				// mirrored ROMs count some banks more than once; just add everything up again
+				fixChecksum(ch, base, size - base);
+			}
+		}
+	}
+
+	/**
+	 * Reads the sprite currently in a ROM.
+	 * @param rom - {@code .sfc} file to read
+	 * @return the ROM's sprite graphics, palette and gloves, without names
+	 * @throws PNGException if the file is too small to be an ALttP ROM
+	 */
+	public static SpriteData read(Path rom) throws IOException, PNGException {
+		try (FileChannel ch = FileChannel.open(rom, StandardOpenOption.READ)) {
+			long size = ch.size();
+			int base = copierHeader(size);
+			if (size - base < MIN_SIZE) {
+				throw new PNGException("Not an ALttP ROM: " + rom.getFileName());
+			}
+			return new SpriteData(
+					read(ch, base + SPRITE_OFFSET, SPRITE_SIZE),
+					read(ch, base + PALETTE_OFFSET, PALETTE_SIZE),
+					read(ch, base + GLOVES_OFFSET, GLOVES_SIZE));
+		}
+	}
+
+	/**
+	 * Checks that a file looks like an ALttP ROM this patcher can handle:
+	 * big enough to hold the sprite, a LoROM internal header
+	 * and a checksum that agrees with its complement.
+	 * @param rom - {@code .sfc} file to check
+	 * @throws PNGException describing the first problem found
+	 */
+	public static void verify(Path rom) throws IOException, PNGException {
+		try (FileChannel ch = FileChannel.open(rom, StandardOpenOption.READ)) {
+			long size = ch.size();
+			int base = copierHeader(size);
+			if (size - base < MIN_SIZE) {
+				throw new PNGException("Not an ALttP ROM: " + rom.getFileName());
+			}
+
+			MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, base + HEADER_OFFSET, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			// 0x20 or 0x30: LoROM, slow or fast
+			int mode = header.get(MAP_MODE) & 0xEF;
+			if (mode != 0x20) {
+				throw new PNGException("Not a LoROM header: " + rom.getFileName());
+			}
+			int checksum = header.getShort(CHECKSUM) & 0xFFFF;
+			int complement = header.getShort(COMPLEMENT) & 0xFFFF;
+			if ((checksum ^ complement) != 0xFFFF) {
+				throw new PNGException("Checksum and complement don't match: " + rom.getFileName());
+			}
+		}
+	}
+
+	/**
+	 * @return size of the copier header of a ROM of {@code size} bytes; 0 if it has none
+	 */
+	static int copierHeader(long size) {
+		return size % 0x400 == COPIER_HEADER ? COPIER_HEADER : 0;
+	}
+
+	/**
+	 * Overwrites {@code len} bytes of the ROM with the start of {@code data}.
+	 * @return change to the ROM's byte sum
+	 */
+	private static int write(FileChannel ch, long at, byte[] data, int len) throws IOException {
+		MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, at, len);
+		int delta = 0;
+		for (int i = 0; i < len; i++) {
+			delta += (data[i] & 0xFF) - (buf.get(i) & 0xFF);
+			buf.put(i, data[i]);
+		}
+		buf.force();
+		return delta;
+	}
+
+	private static byte[] read(FileChannel ch, long at, int len) throws IOException {
+		byte[] ret = new byte[len];
+		ch.map(FileChannel.MapMode.READ_ONLY, at, len).get(ret);
+		return ret;
+	}
+
+	/**
+	 * Recomputes the checksum of a ROM whose size isn't a power of two.
+	 * The part past the largest power of two is mirrored to fill it, as the SNES sees it.
+	 */
+	private static void fixChecksum(FileChannel ch, int base, long size) throws IOException {
+		MappedByteBuffer rom = ch.map(FileChannel.MapMode.READ_WRITE, base, size);
+		rom.order(ByteOrder.LITTLE_ENDIAN);
+
+		// checksum and complement always add up to 0x1FE
+		rom.putShort(HEADER_OFFSET + COMPLEMENT, (short) 0xFFFF);
+		rom.putShort(HEADER_OFFSET + CHECKSUM, (short) 0);
+
+		long main = Long.highestOneBit(size);
+		long rest = size - main;
+		int sum = sum(rom, 0, main);
+		if (rest > 0) {
+			sum += sum(rom, main, size) * (int) (main / rest);
+		}
+		int checksum = sum & 0xFFFF;
+		rom.putShort(HEADER_OFFSET + COMPLEMENT, (short) (checksum ^ 0xFFFF));
+		rom.putShort(HEADER_OFFSET + CHECKSUM, (short) checksum);
+		rom.force();
+	}
+
+	private static int sum(MappedByteBuffer rom, long from, long to) {
+		int ret = 0;
+		for (int i = (int) from; i < to; i++) {
+			ret += rom.get(i) & 0xFF;
+		}
+		return ret;
+	}
+
+	private static boolean isPowerOfTwo(long n) {
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+}
@@ -0,0 +1,455 @@
+package pngconvert;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes 128x448 PNG sprite sheets straight into an ABGR raster.
+ * <br><br>
+ * {@code ImageIO.read}, {@code convertToABGR} and {@code getImageRaster} allocate the sheet
+ * three times over. This decoder inflates the IDAT stream scanline by scanline into one raster
+ * it keeps between sheets, laid out exactly like {@code SpriteManipulator.getImageRaster}
+ * (alpha, blue, green, red).
+ * <br><br>
+ * Only the variants sprite sheets are actually saved as are handled:
+ * non-interlaced 8-bit RGB and RGBA, and palette-indexed images of any bit depth.
+ * For anything else (other dimensions, grayscale, 16-bit, interlacing, ICC profiles,
+ * color-key transparency, partially transparent pixels) {@link #decode(byte[])} returns {@code false}
+ * and the caller should fall back to {@code ImageIO}.
+ * Fully transparent pixels come out as all zeroes, the same as through {@code convertToABGR}.
+ * <br><br>
+ * Palette-indexed sheets additionally keep their index bytes and palette,
+ * so they can be turned into tiles without matching colors at all.
+ * <br><br>
+ * {@link #decode(byte[], int, RowSink, boolean)} hands each row over as soon as it is unfiltered instead,
+ * without ever building the whole raster.
+ * <br><br>
+ * Either way, rows can be rounded as {@code roundRaster} would while they are still in cache,
+ * so the raster never has to be walked a second time just to round it.
+ * <br><br>
+ * Instances are not thread-safe; use {@link #local()} to get one per thread.
+ */
+public class SheetDecoder {
+	public static final int WIDTH = 128;
+	public static final int HEIGHT = 448;
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	// chunk types
+	private static final int IHDR = 0x49484452;
+	private static final int PLTE = 0x504C5445;
+	private static final int TRNS = 0x74524E53;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454E44;
+	private static final int ICCP = 0x69434350;
+
+	// color types
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_INDEXED = 3;
+	private static final int COLOR_RGBA = 6;
+
+	private static final ThreadLocal<SheetDecoder> LOCAL = ThreadLocal.withInitial(SheetDecoder::new);
+
+	private final Inflater inflater = new Inflater();
+
+	// whole sheet; only allocated once a sheet is decoded without a sink
+	private byte[] raster;
+	private byte[] indices;
+
+	// single row handed to a sink
+	private final byte[] rowRaster = new byte[WIDTH * 4];
+	private final byte[] rowIndices = new byte[WIDTH];
+	private RowSink sink;
+	private boolean round;
+
+	// scanlines are at most 4 bytes per pixel plus the filter byte
+	private byte[] cur = new byte[WIDTH * 4 + 1];
+	private byte[] prev = new byte[WIDTH * 4 + 1];
+
+	// PLTE and tRNS of indexed images, as ARGB
+	private final int[] palette = new int[256];
+	private int paletteSize;
+
+	/**
+	 * Receives a sheet row by row as it is decoded.
+	 */
+	public interface RowSink {
+		/**
+		 * @param y - row of the sheet, from the top
+		 * @param abgr - the row as ABGR; only valid until this method returns
+		 * @param indices - palette index of each pixel of an indexed sheet, else {@code null};
+		 * only valid until this method returns
+		 * @return {@code false} to stop decoding
+		 */
+		boolean row(int y, byte[] abgr, byte[] indices);
+	}
+
+	private int colorType;
+	private int bitDepth;
+	private boolean translucent;
+
+	/**
+	 * @return this thread's decoder
+	 */
+	public static SheetDecoder local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Decodes a PNG file.
+	 * @param png - contents of the PNG file
+	 * @return {@code true} if the sheet was decoded into {@link #getRaster()};
+	 * {@code false} if it is not a 128x448 PNG this decoder handles
+	 */
+	public boolean decode(byte[] png) {
+		return decode(png, png.length);
+	}
+
+	/**
+	 * Decodes a PNG file held at the start of a larger buffer.
+	 * @param png - buffer holding the PNG file
+	 * @param length - size of the PNG file
+	 * @return same as {@link #decode(byte[])}
+	 */
+	public boolean decode(byte[] png, int length) {
+		return decode(png, length, false);
+	}
+
+	/**
+	 * Decodes a PNG file held at the start of a larger buffer.
+	 * @param png - buffer holding the PNG file
+	 * @param length - size of the PNG file
+	 * @param round - {@code true} to round the raster with {@link Colors#roundRaster(byte[], int, byte[], int, int)}
+	 * row by row as it is decoded; the palette and indices are left as they are
+	 * @return same as {@link #decode(byte[])}
+	 */
+	public boolean decode(byte[] png, int length, boolean round) {
+		if (raster == null) {
+			raster = new byte[WIDTH * HEIGHT * 4];
+			indices = new byte[WIDTH * HEIGHT];
+		}
+		return decode(png, length, null, round);
+	}
+
+	/**
+	 * Decodes a PNG file, handing every row to {@code sink} instead of building the raster.
+	 * <br><br>
+	 * The palette of an indexed sheet is known by the time the first row arrives.
+	 * Rows are handed over before the whole file has been checked,
+	 * so whatever the sink built is only good if this returns {@code true}.
+	 * @param png - buffer holding the PNG file
+	 * @param length - size of the PNG file
+	 * @param sink - receives the rows; {@code null} to build the raster
+	 * @param round - {@code true} to round each row before handing it over
+	 * @return {@code true} if every row was decoded and accepted by the sink;
+	 * {@code false} if the sink stopped early or this is not a 128x448 PNG this decoder handles
+	 */
+	public boolean decode(byte[] png, int length, RowSink sink, boolean round) {
+		this.sink = sink;
+		this.round = round;
+		try {
+			return decodeChunks(png, length);
+		} catch (DataFormatException|ArrayIndexOutOfBoundsException e) {
+			// corrupt or truncated; let ImageIO produce the error
+			return false;
+		} finally {
+			this.sink = null;
+		}
+	}
+
+	/**
+	 * @return ABGR raster of the last decoded sheet; overwritten by the next call to {@link #decode(byte[])}
+	 * and left alone by decoding into a sink
+	 */
+	public byte[] getRaster() {
+		return raster;
+	}
+
+	/**
+	 * @return {@code true} if the last decoded sheet was palette-indexed
+	 */
+	public boolean isIndexed() {
+		return colorType == COLOR_INDEXED;
+	}
+
+	/**
+	 * @return one palette index per pixel of the last decoded indexed sheet, row by row;
+	 * overwritten by the next call to {@link #decode(byte[])}
+	 */
+	public byte[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * @return PLTE of the last decoded indexed sheet as ARGB, with tRNS applied;
+	 * fully transparent entries are 0
+	 */
+	public int[] getPalette() {
+		return palette;
+	}
+
+	/**
+	 * @return number of PLTE entries of the last decoded indexed sheet
+	 */
+	public int getPaletteSize() {
+		return paletteSize;
+	}
+
+	private boolean decodeChunks(byte[] png, int length) throws DataFormatException {
+		if (length < SIGNATURE.length) {
+			return false;
+		}
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (png[i] != SIGNATURE[i]) {
+				return false;
+			}
+		}
+
+		inflater.reset();
+		colorType = -1;
+		paletteSize = 0;
+		translucent = false;
+		int rowBytes = 0;
+		int y = 0;
+		int filled = 0;
+		boolean seenHeader = false;
+		int pos = SIGNATURE.length;
+
+		while (pos + 8 <= length) {
+			int len = readInt(png, pos);
+			int type = readInt(png, pos + 4);
+			int data = pos + 8;
+			if (len < 0 || data + len > length) {
+				return false;
+			}
+
+			switch (type) {
+				case IHDR :
+					if (!readHeader(png, data, len)) {
+						return false;
+					}
+					rowBytes = (WIDTH * bitDepth * channels() + 7) / 8 + 1;
+					Arrays.fill(prev, 0, rowBytes, (byte) 0);
+					seenHeader = true;
+					break;
+				case PLTE :
+					paletteSize = Math.min(len / 3, 256);
+					for (int i = 0; i < paletteSize; i++) {
+						int o = data + i * 3;
+						palette[i] = 0xFF000000 | (png[o] & 0xFF) << 16 | (png[o + 1] & 0xFF) << 8 | (png[o + 2] & 0xFF);
+					}
+					break;
+				case TRNS :
+					// color-key transparency of truecolor images is left to ImageIO
+					if (colorType != COLOR_INDEXED) {
+						return false;
+					}
+					for (int i = 0; i < len && i < paletteSize; i++) {
+						int alpha = png[data + i] & 0xFF;
+						palette[i] = alpha == 0 ? 0 : (palette[i] & 0x00FFFFFF) | alpha << 24;
+					}
+					break;
+				case ICCP :
+					return false;
+				case IDAT :
+					if (!seenHeader || (colorType == COLOR_INDEXED && paletteSize == 0)) {
+						return false;
+					}
+					inflater.setInput(png, data, len);
+					while (y < HEIGHT) {
+						int n = inflater.inflate(cur, filled, rowBytes - filled);
+						filled += n;
+						if (filled == rowBytes) {
+							if (!unfilter(rowBytes)) {
+								return false;
+							}
+							if (!writeRow(y)) {
+								return false;
+							}
+							byte[] swap = prev;
+							prev = cur;
+							cur = swap;
+							filled = 0;
+							y++;
+						}
+						else if (n == 0) {
+							if (inflater.needsInput() || inflater.finished()) {
+								break;
+							}
+							if (inflater.needsDictionary()) {
+								return false;
+							}
+						}
+					}
+					break;
+				case IEND :
+					return y == HEIGHT && !translucent;
+				default :
+					break;
+			}
+			pos = data + len + 4; // skip CRC
+		}
+
+		return y == HEIGHT && !translucent;
+	}
+
+	/**
+	 * Reads IHDR and decides whether this decoder can handle the image.
+	 */
+	private boolean readHeader(byte[] png, int at, int len) {
+		if (len < 13) {
+			return false;
+		}
+		int w = readInt(png, at);
+		int h = readInt(png, at + 4);
+		bitDepth = png[at + 8] & 0xFF;
+		colorType = png[at + 9] & 0xFF;
+		int compression = png[at + 10];
+		int filter = png[at + 11];
+		int interlace = png[at + 12];
+
+		if (w != WIDTH || h != HEIGHT || compression != 0 || filter != 0 || interlace != 0) {
+			return false;
+		}
+
+		switch (colorType) {
+			case COLOR_RGB :
+			case COLOR_RGBA :
+				return bitDepth == 8;
+			case COLOR_INDEXED :
+				return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+			default :
+				return false;
+		}
+	}
+
+	private int channels() {
+		switch (colorType) {
+			case COLOR_RGB :
+				return 3;
+			case COLOR_RGBA :
+				return 4;
+			default :
+				return 1;
+		}
+	}
+
+	/**
+	 * Reverses the scanline filter of {@code cur} in place.
+	 */
+	private boolean unfilter(int rowBytes) {
+		int bpp = Math.max(1, bitDepth * channels() / 8);
+		switch (cur[0]) {
+			case 0 : // none
+				break;
+			case 1 : // sub
+				for (int i = 1 + bpp; i < rowBytes; i++) {
+					cur[i] += cur[i - bpp];
+				}
+				break;
+			case 2 : // up
+				for (int i = 1; i < rowBytes; i++) {
+					cur[i] += prev[i];
+				}
+				break;
+			case 3 : // average
+				for (int i = 1; i < rowBytes; i++) {
+					int left = i > bpp ? cur[i - bpp] & 0xFF : 0;
+					cur[i] += (left + (prev[i] & 0xFF)) >>> 1;
+				}
+				break;
+			case 4 : // paeth
+				for (int i = 1; i < rowBytes; i++) {
+					int a = i > bpp ? cur[i - bpp] & 0xFF : 0;
+					int b = prev[i] & 0xFF;
+					int c = i > bpp ? prev[i - bpp] & 0xFF : 0;
+					int p = a + b - c;
+					int pa = Math.abs(p - a);
+					int pb = Math.abs(p - b);
+					int pc = Math.abs(p - c);
+					cur[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+				}
+				break;
+			default :
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Expands the unfiltered scanline in {@code cur} into row {@code y} of the raster,
+	 * or hands it to the sink.
+	 * @return {@code false} if the sink stopped decoding
+	 */
+	private boolean writeRow(int y) {
+		if (sink == null) {
+			int o = y * WIDTH * 4;
+			expandRow(raster, o, indices, y * WIDTH);
+			if (round) {
+				Colors.roundRaster(raster, o, raster, o, WIDTH * 4);
+			}
+			return true;
+		}
+		expandRow(rowRaster, 0, rowIndices, 0);
+		if (round) {
+			Colors.roundRaster(rowRaster, 0, rowRaster, 0, WIDTH * 4);
+		}
+		return sink.row(y, rowRaster, colorType == COLOR_INDEXED ? rowIndices : null);
+	}
+
+	/**
+	 * Expands the unfiltered scanline in {@code cur}.
+	 * @param raster - buffer for the ABGR row, starting at {@code o}
+	 * @param indices - buffer for the palette indices of an indexed row, starting at {@code row}
+	 */
+	private void expandRow(byte[] raster, int o, byte[] indices, int row) {
+		switch (colorType) {
+			case COLOR_RGB :
+				for (int x = 0, i = 1; x < WIDTH; x++, i += 3, o += 4) {
+					raster[o] = (byte) 0xFF;
+					raster[o + 1] = cur[i + 2];
+					raster[o + 2] = cur[i + 1];
+					raster[o + 3] = cur[i];
+				}
+				break;
+			case COLOR_RGBA :
+				for (int x = 0, i = 1; x < WIDTH; x++, i += 4, o += 4) {
+					byte alpha = cur[i + 3];
+					if (alpha == 0) {
+						raster[o] = 0;
+						raster[o + 1] = 0;
+						raster[o + 2] = 0;
+						raster[o + 3] = 0;
+						continue;
+					}
+					translucent |= alpha != (byte) 0xFF;
+					raster[o] = alpha;
+					raster[o + 1] = cur[i + 2];
+					raster[o + 2] = cur[i + 1];
+					raster[o + 3] = cur[i];
+				}
+				break;
+			default :
+				int perByte = 8 / bitDepth;
+				int mask = (1 << bitDepth) - 1;
+				for (int x = 0; x < WIDTH; x++, o += 4) {
+					int shift = 8 - bitDepth * (x % perByte + 1);
+					int index = ((cur[1 + x / perByte] & 0xFF) >>> shift) & mask;
+					indices[row + x] = (byte) index;
+					int argb = index < paletteSize ? palette[index] : 0xFF000000;
+					int alpha = argb >>> 24;
+					translucent |= alpha != 0 && alpha != 0xFF;
+					raster[o] = (byte) alpha;
+					raster[o + 1] = (byte) argb;
+					raster[o + 2] = (byte) (argb >>> 8);
+					raster[o + 3] = (byte) (argb >>> 16);
+				}
+				break;
+		}
+	}
+
+	private static int readInt(byte[] b, int at) {
+		return (b[at] & 0xFF) << 24 | (b[at + 1] & 0xFF) << 16 | (b[at + 2] & 0xFF) << 8 | (b[at + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,143 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 128x448 sprite sheets as 8-bit palette-indexed PNGs.
+ * <br><br>
+ * The counterpart of {@link SheetDecoder}: only the one kind of PNG it needs, with no {@code ImageIO}
+ * and no {@code BufferedImage}. Rows are stored unfiltered, which suits indexed images best.
+ * <br><br>
+ * Compressing the pixels and writing the file are separate steps:
+ * {@link #compress(byte[])} once, then {@link #write(OutputStream, int[], int, boolean)}
+ * with as many palettes as needed, each of which only costs a PLTE chunk.
+ * <br><br>
+ * Instances are not thread-safe; use {@link #local()} to get one per thread.
+ */
+public class SheetEncoder {
+	public static final int WIDTH = SheetDecoder.WIDTH;
+	public static final int HEIGHT = SheetDecoder.HEIGHT;
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	// chunk types
+	private static final int IHDR = 0x49484452;
+	private static final int PLTE = 0x504C5445;
+	private static final int TRNS = 0x74524E53;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454E44;
+
+	private static final int COLOR_INDEXED = 3;
+
+	private static final ThreadLocal<SheetEncoder> LOCAL = ThreadLocal.withInitial(SheetEncoder::new);
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final CRC32 crc = new CRC32();
+
+	// filter byte and indices of every row
+	private final byte[] raw = new byte[HEIGHT * (WIDTH + 1)];
+	private final byte[] chunk = new byte[256 * 3];
+	private final byte[] head = new byte[8];
+
+	// compressed rows; grows to fit
+	private byte[] idat = new byte[32 * 1024];
+	private int idatLength;
+
+	/**
+	 * @return this thread's encoder
+	 */
+	public static SheetEncoder local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Compresses a sheet for the next calls to {@link #write(OutputStream, int[], int, boolean)}.
+	 * @param indices - palette index of every pixel, row by row
+	 */
+	public void compress(byte[] indices) {
+		for (int y = 0; y < HEIGHT; y++) {
+			// filter type 0
+			raw[y * (WIDTH + 1)] = 0;
+			System.arraycopy(indices, y * WIDTH, raw, y * (WIDTH + 1) + 1, WIDTH);
+		}
+
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		idatLength = 0;
+		while (!deflater.finished()) {
+			if (idatLength == idat.length) {
+				byte[] bigger = new byte[idat.length * 2];
+				System.arraycopy(idat, 0, bigger, 0, idatLength);
+				idat = bigger;
+			}
+			idatLength += deflater.deflate(idat, idatLength, idat.length - idatLength);
+		}
+	}
+
+	/**
+	 * Writes the last compressed sheet as a PNG.
+	 * @param out - where to write the file
+	 * @param colors - palette as {@code 0xRRGGBB}
+	 * @param count - number of palette entries to write, at most 256
+	 * @param transparentZero - {@code true} to make entry 0 fully transparent
+	 */
+	public void write(OutputStream out, int[] colors, int count, boolean transparentZero) throws IOException {
+		out.write(SIGNATURE);
+
+		writeInt(chunk, 0, WIDTH);
+		writeInt(chunk, 4, HEIGHT);
+		chunk[8] = 8; // bit depth
+		chunk[9] = COLOR_INDEXED;
+		chunk[10] = 0; // deflate
+		chunk[11] = 0; // adaptive filtering
+		chunk[12] = 0; // not interlaced
+		writeChunk(out, IHDR, chunk, 0, 13);
+
+		for (int i = 0; i < count; i++) {
+			chunk[i * 3] = (byte) Colors.red(colors[i]);
+			chunk[i * 3 + 1] = (byte) Colors.green(colors[i]);
+			chunk[i * 3 + 2] = (byte) Colors.blue(colors[i]);
+		}
+		writeChunk(out, PLTE, chunk, 0, count * 3);
+
+		if (transparentZero) {
+			chunk[0] = 0;
+			writeChunk(out, TRNS, chunk, 0, 1);
+		}
+
+		writeChunk(out, IDAT, idat, 0, idatLength);
+		writeChunk(out, IEND, chunk, 0, 0);
+	}
+
+	/**
+	 * @return size of the file {@link #write(OutputStream, int[], int, boolean)} would write
+	 */
+	public int size(int count, boolean transparentZero) {
+		return SIGNATURE.length + (12 + 13) + (12 + count * 3) + (transparentZero ? 12 + 1 : 0) +
+				(12 + idatLength) + 12;
+	}
+
+	private void writeChunk(OutputStream out, int type, byte[] data, int off, int len) throws IOException {
+		writeInt(head, 0, len);
+		writeInt(head, 4, type);
+		crc.reset();
+		crc.update(head, 4, 4);
+		crc.update(data, off, len);
+
+		out.write(head);
+		out.write(data, off, len);
+		writeInt(head, 0, (int) crc.getValue());
+		out.write(head, 0, 4);
+	}
+
+	private static void writeInt(byte[] b, int at, int v) {
+		b[at] = (byte) (v >>> 24);
+		b[at + 1] = (byte) (v >>> 16);
+		b[at + 2] = (byte) (v >>> 8);
+		b[at + 3] = (byte) v;
+	}
+}
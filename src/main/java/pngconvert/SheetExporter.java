@@ -0,0 +1,388 @@
+package pngconvert;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import pngconvert.ConversionException.Failure;
+import spritemanipulator.ZSPRFile;
+
+/**
+ * Turns sprite files and ROMs back into 128x448 sheets.
+ * <br><br>
+ * The 4BPP graphics are unpacked into the 8x8 blocks {@code export8x8ToSPR} packed them from,
+ * and the palette is drawn into the last 8x8 block the way {@link PaletteReader#palExtract(byte[])} reads it:
+ * row {@code k} of the block holds colors {@code k*8} to {@code k*8+7}, with the gloves colors
+ * at indices 16 and 32. Converting the sheet again with either palette option 2 or 3 gives back
+ * the same sprite, except for the last block, which the palette takes the place of.
+ * <br><br>
+ * Sheets are written as indexed PNGs by {@link SheetEncoder}; entry 0 is a color no mail uses,
+ * black and marked fully transparent whenever black is free.
+ * <br><br>
+ * Batch runs also use this to write {@linkplain #writePreviews(SpriteData, String) previews}
+ * of each sprite they convert, straight from its 4BPP graphics rather than decoding the sheet again.
+ * <br><br>
+ * Instances are not thread-safe; use {@link #local()} to get one per thread.
+ */
+public class SheetExporter {
+	public static final String SUFFIX = " (exported)";
+	public static final String[] MAILS = { "green", "blue", "red", "bunny" };
+
+	private static final int WIDTH = SheetEncoder.WIDTH;
+	private static final int HEIGHT = SheetEncoder.HEIGHT;
+	private static final int PALETTE_COLORS = 64;
+
+	// transparent colors to try, in order
+	private static final int[] TRANSPARENT = { 0x000000, 0xF800F8, 0x00F800, 0xF8F800 };
+
+	private static final ThreadLocal<SheetExporter> LOCAL = ThreadLocal.withInitial(SheetExporter::new);
+
+	private final byte[] tiles = new byte[WIDTH * HEIGHT];
+	private final byte[] indices = new byte[WIDTH * HEIGHT];
+	private final int[] plte = new int[PALETTE_COLORS];
+
+	/**
+	 * @return this thread's exporter
+	 */
+	public static SheetExporter local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Writes a sprite as a sheet.
+	 * @param spr - sprite to export; without a palette, the mails are shades of gray
+	 * @param out - where to write the PNG
+	 */
+	public void write(SpriteData spr, OutputStream out) throws IOException {
+		toRows(spr.getSprite());
+
+		// palette strip
+		int at = (HEIGHT - 8) * WIDTH + WIDTH - 8;
+		for (int r = 0; r < 8; r++) {
+			for (int c = 0; c < 8; c++) {
+				indices[at + r * WIDTH + c] = (byte) (r * 8 + c);
+			}
+		}
+
+		// sheets read as raster lose the colors of transparent pixels, so only black can be transparent
+		int trans = setPalette(spr);
+		SheetEncoder enc = SheetEncoder.local();
+		enc.compress(indices);
+		enc.write(out, plte, PALETTE_COLORS, trans == 0);
+	}
+
+	/**
+	 * Writes a preview of a sprite in each of the 4 mails, named {@code <prefix>.<mail>.png}.
+	 * <br><br>
+	 * The pixels are compressed once; the previews only differ in their PLTE,
+	 * which holds the 16 colors of that mail with the first one transparent.
+	 * There's no palette strip, so previews show the sprite as it looks in game.
+	 * @param spr - converted sprite; without a palette, every mail is shades of gray
+	 * @param prefix - path and start of the name of each preview
+	 * @return bytes written
+	 */
+	public int writePreviews(SpriteData spr, String prefix) throws IOException {
+		toRows(spr.getSprite());
+		int[] colors = colors(spr);
+
+		SheetEncoder enc = SheetEncoder.local();
+		enc.compress(indices);
+		for (int m = 0; m < MAILS.length; m++) {
+			System.arraycopy(colors, m * 16, plte, 0, 16);
+			plte[0] = 0;
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(previewFor(prefix, m)),
+					enc.size(16, true))) {
+				enc.write(out, plte, 16, true);
+			}
+		}
+		return enc.size(16, true) * MAILS.length;
+	}
+
+	/**
+	 * @param prefix - as given to {@link #writePreviews(SpriteData, String)}
+	 * @param mail - index into {@link #MAILS}
+	 * @return the preview of that mail
+	 */
+	public static Path previewFor(String prefix, int mail) {
+		return Paths.get(prefix + "." + MAILS[mail] + ".png");
+	}
+
+	/**
+	 * @return {@code true} if every preview with this prefix exists
+	 */
+	public static boolean previewsExist(String prefix) {
+		for (int m = 0; m < MAILS.length; m++) {
+			if (!Files.isRegularFile(previewFor(prefix, m))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Unpacks 4BPP graphics into {@link #indices}, row by row.
+	 */
+	private void toRows(byte[] sprite) {
+		TilePacker.unpack(sprite, tiles);
+		for (int y = 0; y < HEIGHT; y++) {
+			int t = (y / 8) * WIDTH * 8 + (y % 8) * 8;
+			for (int x = 0; x < WIDTH; x += 8) {
+				System.arraycopy(tiles, t + x * 8, indices, y * WIDTH + x, 8);
+			}
+		}
+	}
+
+	/**
+	 * Writes a sprite as a sheet.
+	 * @param spr - sprite to export
+	 * @return the PNG file
+	 */
+	public byte[] toPNG(SpriteData spr) {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(32 * 1024);
+		try {
+			write(spr, ret);
+		} catch (IOException e) {
+			// not from memory
+			throw new IllegalStateException(e);
+		}
+		return ret.toByteArray();
+	}
+
+	/**
+	 * Fills the PNG palette: the 4 mails, gloves at 16 and 32, and a transparent color
+	 * in every slot that no pixel of the sprite can use.
+	 * @return the transparent color
+	 */
+	private int setPalette(SpriteData spr) {
+		int[] colors = colors(spr);
+
+		int trans = TRANSPARENT[TRANSPARENT.length - 1];
+		for (int t : TRANSPARENT) {
+			if (!usesColor(colors, spr.getGloves() != null, t)) {
+				trans = t;
+				break;
+			}
+		}
+
+		System.arraycopy(colors, 0, plte, 0, PALETTE_COLORS);
+		for (int i = 0; i < PALETTE_COLORS; i += 16) {
+			plte[i] = trans;
+		}
+		if (spr.getGloves() != null) {
+			for (int i : PaletteReader.GLOVE_PAL_INDICES) {
+				plte[i] = colors[i];
+			}
+		}
+		return trans;
+	}
+
+	/**
+	 * @return the 4 mails as {@code 0xRRGGBB}, or shades of gray if the sprite has no palette
+	 */
+	private static int[] colors(SpriteData spr) {
+		if (spr.getPalette() != null) {
+			return PaletteReader.palFromSNES(spr.getPalette(), spr.getGloves());
+		}
+		int[] ret = new int[PALETTE_COLORS];
+		for (int i = 0; i < PALETTE_COLORS; i++) {
+			int v = (i % 16) * 16;
+			ret[i] = Colors.rgb(v, v, v);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return {@code true} if any mail color or gloves color is {@code rgb}
+	 */
+	private static boolean usesColor(int[] colors, boolean gloves, int rgb) {
+		for (int i = 0; i < PALETTE_COLORS; i++) {
+			if (colors[i] != rgb) {
+				continue;
+			}
+			if (i % 16 != 0) {
+				return true;
+			}
+			if (gloves && i != 0 && i != 48) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sheet written for {@code spr} when no name is given:
+	 * next to it, or below {@code outDir} at its path relative to {@code base},
+	 * named so it never replaces the sheet the sprite was made from
+	 */
+	static Path targetFor(Path spr, Path base, String outDir) {
+		String name = SpriteConverter.changeExtension(spr.getFileName().toString(), "png");
+		name = name.substring(0, name.length() - ".png".length()) + SUFFIX + ".png";
+		Path dir = BatchConverter.outputDir(spr, base, outDir);
+		return dir == null ? Paths.get(name) : dir.resolve(name);
+	}
+
+	/**
+	 * Exports one sprite.
+	 * @param spr - sprite file or ROM
+	 * @param target - sheet to write
+	 */
+	public static ConversionResult export(Path spr, Path target) {
+		long start = System.nanoTime();
+		String source = spr.toString();
+		try {
+			SpriteData data;
+			try {
+				data = SpriteData.read(spr);
+			} catch (IOException e) {
+				throw new ConversionException(Failure.SPRITE_READ, "Error reading sprite", e);
+			} catch (PNGException e) {
+				throw new ConversionException(Failure.SPRITE_READ, e.getMessage(), e);
+			}
+
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), 32 * 1024)) {
+				local().write(data, out);
+			} catch (IOException e) {
+				throw new ConversionException(Failure.WRITE, "Error writing sheet", e);
+			}
+			return ConversionResult.success(source, target.toString(), false, System.nanoTime() - start);
+		} catch (ConversionException e) {
+			return ConversionResult.failure(source, target.toString(), e, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Exports every sprite, spread over all cores, and waits for all of them to finish.
+	 * @param sprites - sprite files or ROMs
+	 * @param outDir - directory for the sheets; blank to write next to each sprite
+	 * @param threads - number of workers; 0 or less to use every core
+	 */
+	public static BatchSummary exportAll(List<Path> sprites, String outDir, int threads)
+			throws InterruptedException {
+		return exportAll(sprites, BatchConverter.commonDir(sprites), outDir, threads);
+	}
+
+	/**
+	 * Exports every sprite, spread over all cores, and waits for all of them to finish.
+	 * @param sprites - sprite files or ROMs
+	 * @param base - directory the sprites were found under; their directories below it are kept under {@code outDir}
+	 * @param outDir - directory for the sheets; blank to write next to each sprite
+	 * @param threads - number of workers; 0 or less to use every core
+	 */
+	public static BatchSummary exportAll(List<Path> sprites, Path base, String outDir, int threads)
+			throws InterruptedException {
+		int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		BatchSummary summary = new BatchSummary();
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		Semaphore slots = new Semaphore(workers * 2);
+
+		summary.start();
+		try {
+			for (Path spr : sprites) {
+				slots.acquire();
+				pool.execute(() -> {
+					long start = System.nanoTime();
+					try {
+						Path target = targetFor(spr, base, outDir);
+						BatchConverter.makeParentDirs(target.toString());
+						summary.add(export(spr, target));
+					} catch (RuntimeException e) {
+						summary.add(ConversionResult.unexpected(spr.toString(), "", e, System.nanoTime() - start));
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			summary.finish();
+		}
+
+		return summary;
+	}
+
+	// Summary
+	// Export command line usage:
+	// sprSrc: Sprite file or ROM, a directory of them, or a glob such as sprites/*.zspr
+	// pngTarget (optional, single sprite only): Sheet to write.
+	// outDir (optional): Directory for the sheets, keeping the directories of each sprite below sprSrc.
+	//   Defaults to next to each sprite, as "<name> (exported).png".
+	// threads (optional): Number of workers. Defaults to one per core.
+	// Returns True if every sprite was exported.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> values = new HashMap<String, String>();
+		boolean argumentErrorsFound = !BatchConverter.parseArgs(args, values, "sprSrc", "pngTarget", "outDir", "threads");
+
+		String sprSrc = values.getOrDefault("sprSrc", "");
+		String pngTarget = values.getOrDefault("pngTarget", "");
+		String outDir = values.getOrDefault("outDir", "");
+
+		int threads = BatchConverter.parseThreads(values.get("threads"));
+		if (threads < 0) {
+			argumentErrorsFound = true;
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		List<Path> sprites;
+		try {
+			sprites = BatchConverter.findFiles(sprSrc, ZSPRFile.EXTENSION, "spr", "sfc");
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+			return false;
+		}
+
+		if (sprites.isEmpty()) {
+			System.out.println("No sprites found for: " + sprSrc);
+			return false;
+		}
+
+		if (!pngTarget.equals("")) {
+			if (sprites.size() > 1) {
+				System.out.println("pngTarget can only be used with a single sprite.");
+				return false;
+			}
+			ConversionResult res = export(sprites.get(0), Paths.get(pngTarget));
+			if (!res.isSuccess()) {
+				System.out.println("ERROR: " + res.getError().getMessage());
+				return false;
+			}
+			System.out.println("Wrote " + pngTarget);
+			return true;
+		}
+
+		// link.zspr and link.spr, or two link.zspr in different directories, would share a sheet
+		Path base = BatchConverter.baseDir(sprSrc);
+		if (!BatchConverter.checkTargets(sprites, spr -> targetFor(spr, base, outDir).toString())) {
+			return false;
+		}
+
+		if (!outDir.equals("")) {
+			new File(outDir).mkdirs();
+		}
+
+		BatchSummary summary;
+		try {
+			summary = exportAll(sprites, base, outDir, threads);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		summary.print(System.out, "Exported", "sprites");
+
+		return summary.getFailed() == 0;
+	}
+}
@@ -0,0 +1,469 @@
+package pngconvert;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import pngconvert.ConversionException.Failure;
+import pngconvert.Metrics.Stage;
+import spritemanipulator.*;
+
+/**
+ * Headless PNG to ZSPR conversion engine.
+ * <br><br>
+ * Nothing in here touches Swing or shared state, so it can be used from the command line,
+ * from servers without a display and from several threads at once.
+ * Every problem is reported as a {@link ConversionException};
+ * it is up to the caller to show a dialog, print a line or count it.
+ */
+public final class SpriteConverter {
+	// accepted extensions
+	static final String[] IMAGEEXTS = { "png" }; // image import types
+	static final String[] PALETTEEXTS = { "gpl", "pal", "txt", "ase", "aco" }; // palette file import types
+	static final String[] EXPORTEXTS = { ZSPRFile.EXTENSION, "sfc" }; // export types
+
+	// palette reading methods
+	public static final int PAL_ASCII = 0; // .gpl, .pal or .txt
+	public static final int PAL_BINARY = 1; // YY-CHR .pal
+	public static final int PAL_EXTRACT = 2; // last 8x8 block of the image
+	public static final int PAL_PNG = 3; // PLTE of an indexed image
+	public static final int PAL_METHOD_COUNT = 4;
+
+	private SpriteConverter() {}
+
+	/**
+	 * Checks the file types of a request without reading anything.
+	 * All problems are returned at once so the user can fix them in one go.
+	 * @param req - request to check
+	 * @return every problem found; empty if the request looks fine
+	 */
+	public static List<ConversionException> validate(ConversionRequest req) {
+		List<ConversionException> ret = new ArrayList<ConversionException>();
+		String imgName = req.getImagePath();
+		String paletteName = req.getPalettePath();
+		int palChoice = req.getPalMethod();
+
+		// test image type
+		if (!SpriteManipulator.testFileType(imgName, IMAGEEXTS)) {
+			ret.add(new ConversionException(Failure.IMAGE_TYPE,
+					"Images must be one of the following types:\n" +
+							String.join(", ", IMAGEEXTS)));
+		}
+
+		// test palette type
+		if (!SpriteManipulator.testFileType(paletteName, PALETTEEXTS) &&
+				(palChoice != PAL_EXTRACT) && (palChoice != PAL_PNG)) {
+			if (paletteName.length() == 0) {
+				ret.add(new ConversionException(Failure.NO_PALETTE,
+						"No palette source was specified despite using a palette method that requires it"));
+			}
+			else {
+				ret.add(new ConversionException(Failure.PALETTE_TYPE,
+						"Palettes must be one of the following types:\n" +
+								String.join(", ", PALETTEEXTS)));
+			}
+		}
+
+		// only allow sprite/ROM files
+		String loc = req.getTarget();
+		if (!loc.equals("") && !SpriteManipulator.testFileType(loc, EXPORTEXTS) && loc.contains(".")) {
+			ret.add(new ConversionException(Failure.TARGET_TYPE,
+					"Export location must be one of the following types:\n" +
+							String.join(", ", EXPORTEXTS)));
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Works out where a request will be written.
+	 * A blank target becomes {@code <image> (exported).zspr};
+	 * a target without an extension gets {@code .zspr} appended.
+	 * @param req - request to resolve
+	 */
+	public static String resolveTarget(ConversionRequest req) {
+		String loc = req.getTarget();
+
+		// default name
+		if (loc.equals("")) {
+			loc = req.getImagePath();
+			try {
+				loc = loc.substring(0,loc.lastIndexOf("."));
+			} catch(StringIndexOutOfBoundsException e) {
+				loc = "oops";
+			} finally {
+				// still add extension here so that the user isn't fooled into thinking they need this field
+				loc += " (exported)." + ZSPRFile.EXTENSION;
+			}
+		}
+
+		if (!SpriteManipulator.testFileType(loc, EXPORTEXTS) && !loc.contains(".")) {
+			loc = loc + "." + ZSPRFile.EXTENSION;
+		}
+
+		return loc;
+	}
+
+	/**
+	 * @return {@code true} if {@code loc} is a ROM to patch rather than a sprite file to write
+	 */
+	public static boolean isROMTarget(String loc) {
+		return SpriteManipulator.testFileType(loc, "sfc");
+	}
+
+	/**
+	 * Converts a sheet without writing anything.
+	 * <br><br>
+	 * Conversions run in this thread's {@link ConversionContext};
+	 * the sprite returned is a copy that stays valid after the next conversion.
+	 * @param req - image, palette and meta data to use; the target is ignored
+	 * @return the converted sprite
+	 * @throws ConversionException the first problem found
+	 */
+	public static SpriteData convert(ConversionRequest req) throws ConversionException {
+		return ConversionContext.local().convert(req).copy();
+	}
+
+	/**
+	 * Writes a sprite file, or patches a ROM if {@code loc} is an {@code .sfc}.
+	 * @param spr - sprite to write
+	 * @param loc - {@code .zspr} or {@code .sfc} location
+	 */
+	public static void write(SpriteData spr, String loc) throws ConversionException {
+		write(spr, loc, false);
+	}
+
+	/**
+	 * Writes a sprite file, or patches a ROM if {@code loc} is an {@code .sfc}.
+	 * Sprite files are written by {@link ZSPRWriter} unless {@code -Dpngconvert.writer=spritemanipulator}
+	 * asks for {@code SpriteManipulator.writeSPRFile}.
+	 * @param spr - sprite to write
+	 * @param loc - {@code .zspr} or {@code .sfc} location
+	 * @param atomic - {@code true} to write sprite files to a temporary file and rename it into place
+	 */
+	public static void write(SpriteData spr, String loc, boolean atomic) throws ConversionException {
+		if (isROMTarget(loc)) {
+			patch(spr, loc);
+			return;
+		}
+		long t = Metrics.start();
+		try {
+			if (ZSPRWriter.GATHER) {
+				Metrics.global().addBytesWritten(ZSPRWriter.local().write(spr, Paths.get(loc), atomic));
+			}
+			else {
+				Metrics.global().addBytesWritten(ZSPRWriter.writeSPRFile(spr, Paths.get(loc), atomic));
+			}
+			Metrics.global().time(Stage.WRITE, t);
+		} catch (IOException e) {
+			throw new ConversionException(Failure.WRITE, "Error writing sprite", e);
+		} catch (ZSPRFormatException|PNGException e) {
+			throw new ConversionException(Failure.ZSPR_FORMAT, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return contents of the sprite file {@link #write(SpriteData, String)} would write
+	 * @throws ConversionException if the sprite can't be written
+	 */
+	public static byte[] toZSPR(SpriteData spr) throws ConversionException {
+		if (!ZSPRWriter.GATHER) {
+			try {
+				Path tmp = Files.createTempFile("pngto4bpp", "." + ZSPRFile.EXTENSION);
+				try {
+					write(spr, tmp.toString());
+					return Files.readAllBytes(tmp);
+				} finally {
+					Files.deleteIfExists(tmp);
+				}
+			} catch (IOException e) {
+				throw new ConversionException(Failure.WRITE, "Error writing sprite", e);
+			}
+		}
+
+		long t = Metrics.start();
+		try {
+			byte[] ret = ZSPRWriter.local().toBytes(spr);
+			Metrics.global().time(Stage.WRITE, t);
+			Metrics.global().addBytesWritten(ret.length);
+			return ret;
+		} catch (PNGException e) {
+			throw new ConversionException(Failure.ZSPR_FORMAT, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes a preview of the sprite in each mail.
+	 * @param spr - sprite to preview
+	 * @param prefix - see {@link SheetExporter#writePreviews(SpriteData, String)}
+	 */
+	public static void writePreviews(SpriteData spr, String prefix) throws ConversionException {
+		long t = Metrics.start();
+		try {
+			Metrics.global().addBytesWritten(SheetExporter.local().writePreviews(spr, prefix));
+			Metrics.global().time(Stage.PREVIEW, t);
+		} catch (IOException e) {
+			throw new ConversionException(Failure.WRITE, "Error writing previews", e);
+		}
+	}
+
+	/**
+	 * Patches a sprite into an existing ROM in place.
+	 * @param spr - sprite to patch in
+	 * @param rom - {@code .sfc} to patch
+	 */
+	public static void patch(SpriteData spr, String rom) throws ConversionException {
+		if (!new File(rom).isFile()) {
+			throw new ConversionException(Failure.ROM_NOT_FOUND, "ROM file not found");
+		}
+		long t = Metrics.start();
+		try {
+			RomPatcher.patch(rom, spr);
+			Metrics.global().time(Stage.PATCH, t);
+			Metrics.global().addBytesWritten(RomPatcher.SPRITE_SIZE + RomPatcher.PALETTE_SIZE +
+					(spr.getGloves() != null ? RomPatcher.GLOVES_SIZE : 0));
+		} catch (IOException e) {
+			throw new ConversionException(Failure.WRITE, "Error patching ROM", e);
+		} catch (PNGException e) {
+			throw new ConversionException(Failure.ROM_FORMAT, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Converts a sheet and writes it to the request's (resolved) target,
+	 * along with its previews if the request asks for them.
+	 * Never throws; failures are reported in the result.
+	 * @param req - request to run
+	 */
+	public static ConversionResult run(ConversionRequest req) {
+		long start = System.nanoTime();
+		String loc = resolveTarget(req);
+		try {
+			SpriteData spr = ConversionContext.local().convert(req);
+			write(spr, loc, req.isAtomicWrite());
+			if (!req.getPreviews().equals("")) {
+				writePreviews(spr, req.getPreviews());
+			}
+			return counted(ConversionResult.success(req.getImagePath(), loc, isROMTarget(loc),
+					System.nanoTime() - start));
+		} catch (ConversionException e) {
+			return counted(ConversionResult.failure(req.getImagePath(), loc, e, System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * Counts a result in the {@link Metrics}.
+	 * @return {@code res}
+	 */
+	static ConversionResult counted(ConversionResult res) {
+		Metrics.global().add(res);
+		return res;
+	}
+
+	/**
+	 * Reads an image {@link SheetDecoder} didn't handle and returns its ABGR raster.
+	 * @param data - buffer holding the image file
+	 * @param length - size of the image file
+	 */
+	static byte[] readImageRaster(byte[] data, int length) throws ConversionException {
+		// image file
+		long t = Metrics.start();
+		BufferedImage imgRead;
+		try {
+			imgRead = ImageIO.read(new ByteArrayInputStream(data, 0, length));
+		} catch (IOException e) {
+			throw new ConversionException(Failure.IMAGE_READ, "Error reading image", e);
+		}
+
+		if (imgRead == null) {
+			throw new ConversionException(Failure.IMAGE_READ, "Error reading image");
+		}
+		Metrics.global().time(Stage.DECODE, t);
+
+		// convert to RGB colorspace
+		t = Metrics.start();
+		BufferedImage img = SpriteManipulator.convertToABGR(imgRead);
+
+		try {
+			return getImageRaster(img);
+		} catch (PNGException e) {
+			throw new ConversionException(Failure.IMAGE_DIMENSIONS, e.getMessage(), e);
+		} finally {
+			Metrics.global().time(Stage.ABGR, t);
+		}
+	}
+
+	/**
+	 * Reads and compiles the palette of a request whose palette doesn't depend on the image,
+	 * so it can be shared by every sheet using the same palette file.
+	 * Palettes come from the {@link PaletteCache} when the file hasn't changed since it was last read.
+	 * @param req - request with an ASCII or binary palette method
+	 */
+	public static CompiledPalette compilePalette(ConversionRequest req) throws ConversionException {
+		if (req.getPalMethod() != PAL_ASCII && req.getPalMethod() != PAL_BINARY) {
+			throw new ConversionException(Failure.NO_PALETTE,
+					"Only palette files can be compiled ahead of time");
+		}
+		return PaletteCache.global().get(req);
+	}
+
+	/**
+	 * Reads the request's palette with the requested method.
+	 * @param pixels - rounded image raster; extraction removes the palette block from it
+	 * @param indexed - decoder holding the sheet if it is indexed, else {@code null}
+	 * @return 66 colors as {@code 0xRRGGBB}
+	 */
+	static int[] readPalette(ConversionRequest req, byte[] pixels, SheetDecoder indexed)
+			throws ConversionException {
+		return readPalette(req, pixels, indexed, null, 0);
+	}
+
+	/**
+	 * Same as {@link #readPalette(ConversionRequest, byte[], SheetDecoder)},
+	 * reading the palette of indexed PNGs the decoder doesn't handle from the image file.
+	 * @param png - image file if the decoder couldn't decode it, else {@code null}
+	 * @param length - bytes of {@code png} in use
+	 */
+	static int[] readPalette(ConversionRequest req, byte[] pixels, SheetDecoder indexed, byte[] png, int length)
+			throws ConversionException {
+		long t = Metrics.start();
+		try {
+			return parsePalette(req, pixels, indexed, png, length);
+		} finally {
+			Metrics.global().time(Stage.PALETTE, t);
+		}
+	}
+
+	private static int[] parsePalette(ConversionRequest req, byte[] pixels, SheetDecoder indexed,
+			byte[] png, int length) throws ConversionException {
+		String paletteName = req.getPalettePath();
+		int[] palette;
+
+		switch (req.getPalMethod()) {
+			// explicit ASCII palette
+			case PAL_ASCII :
+				// palette parsing; the file type determines the format
+				try {
+					palette = PaletteReader.palFromFile(paletteName, readPaletteData(req));
+				} catch (PNGException e) {
+					throw new ConversionException(Failure.PALETTE_COLORS, e.getMessage(), e);
+				}
+				return Colors.roundPalette(palette);
+
+			// binary pal
+			case PAL_BINARY :
+				if (!SpriteManipulator.testFileType(paletteName, "pal")) {
+					throw new ConversionException(Failure.BINARY_PALETTE_TYPE,
+							"Binary palette reading must use a .PAL file");
+				}
+				byte[] palX = readPaletteData(req);
+				if (palX.length < 64 * 3) {
+					throw new ConversionException(Failure.PALETTE_COLORS,
+							"Binary palettes must contain at least 64 colors");
+				}
+				return PaletteReader.palFromBinary(palX);
+
+			// extract from last block
+			case PAL_EXTRACT :
+				return PaletteReader.palExtract(pixels);
+
+			// palette of an indexed PNG
+			case PAL_PNG :
+				try {
+					if (indexed != null) {
+						palette = PaletteReader.palFromPLTE(indexed.getPalette(), indexed.getPaletteSize());
+					}
+					else {
+						// interlaced, iCCP, translucent tRNS...
+						palette = readIndexedPalette(png, length);
+					}
+				} catch (PNGException e) {
+					throw new ConversionException(Failure.PALETTE_COLORS, e.getMessage(), e);
+				}
+				return Colors.roundPalette(palette);
+
+			default :
+				throw new ConversionException(Failure.NO_PALETTE,
+						"Unknown palette method: " + req.getPalMethod());
+		}
+	}
+
+	/**
+	 * Reads the palette of an indexed PNG the decoder left to ImageIO.
+	 * @param png - image file; {@code null} if it isn't indexed
+	 * @param length - bytes of {@code png} in use
+	 * @return 64 colors as {@code 0xRRGGBB}
+	 */
+	private static int[] readIndexedPalette(byte[] png, int length) throws ConversionException, PNGException {
+		BufferedImage img = null;
+		if (png != null) {
+			try {
+				img = ImageIO.read(new ByteArrayInputStream(png, 0, length));
+			} catch (IOException e) {
+				throw new ConversionException(Failure.IMAGE_READ, "Error reading image", e);
+			}
+		}
+		if (img == null || !(img.getColorModel() instanceof IndexColorModel)) {
+			throw new ConversionException(Failure.PALETTE_COLORS,
+					"Only indexed PNGs contain a palette to read");
+		}
+		IndexColorModel colors = (IndexColorModel) img.getColorModel();
+		int[] plte = new int[colors.getMapSize()];
+		colors.getRGBs(plte);
+		return PaletteReader.palFromPLTE(plte, plte.length);
+	}
+
+	/**
+	 * @return the request's palette file contents
+	 */
+	static byte[] readPaletteData(ConversionRequest req) throws ConversionException {
+		if (req.getPaletteData() != null) {
+			return req.getPaletteData();
+		}
+		if (!new File(req.getPalettePath()).isFile()) {
+			throw new ConversionException(Failure.PALETTE_NOT_FOUND, "Palette file not found");
+		}
+		try {
+			byte[] ret = Files.readAllBytes(Paths.get(req.getPalettePath()));
+			Metrics.global().addBytesRead(ret.length);
+			return ret;
+		} catch (IOException e) {
+			throw new ConversionException(Failure.PALETTE_READ, "Error reading palette", e);
+		}
+	}
+
+	/**
+	 * Get the full image raster
+	 * @param img - image to read
+	 * @throws PNGException if the image is not 128 pixels wide and 448 pixels tall
+	 */
+	public static byte[] getImageRaster(BufferedImage img) throws PNGException {
+		int w = img.getWidth();
+		int h = img.getHeight();
+		if (w != 128 || h != 448) {
+			throw new PNGException("Invalid dimensions of {" + w + "," + h + "}" +
+					"Image dimensions must be 128x448");
+		}
+		return SpriteManipulator.getImageRaster(img);
+	}
+
+	public static String changeExtension(String file, String extension) {
+		String filename = file;
+
+		if (filename.contains(".")) {
+			filename = filename.substring(0, filename.lastIndexOf('.'));
+		}
+		filename += "." + extension;
+
+		return filename;
+	}
+}
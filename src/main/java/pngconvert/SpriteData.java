@@ -0,0 +1,215 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import spritemanipulator.ZSPRFile;
+
+/**
+ * Converted sprite: 4BPP graphics, SNES palette and gloves colors plus meta data.
+ * <br><br>
+ * This is what {@link SpriteConverter} produces before anything touches the disk,
+ * so callers can write it, patch it into ROMs or hand the bytes on as they see fit.
+ */
+public class SpriteData {
+	// ZSPR header
+	private static final byte[] ZSPR_MAGIC = { 'Z', 'S', 'P', 'R' };
+	private static final int ZSPR_SPRITE_OFFSET = 9;
+	private static final int ZSPR_SPRITE_SIZE = 13;
+	private static final int ZSPR_PALETTE_OFFSET = 15;
+	private static final int ZSPR_PALETTE_SIZE = 19;
+	private static final int ZSPR_NAMES = 29;
+
+	private final byte[] sprite;
+	private final byte[] palette;
+	private final byte[] gloves;
+	private String spriteName = "";
+	private String authorName = "";
+	private String authorNameROM = "";
+
+	/**
+	 * @param sprite - 4BPP graphics as produced by {@code export8x8ToSPR}
+	 * @param palette - SNES palette data
+	 * @param gloves - SNES gloves colors
+	 */
+	public SpriteData(byte[] sprite, byte[] palette, byte[] gloves) {
+		this.sprite = sprite;
+		this.palette = palette;
+		this.gloves = gloves;
+	}
+
+	/**
+	 * Reads a sprite file: a {@code .zspr}, or an old-style {@code .spr}
+	 * (4BPP graphics followed by the palette, without gloves).
+	 * @param data - contents of the sprite file
+	 * @return the sprite; palette and gloves are {@code null} if the file doesn't have them
+	 * @throws PNGException if the file is too short or its header points outside of it
+	 */
+	public static SpriteData fromSpriteFile(byte[] data) throws PNGException {
+		int sprSize = RomPatcher.SPRITE_SIZE;
+		int palSize = RomPatcher.PALETTE_SIZE;
+		int glovesSize = RomPatcher.GLOVES_SIZE;
+
+		if (!startsWith(data, ZSPR_MAGIC)) {
+			if (data.length < sprSize) {
+				throw new PNGException("Sprite file is too short");
+			}
+			byte[] palette = data.length >= sprSize + palSize ?
+					Arrays.copyOfRange(data, sprSize, sprSize + palSize) : null;
+			return new SpriteData(Arrays.copyOf(data, sprSize), palette, null);
+		}
+
+		if (data.length < ZSPR_NAMES) {
+			throw new PNGException("ZSPR header is too short");
+		}
+		int sprAt = readInt(data, ZSPR_SPRITE_OFFSET);
+		int sprLen = readShort(data, ZSPR_SPRITE_SIZE);
+		int palAt = readInt(data, ZSPR_PALETTE_OFFSET);
+		int palLen = readShort(data, ZSPR_PALETTE_SIZE);
+		if (sprLen < sprSize || palLen < palSize ||
+				sprAt < 0 || sprAt > data.length - sprSize ||
+				palAt < 0 || palAt > data.length - Math.min(palLen, palSize + glovesSize)) {
+			throw new PNGException("ZSPR sprite or palette data is missing");
+		}
+
+		byte[] sprite = Arrays.copyOfRange(data, sprAt, sprAt + sprSize);
+		byte[] palette = Arrays.copyOfRange(data, palAt, palAt + palSize);
+		byte[] gloves = palLen >= palSize + glovesSize ?
+				Arrays.copyOfRange(data, palAt + palSize, palAt + palSize + glovesSize) : null;
+		SpriteData ret = new SpriteData(sprite, palette, gloves);
+
+		// display name and author are UTF-16, the ROM author name is ASCII; each ends with a null
+		int at = ZSPR_NAMES;
+		int end = Math.min(data.length, Math.max(at, Math.min(sprAt, palAt)));
+		int stop = utf16End(data, at, end);
+		ret.setSpriteName(new String(data, at, stop - at, StandardCharsets.UTF_16LE));
+		at = Math.min(stop + 2, end);
+		stop = utf16End(data, at, end);
+		ret.setAuthorName(new String(data, at, stop - at, StandardCharsets.UTF_16LE));
+		at = Math.min(stop + 2, end);
+		stop = at;
+		while (stop < end && data[stop] != 0) {
+			stop++;
+		}
+		ret.setAuthorNameROM(new String(data, at, stop - at, StandardCharsets.US_ASCII));
+
+		return ret;
+	}
+
+	/**
+	 * Reads the sprite in a sprite file or a ROM.
+	 * @param loc - {@code .zspr}, {@code .spr} or {@code .sfc}
+	 * @throws PNGException if the file isn't a sprite or an ALttP ROM
+	 */
+	public static SpriteData read(Path loc) throws IOException, PNGException {
+		if (SpriteConverter.isROMTarget(loc.toString())) {
+			return RomPatcher.read(loc);
+		}
+		return fromSpriteFile(Files.readAllBytes(loc));
+	}
+
+	public byte[] getSprite() {
+		return sprite;
+	}
+
+	public byte[] getPalette() {
+		return palette;
+	}
+
+	public byte[] getGloves() {
+		return gloves;
+	}
+
+	public String getSpriteName() {
+		return spriteName;
+	}
+
+	public void setSpriteName(String spriteName) {
+		this.spriteName = spriteName == null ? "" : spriteName;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public void setAuthorName(String authorName) {
+		this.authorName = authorName == null ? "" : authorName;
+	}
+
+	public String getAuthorNameROM() {
+		return authorNameROM;
+	}
+
+	public void setAuthorNameROM(String authorNameROM) {
+		this.authorNameROM = authorNameROM == null ? "" : authorNameROM;
+	}
+
+	/**
+	 * @return a copy with its own sprite graphics,
+	 * for keeping a sprite converted in a {@link ConversionContext} past the next conversion
+	 */
+	public SpriteData copy() {
+		SpriteData ret = new SpriteData(sprite.clone(), palette, gloves);
+		ret.spriteName = spriteName;
+		ret.authorName = authorName;
+		ret.authorNameROM = authorNameROM;
+		return ret;
+	}
+
+	/**
+	 * Builds the {@link ZSPRFile} used by SpriteManipulator for writing and patching.
+	 * Blank names are left for {@code ZSPRFile} to default.
+	 */
+	public ZSPRFile toZSPRFile() {
+		ZSPRFile ret = new ZSPRFile(sprite, palette, gloves);
+
+		// add sprite name
+		if (!spriteName.equals("")) {
+			ret.setSpriteName(spriteName);
+		}
+
+		// add author name
+		if (!authorName.equals("")) {
+			ret.setAuthorName(authorName);
+		}
+
+		// set author name rom
+		ret.setAuthorNameROM(authorNameROM); // if it's blank, ZSPRFile class handles it
+
+		return ret;
+	}
+
+	private static boolean startsWith(byte[] data, byte[] prefix) {
+		if (data.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return position of the UTF-16 null ending the string at {@code at}, or {@code end}
+	 */
+	private static int utf16End(byte[] data, int at, int end) {
+		int i = at;
+		while (i + 1 < end && (data[i] != 0 || data[i + 1] != 0)) {
+			i += 2;
+		}
+		return Math.min(i, end);
+	}
+
+	private static int readShort(byte[] b, int at) {
+		return (b[at] & 0xFF) | (b[at + 1] & 0xFF) << 8;
+	}
+
+	private static int readInt(byte[] b, int at) {
+		return readShort(b, at) | readShort(b, at + 2) << 16;
+	}
+}
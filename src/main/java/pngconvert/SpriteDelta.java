@@ -0,0 +1,486 @@
+package pngconvert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import pngconvert.ConversionException.Failure;
+
+/**
+ * Tile-level difference between two revisions of a sprite.
+ * <br><br>
+ * Sprite graphics are 896 tiles of 32 bytes, and most of them survive from one revision to the next.
+ * A delta holds only the tiles that changed; a changed tile whose data already exists
+ * somewhere in the old sprite is stored as a reference to that tile.
+ * The palette and gloves are carried along when they changed.
+ * Deltas apply to the old sprite file or to a ROM holding the old sprite.
+ * <br><br>
+ * Delta file layout, little endian:
+ * <pre>
+ * "ZSPD", version
+ * CRC32 of the old graphics, CRC32 of the new graphics
+ * flags: 1 = palette follows, 2 = gloves follow
+ * palette (120 bytes), gloves (4 bytes)
+ * number of tiles (2 bytes)
+ * per tile: 0x8000 | index (2 bytes), then the index of the old tile to copy (2 bytes),
+ * or index (2 bytes), then 32 bytes of graphics
+ * </pre>
+ */
+public final class SpriteDelta {
+	public static final String EXTENSION = "zspd";
+	public static final int TILE_COUNT = RomPatcher.SPRITE_SIZE / TilePacker.BLOCK_BYTES;
+
+	private static final byte[] MAGIC = { 'Z', 'S', 'P', 'D' };
+	private static final int VERSION = 2;
+	private static final int HAS_PALETTE = 1;
+	private static final int HAS_GLOVES = 2;
+	private static final int COPY = 0x8000;
+
+	private final int baseCRC;
+	private final int resultCRC;
+	private final int[] tiles; // changed tiles, in order
+	private final int[] sources; // old tile holding the same data, or -1
+	private final byte[] tileData; // graphics of every changed tile that isn't a copy
+	private final byte[] palette;
+	private final byte[] gloves;
+
+	private SpriteDelta(int baseCRC, int resultCRC, int[] tiles, int[] sources, byte[] tileData,
+			byte[] palette, byte[] gloves) {
+		this.baseCRC = baseCRC;
+		this.resultCRC = resultCRC;
+		this.tiles = tiles;
+		this.sources = sources;
+		this.tileData = tileData;
+		this.palette = palette;
+		this.gloves = gloves;
+	}
+
+	/**
+	 * Works out what changed from {@code old} to {@code cur}.
+	 * @param old - previous revision
+	 * @param cur - new revision
+	 */
+	public static SpriteDelta diff(SpriteData old, SpriteData cur) {
+		byte[] from = old.getSprite();
+		byte[] to = cur.getSprite();
+		long[] oldHashes = tileHashes(from);
+		long[] newHashes = tileHashes(to);
+
+		// first old tile with each hash, to copy from
+		Map<Long, Integer> oldTiles = new HashMap<Long, Integer>();
+		for (int i = 0; i < TILE_COUNT; i++) {
+			oldTiles.putIfAbsent(oldHashes[i], i);
+		}
+
+		int[] tiles = new int[TILE_COUNT];
+		int[] sources = new int[TILE_COUNT];
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		int n = 0;
+		for (int i = 0; i < TILE_COUNT; i++) {
+			if (oldHashes[i] == newHashes[i] && sameTile(from, i, to, i)) {
+				continue;
+			}
+			Integer j = oldTiles.get(newHashes[i]);
+			tiles[n] = i;
+			if (j != null && sameTile(from, j, to, i)) {
+				sources[n] = j;
+			}
+			else {
+				sources[n] = -1;
+				data.write(to, i * TilePacker.BLOCK_BYTES, TilePacker.BLOCK_BYTES);
+			}
+			n++;
+		}
+
+		byte[] palette = changed(old.getPalette(), cur.getPalette(), RomPatcher.PALETTE_SIZE);
+		byte[] gloves = changed(old.getGloves(), cur.getGloves(), RomPatcher.GLOVES_SIZE);
+
+		return new SpriteDelta(crc(from), crc(to), Arrays.copyOf(tiles, n), Arrays.copyOf(sources, n),
+				data.toByteArray(), palette, gloves);
+	}
+
+	/**
+	 * Reads a delta file.
+	 * @param data - contents of the delta file
+	 * @throws PNGException if it isn't a delta or is cut short
+	 */
+	public static SpriteDelta fromBytes(byte[] data) throws PNGException {
+		if (data.length < 14 || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+			throw new PNGException("Not a sprite delta");
+		}
+		if (data[4] != VERSION) {
+			throw new PNGException("Unknown sprite delta version: " + data[4]);
+		}
+
+		try {
+			int at = 5;
+			int baseCRC = readInt(data, at);
+			int resultCRC = readInt(data, at + 4);
+			int flags = data[at + 8];
+			at += 9;
+
+			byte[] palette = null;
+			if ((flags & HAS_PALETTE) != 0) {
+				palette = Arrays.copyOfRange(data, at, at + RomPatcher.PALETTE_SIZE);
+				at += RomPatcher.PALETTE_SIZE;
+			}
+			byte[] gloves = null;
+			if ((flags & HAS_GLOVES) != 0) {
+				gloves = Arrays.copyOfRange(data, at, at + RomPatcher.GLOVES_SIZE);
+				at += RomPatcher.GLOVES_SIZE;
+			}
+
+			int n = readShort(data, at);
+			at += 2;
+			if (n > TILE_COUNT) {
+				throw new PNGException("Sprite delta has too many tiles");
+			}
+			int[] tiles = new int[n];
+			int[] sources = new int[n];
+			ByteArrayOutputStream tileData = new ByteArrayOutputStream();
+			for (int i = 0; i < n; i++) {
+				int tile = readShort(data, at);
+				at += 2;
+				tiles[i] = tile & ~COPY;
+				// the flag is on the tile, since graphics can start with any 2 bytes
+				if ((tile & COPY) != 0) {
+					sources[i] = readShort(data, at);
+					at += 2;
+				}
+				else {
+					sources[i] = -1;
+					if (at + TilePacker.BLOCK_BYTES > data.length) {
+						throw new ArrayIndexOutOfBoundsException(at);
+					}
+					tileData.write(data, at, TilePacker.BLOCK_BYTES);
+					at += TilePacker.BLOCK_BYTES;
+				}
+				if (tiles[i] >= TILE_COUNT || sources[i] >= TILE_COUNT) {
+					throw new PNGException("Sprite delta refers to tile " + Math.max(tiles[i], sources[i]));
+				}
+			}
+			return new SpriteDelta(baseCRC, resultCRC, tiles, sources, tileData.toByteArray(), palette, gloves);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new PNGException("Sprite delta is cut short");
+		}
+	}
+
+	/**
+	 * @return the delta file
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(16 + tiles.length * 4 + tileData.length);
+		ret.write(MAGIC, 0, MAGIC.length);
+		ret.write(VERSION);
+		writeInt(ret, baseCRC);
+		writeInt(ret, resultCRC);
+		ret.write((palette != null ? HAS_PALETTE : 0) | (gloves != null ? HAS_GLOVES : 0));
+		if (palette != null) {
+			ret.write(palette, 0, palette.length);
+		}
+		if (gloves != null) {
+			ret.write(gloves, 0, gloves.length);
+		}
+		writeShort(ret, tiles.length);
+		int literal = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			if (sources[i] >= 0) {
+				writeShort(ret, COPY | tiles[i]);
+				writeShort(ret, sources[i]);
+			}
+			else {
+				writeShort(ret, tiles[i]);
+				ret.write(tileData, literal, TilePacker.BLOCK_BYTES);
+				literal += TilePacker.BLOCK_BYTES;
+			}
+		}
+		return ret.toByteArray();
+	}
+
+	/**
+	 * Builds the new revision from the old one.
+	 * @param old - the sprite the delta was made from
+	 * @return the new revision, with the old one's names
+	 * @throws PNGException if {@code old} isn't the sprite the delta was made from
+	 */
+	public SpriteData apply(SpriteData old) throws PNGException {
+		byte[] from = old.getSprite();
+		if (crc(from) != baseCRC) {
+			throw new PNGException("This delta was made from a different sprite");
+		}
+
+		byte[] to = from.clone();
+		int literal = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			int at = tiles[i] * TilePacker.BLOCK_BYTES;
+			if (sources[i] >= 0) {
+				System.arraycopy(from, sources[i] * TilePacker.BLOCK_BYTES, to, at, TilePacker.BLOCK_BYTES);
+			}
+			else {
+				System.arraycopy(tileData, literal, to, at, TilePacker.BLOCK_BYTES);
+				literal += TilePacker.BLOCK_BYTES;
+			}
+		}
+		if (crc(to) != resultCRC) {
+			throw new PNGException("Sprite delta is corrupt");
+		}
+
+		SpriteData ret = new SpriteData(to,
+				palette != null ? palette : old.getPalette(),
+				gloves != null ? gloves : old.getGloves());
+		ret.setSpriteName(old.getSpriteName());
+		ret.setAuthorName(old.getAuthorName());
+		ret.setAuthorNameROM(old.getAuthorNameROM());
+		return ret;
+	}
+
+	/**
+	 * Applies the delta to the sprite in a ROM, in place.
+	 * @param rom - {@code .sfc} holding the old sprite
+	 */
+	public void applyToRom(Path rom) throws IOException, PNGException {
+		RomPatcher.patch(rom, apply(RomPatcher.read(rom)));
+	}
+
+	/**
+	 * @return indices of the tiles that changed, in order
+	 */
+	public int[] getChangedTiles() {
+		return tiles.clone();
+	}
+
+	/**
+	 * @return number of changed tiles stored as a reference to an old tile
+	 */
+	public int getCopiedTiles() {
+		int ret = 0;
+		for (int src : sources) {
+			if (src >= 0) {
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	public boolean hasPalette() {
+		return palette != null;
+	}
+
+	public boolean hasGloves() {
+		return gloves != null;
+	}
+
+	/**
+	 * @return {@code true} if applying the delta changes nothing
+	 */
+	public boolean isEmpty() {
+		return tiles.length == 0 && palette == null && gloves == null;
+	}
+
+	/**
+	 * Hashes every tile of some sprite graphics.
+	 * @param sprite - 4BPP graphics
+	 * @return one hash per tile
+	 */
+	public static long[] tileHashes(byte[] sprite) {
+		long[] ret = new long[TILE_COUNT];
+		for (int i = 0; i < TILE_COUNT; i++) {
+			ret[i] = tileHash(sprite, i * TilePacker.BLOCK_BYTES);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return number of different tiles in some sprite graphics
+	 */
+	public static int uniqueTiles(byte[] sprite) {
+		Set<Long> ret = new HashSet<Long>();
+		for (long h : tileHashes(sprite)) {
+			ret.add(h);
+		}
+		return ret.size();
+	}
+
+	private static long tileHash(byte[] b, int at) {
+		long h = 0;
+		for (int i = at; i < at + TilePacker.BLOCK_BYTES; i += 8) {
+			h = (h ^ readLong(b, i)) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return h;
+	}
+
+	private static boolean sameTile(byte[] a, int i, byte[] b, int j) {
+		int x = i * TilePacker.BLOCK_BYTES;
+		int y = j * TilePacker.BLOCK_BYTES;
+		for (int k = 0; k < TilePacker.BLOCK_BYTES; k++) {
+			if (a[x + k] != b[y + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the first {@code len} bytes of {@code cur} if they differ from {@code old}, else {@code null}
+	 */
+	private static byte[] changed(byte[] old, byte[] cur, int len) {
+		if (cur == null || cur.length < len) {
+			return null;
+		}
+		if (old != null && old.length >= len &&
+				Arrays.equals(Arrays.copyOf(old, len), Arrays.copyOf(cur, len))) {
+			return null;
+		}
+		return Arrays.copyOf(cur, len);
+	}
+
+	private static int crc(byte[] sprite) {
+		CRC32 crc = new CRC32();
+		crc.update(sprite, 0, RomPatcher.SPRITE_SIZE);
+		return (int) crc.getValue();
+	}
+
+	private static long readLong(byte[] b, int at) {
+		return (readInt(b, at) & 0xFFFFFFFFL) | (long) readInt(b, at + 4) << 32;
+	}
+
+	private static int readShort(byte[] b, int at) {
+		return (b[at] & 0xFF) | (b[at + 1] & 0xFF) << 8;
+	}
+
+	private static int readInt(byte[] b, int at) {
+		return readShort(b, at) | readShort(b, at + 2) << 16;
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int v) {
+		out.write(v);
+		out.write(v >> 8);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		writeShort(out, v);
+		writeShort(out, v >> 16);
+	}
+
+	/**
+	 * @return tile indices as ranges, such as {@code 0-15, 40, 42-44}
+	 */
+	static String ranges(int[] tiles) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < tiles.length; i++) {
+			int j = i;
+			while (j + 1 < tiles.length && tiles[j + 1] == tiles[j] + 1) {
+				j++;
+			}
+			if (ret.length() > 0) {
+				ret.append(", ");
+			}
+			ret.append(tiles[i]);
+			if (j > i) {
+				ret.append('-').append(tiles[j]);
+			}
+			i = j;
+		}
+		return ret.toString();
+	}
+
+	// Summary
+	// Delta command line usage, to compare two revisions:
+	// diffOld: Previous sprite file or ROM
+	// diffNew: New sprite file or ROM
+	// deltaTarget (optional): Delta file to write.
+	// Or, to apply a delta:
+	// deltaSrc: Delta file to apply
+	// applyTo: Previous sprite file, or ROM to patch in place
+	// sprTarget (optional): Sprite file to write. Defaults to overwriting applyTo.
+	// Returns True if the comparison or patch succeeded.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> opts = new HashMap<String, String>();
+		boolean argumentErrorsFound = !BatchConverter.parseArgs(args, opts,
+				"diffOld", "diffNew", "deltaTarget", "deltaSrc", "applyTo", "sprTarget");
+
+		boolean diffing = opts.containsKey("diffOld") || opts.containsKey("diffNew");
+		if (diffing && (!opts.containsKey("diffOld") || !opts.containsKey("diffNew"))) {
+			System.out.println("Comparing needs both diffOld and diffNew.");
+			argumentErrorsFound = true;
+		}
+		if (!diffing && (!opts.containsKey("deltaSrc") || !opts.containsKey("applyTo"))) {
+			System.out.println("Applying a delta needs both deltaSrc and applyTo.");
+			argumentErrorsFound = true;
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		try {
+			if (diffing) {
+				return diff(opts.get("diffOld"), opts.get("diffNew"), opts.get("deltaTarget"));
+			}
+			return apply(opts.get("deltaSrc"), opts.get("applyTo"), opts.get("sprTarget"));
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+		} catch (PNGException e) {
+			System.out.println("ERROR: " + e.getMessage());
+		} catch (ConversionException e) {
+			System.out.println("ERROR: " + e.getMessage());
+		}
+		return false;
+	}
+
+	private static boolean diff(String oldLoc, String newLoc, String target) throws IOException, PNGException {
+		SpriteData cur = SpriteData.read(Paths.get(newLoc));
+		SpriteDelta delta = diff(SpriteData.read(Paths.get(oldLoc)), cur);
+		int[] changed = delta.getChangedTiles();
+		byte[] out = delta.toBytes();
+
+		System.out.println(String.format("%d of %d tiles changed (%d copied from other tiles)",
+				changed.length, TILE_COUNT, delta.getCopiedTiles()));
+		if (changed.length > 0) {
+			System.out.println("  " + ranges(changed));
+		}
+		System.out.println("Palette " + (delta.hasPalette() ? "changed" : "unchanged") +
+				", gloves " + (delta.hasGloves() ? "changed" : "unchanged"));
+		System.out.println(String.format("%d of %d tiles in %s are unique",
+				uniqueTiles(cur.getSprite()), TILE_COUNT, newLoc));
+		System.out.println(String.format("Delta: %d bytes", out.length));
+
+		if (target != null && !target.equals("")) {
+			Files.write(Paths.get(target), out);
+		}
+		return true;
+	}
+
+	private static boolean apply(String deltaLoc, String loc, String target)
+			throws IOException, PNGException, ConversionException {
+		SpriteDelta delta = fromBytes(Files.readAllBytes(Paths.get(deltaLoc)));
+
+		if (SpriteConverter.isROMTarget(loc)) {
+			Path rom = Paths.get(loc);
+			RomPatcher.verify(rom);
+			delta.applyToRom(rom);
+			System.out.println("Patched " + loc);
+			return true;
+		}
+
+		SpriteData spr = delta.apply(SpriteData.fromSpriteFile(Files.readAllBytes(Paths.get(loc))));
+		if (spr.getPalette() == null) {
+			throw new ConversionException(Failure.ZSPR_FORMAT, "Sprite has no palette to write");
+		}
+		String out = target == null || target.equals("") ? loc : target;
+		SpriteConverter.write(spr, out);
+		System.out.println("Wrote " + out);
+		return true;
+	}
+}
@@ -0,0 +1,152 @@
+package pngconvert;
+
+/**
+ * Packs 8x8 blocks of palette indices into SNES 4BPP graphics, the format of {@code export8x8ToSPR}.
+ * <br><br>
+ * Blocks are flat arrays rather than {@code byte[][][]}:
+ * index {@code c} of row {@code r} of block {@code b} is at {@code b * 64 + r * 8 + c},
+ * with blocks numbered left to right, top to bottom, 16 to a row of the sheet.
+ * Each block becomes 32 bytes: bitplanes 0 and 1 interleaved row by row, then bitplanes 2 and 3.
+ * <br><br>
+ * Two packers produce the same bytes: a scalar one working pixel by pixel,
+ * and a SWAR one treating each 8-pixel row as a single {@code long}.
+ * The SWAR packer is used unless {@code -Dpngconvert.packer=scalar} is given.
+ */
+public final class TilePacker {
+	public static final int BLOCK_PIXELS = 64;
+	public static final int BLOCK_BYTES = 32;
+
+	/**
+	 * {@code true} if {@link #pack(byte[], byte[], int)} uses {@link #packSWAR(byte[], byte[], int)}
+	 */
+	public static final boolean SWAR = !"scalar".equals(System.getProperty("pngconvert.packer"));
+
+	// lowest bit of each byte
+	private static final long LOW_BITS = 0x0101010101010101L;
+	// gathers the lowest bit of each byte into the top byte, first byte highest
+	private static final long GATHER = 0x0102040810204080L;
+
+	// each bit of a bitplane byte spread to the lowest bit of its own byte, highest bit first
+	private static final long[] SPREAD = new long[256];
+
+	static {
+		for (int v = 0; v < 256; v++) {
+			long row = 0;
+			for (int c = 0; c < 8; c++) {
+				row |= (long) ((v >> (7 - c)) & 1) << (56 - c * 8);
+			}
+			SPREAD[v] = row;
+		}
+	}
+
+	private TilePacker() {}
+
+	/**
+	 * @param tiles - one palette index (0&ndash;15) per pixel, block by block
+	 * @param spr - buffer for the 4BPP data; 32 bytes per block
+	 */
+	public static void pack(byte[] tiles, byte[] spr) {
+		pack(tiles, spr, 0);
+	}
+
+	/**
+	 * Packs blocks into the middle of the 4BPP data, such as one row band of the sheet.
+	 * @param tiles - one palette index (0&ndash;15) per pixel, block by block
+	 * @param spr - buffer for the 4BPP data; 32 bytes per block
+	 * @param at - where the first block goes in {@code spr}
+	 */
+	public static void pack(byte[] tiles, byte[] spr, int at) {
+		if (SWAR) {
+			packSWAR(tiles, spr, at);
+		}
+		else {
+			packScalar(tiles, spr, at);
+		}
+	}
+
+	/**
+	 * Packs blocks pixel by pixel.
+	 * @see #pack(byte[], byte[], int)
+	 */
+	public static void packScalar(byte[] tiles, byte[] spr, int at) {
+		int blocks = Math.min(tiles.length / BLOCK_PIXELS, (spr.length - at) / BLOCK_BYTES);
+		for (int b = 0; b < blocks; b++) {
+			int in = b * BLOCK_PIXELS;
+			int out = at + b * BLOCK_BYTES;
+			for (int r = 0; r < 8; r++, in += 8) {
+				int bp0 = 0;
+				int bp1 = 0;
+				int bp2 = 0;
+				int bp3 = 0;
+				// leftmost pixel is the highest bit
+				for (int c = 0; c < 8; c++) {
+					int i = tiles[in + c];
+					int bit = 7 - c;
+					bp0 |= (i & 1) << bit;
+					bp1 |= ((i >> 1) & 1) << bit;
+					bp2 |= ((i >> 2) & 1) << bit;
+					bp3 |= ((i >> 3) & 1) << bit;
+				}
+				spr[out + r * 2] = (byte) bp0;
+				spr[out + r * 2 + 1] = (byte) bp1;
+				spr[out + 16 + r * 2] = (byte) bp2;
+				spr[out + 16 + r * 2 + 1] = (byte) bp3;
+			}
+		}
+	}
+
+	/**
+	 * Packs blocks a row at a time.
+	 * <br><br>
+	 * The 8 indices of a row are read as one big-endian {@code long}, leftmost pixel in the top byte.
+	 * Masking bit {@code k} of every byte and multiplying by {@link #GATHER} moves those 8 bits,
+	 * without any carries, into the top byte in pixel order: bitplane {@code k} of the row.
+	 * @see #pack(byte[], byte[], int)
+	 */
+	public static void packSWAR(byte[] tiles, byte[] spr, int at) {
+		int blocks = Math.min(tiles.length / BLOCK_PIXELS, (spr.length - at) / BLOCK_BYTES);
+		for (int b = 0; b < blocks; b++) {
+			int in = b * BLOCK_PIXELS;
+			int out = at + b * BLOCK_BYTES;
+			for (int r = 0; r < 8; r++, in += 8) {
+				long row = readLong(tiles, in);
+				spr[out + r * 2] = (byte) (((row & LOW_BITS) * GATHER) >>> 56);
+				spr[out + r * 2 + 1] = (byte) ((((row >>> 1) & LOW_BITS) * GATHER) >>> 56);
+				spr[out + 16 + r * 2] = (byte) ((((row >>> 2) & LOW_BITS) * GATHER) >>> 56);
+				spr[out + 16 + r * 2 + 1] = (byte) ((((row >>> 3) & LOW_BITS) * GATHER) >>> 56);
+			}
+		}
+	}
+
+	/**
+	 * Unpacks 4BPP graphics back into blocks of palette indices, the reverse of {@link #pack(byte[], byte[])}.
+	 * @param spr - 4BPP data; 32 bytes per block
+	 * @param tiles - buffer for one palette index per pixel, block by block
+	 */
+	public static void unpack(byte[] spr, byte[] tiles) {
+		int blocks = Math.min(tiles.length / BLOCK_PIXELS, spr.length / BLOCK_BYTES);
+		for (int b = 0; b < blocks; b++) {
+			int in = b * BLOCK_BYTES;
+			int out = b * BLOCK_PIXELS;
+			for (int r = 0; r < 8; r++, out += 8) {
+				long row = SPREAD[spr[in + r * 2] & 0xFF] |
+						SPREAD[spr[in + r * 2 + 1] & 0xFF] << 1 |
+						SPREAD[spr[in + 16 + r * 2] & 0xFF] << 2 |
+						SPREAD[spr[in + 16 + r * 2 + 1] & 0xFF] << 3;
+				for (int c = 0; c < 8; c++) {
+					tiles[out + c] = (byte) (row >>> (56 - c * 8));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 8 bytes as a big-endian {@code long}
+	 */
+	private static long readLong(byte[] b, int at) {
+		return (b[at] & 0xFFL) << 56 | (b[at + 1] & 0xFFL) << 48 |
+				(b[at + 2] & 0xFFL) << 40 | (b[at + 3] & 0xFFL) << 32 |
+				(b[at + 4] & 0xFFL) << 24 | (b[at + 5] & 0xFFL) << 16 |
+				(b[at + 6] & 0xFFL) << 8 | (b[at + 7] & 0xFFL);
+	}
+}
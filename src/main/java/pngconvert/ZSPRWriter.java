@@ -0,0 +1,246 @@
+package pngconvert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import spritemanipulator.SpriteManipulator;
+import spritemanipulator.ZSPRFormatException;
+
+/**
+ * Writes {@code .zspr} files without assembling them in memory first.
+ * <br><br>
+ * {@code SpriteManipulator.writeSPRFile} copies the header, names, 0x7000 bytes of graphics,
+ * palette and gloves into one array and writes that. This writer lays out only the header and names,
+ * in a small direct buffer it keeps between files, and hands it to a single gathering
+ * {@link FileChannel#write(ByteBuffer[])} along with the sprite's own graphics, palette and gloves arrays.
+ * <br><br>
+ * Files can also be written to a temporary file next to the target and renamed over it,
+ * so readers never see a half-written sprite.
+ * <br><br>
+ * The layout is the ZSPR v1 header, with names as {@code ZSPRFile} writes them:
+ * blank names become {@link #DEFAULT_NAME}, and the ROM author name is cut to {@link #ROM_AUTHOR_LENGTH}
+ * ASCII characters. The checksum is the 16-bit sum of every byte in the file, with the checksum bytes
+ * themselves counted as {@code 0x0000} and their complement as {@code 0xFFFF}, the same way as in a ROM header.
+ * <br><br>
+ * Instances are not thread-safe; use {@link #local()} to get one per thread.
+ */
+public class ZSPRWriter {
+	/**
+	 * {@code true} if {@link SpriteConverter#write(SpriteData, String)} uses this writer
+	 * rather than {@code SpriteManipulator.writeSPRFile}
+	 */
+	public static final boolean GATHER = !"spritemanipulator".equals(System.getProperty("pngconvert.writer"));
+
+	/**
+	 * Name {@code ZSPRFile} writes in place of a blank sprite name, author name or ROM author name
+	 */
+	static final String DEFAULT_NAME = "Unknown";
+	/**
+	 * Characters of the ROM author name {@code ZSPRFile} keeps
+	 */
+	static final int ROM_AUTHOR_LENGTH = 20;
+
+	// ZSPR v1 header
+	private static final byte[] MAGIC = { 'Z', 'S', 'P', 'R' };
+	private static final int VERSION = 1;
+	private static final int CHECKSUM = 5;
+	private static final int SPRITE_OFFSET = 9;
+	private static final int SPRITE_SIZE = 13;
+	private static final int PALETTE_OFFSET = 15;
+	private static final int PALETTE_SIZE = 19;
+	private static final int SPRITE_TYPE = 21;
+	private static final int NAMES = 29;
+	private static final int PLAYER_SPRITE = 1;
+
+	private static final ThreadLocal<ZSPRWriter> LOCAL = ThreadLocal.withInitial(ZSPRWriter::new);
+
+	// header and names; grows to fit long names
+	private ByteBuffer head = ByteBuffer.allocateDirect(256).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer[] parts = new ByteBuffer[4];
+
+	/**
+	 * @return this thread's writer
+	 */
+	public static ZSPRWriter local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Writes a sprite file, replacing any file already there.
+	 * @param spr - sprite to write
+	 * @param loc - {@code .zspr} to write
+	 * @param atomic - {@code true} to write a temporary file and rename it over {@code loc}
+	 * @return bytes written
+	 * @throws PNGException if the sprite has no palette
+	 */
+	public long write(SpriteData spr, Path loc, boolean atomic) throws IOException, PNGException {
+		int size = layout(spr);
+		if (!atomic) {
+			writeTo(loc, size, StandardOpenOption.TRUNCATE_EXISTING);
+			return size;
+		}
+
+		Path tmp = tempFor(loc);
+		try {
+			writeTo(tmp, size, StandardOpenOption.CREATE_NEW);
+			moveInto(tmp, loc);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return size;
+	}
+
+	/**
+	 * @return contents of the {@code .zspr} file for {@code spr}
+	 * @throws PNGException if the sprite has no palette
+	 */
+	public byte[] toBytes(SpriteData spr) throws PNGException {
+		byte[] ret = new byte[layout(spr)];
+		ByteBuffer out = ByteBuffer.wrap(ret);
+		for (ByteBuffer b : parts) {
+			out.put(b);
+		}
+		return ret;
+	}
+
+	/**
+	 * Writes a sprite file with {@code SpriteManipulator.writeSPRFile}.
+	 * @param spr - sprite to write
+	 * @param loc - {@code .zspr} to write
+	 * @param atomic - {@code true} to write a temporary file and rename it over {@code loc}
+	 * @return bytes written
+	 */
+	static long writeSPRFile(SpriteData spr, Path loc, boolean atomic) throws IOException, ZSPRFormatException {
+		if (!atomic) {
+			SpriteManipulator.writeSPRFile(loc.toString(), spr.toZSPRFile());
+			return Files.size(loc);
+		}
+
+		Path tmp = tempFor(loc);
+		try {
+			SpriteManipulator.writeSPRFile(tmp.toString(), spr.toZSPRFile());
+			long ret = Files.size(tmp);
+			moveInto(tmp, loc);
+			return ret;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Not {@code createTempFile}, which would leave the sprite readable by its owner only.
+	 * @return a path next to {@code loc} for writing it before {@link #moveInto(Path, Path)};
+	 * unique to this thread and call
+	 */
+	static Path tempFor(Path loc) {
+		return loc.resolveSibling("." + loc.getFileName() + "." + Thread.currentThread().getId() + "-" +
+				Long.toHexString(System.nanoTime()) + ".tmp");
+	}
+
+	/**
+	 * Renames a finished file over the target, atomically if the file system can.
+	 * @param tmp - finished file, in the same directory as {@code loc}
+	 * @param loc - file to replace
+	 */
+	static void moveInto(Path tmp, Path loc) throws IOException {
+		try {
+			Files.move(tmp, loc, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, loc, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void writeTo(Path loc, int size, StandardOpenOption mode) throws IOException {
+		try (FileChannel out = FileChannel.open(loc, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+			long left = size;
+			while (left > 0) {
+				left -= out.write(parts);
+			}
+		}
+	}
+
+	/**
+	 * Fills in the header and points {@link #parts} at everything to write.
+	 * @return size of the file
+	 * @throws PNGException if the sprite has no palette
+	 */
+	private int layout(SpriteData spr) throws PNGException {
+		byte[] sprite = spr.getSprite();
+		byte[] palette = spr.getPalette();
+		byte[] gloves = spr.getGloves() != null ? spr.getGloves() : new byte[0];
+		if (palette == null) {
+			throw new PNGException("Sprite has no palette to write");
+		}
+
+		// display name and author are UTF-16, the ROM author name is ASCII; each ends with a null
+		byte[] name = named(spr.getSpriteName()).getBytes(StandardCharsets.UTF_16LE);
+		byte[] author = named(spr.getAuthorName()).getBytes(StandardCharsets.UTF_16LE);
+		String rom = named(spr.getAuthorNameROM());
+		byte[] authorROM = rom.substring(0, Math.min(rom.length(), ROM_AUTHOR_LENGTH))
+				.getBytes(StandardCharsets.US_ASCII);
+		int headSize = NAMES + name.length + 2 + author.length + 2 + authorROM.length + 1;
+		if (headSize > head.capacity()) {
+			head = ByteBuffer.allocateDirect(Integer.highestOneBit(headSize) * 2).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		int spriteAt = headSize;
+		int paletteAt = spriteAt + sprite.length;
+		head.clear();
+		head.put(MAGIC).put((byte) VERSION);
+		// checksum and complement, filled in below
+		head.putShort(CHECKSUM, (short) 0).putShort(CHECKSUM + 2, (short) 0xFFFF);
+		head.putInt(SPRITE_OFFSET, spriteAt).putShort(SPRITE_SIZE, (short) sprite.length);
+		head.putInt(PALETTE_OFFSET, paletteAt).putShort(PALETTE_SIZE, (short) (palette.length + gloves.length));
+		head.putShort(SPRITE_TYPE, (short) PLAYER_SPRITE);
+		// reserved
+		for (int i = SPRITE_TYPE + 2; i < NAMES; i++) {
+			head.put(i, (byte) 0);
+		}
+		head.position(NAMES);
+		head.put(name).putShort((short) 0);
+		head.put(author).putShort((short) 0);
+		head.put(authorROM).put((byte) 0);
+		head.flip();
+
+		int checksum = (sum(head) + sum(sprite) + sum(palette) + sum(gloves)) & 0xFFFF;
+		head.putShort(CHECKSUM, (short) checksum);
+		head.putShort(CHECKSUM + 2, (short) (checksum ^ 0xFFFF));
+
+		parts[0] = head;
+		parts[1] = ByteBuffer.wrap(sprite);
+		parts[2] = ByteBuffer.wrap(palette);
+		parts[3] = ByteBuffer.wrap(gloves);
+		return paletteAt + palette.length + gloves.length;
+	}
+
+	/**
+	 * @return {@code name}, or {@link #DEFAULT_NAME} if it is blank
+	 */
+	private static String named(String name) {
+		return name.equals("") ? DEFAULT_NAME : name;
+	}
+
+	private static int sum(ByteBuffer b) {
+		int ret = 0;
+		for (int i = b.position(); i < b.limit(); i++) {
+			ret += b.get(i) & 0xFF;
+		}
+		return ret;
+	}
+
+	private static int sum(byte[] b) {
+		int ret = 0;
+		for (byte x : b) {
+			ret += x & 0xFF;
+		}
+		return ret;
+	}
+}
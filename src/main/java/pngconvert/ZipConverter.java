@@ -0,0 +1,351 @@
+package pngconvert;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import pngconvert.ConversionException.Failure;
+import spritemanipulator.*;
+
+/**
+ * Converts every sheet in a ZIP sprite pack straight into another ZIP, without unpacking either to disk.
+ * <br><br>
+ * Sheets are read from the pack by the workers themselves and converted in memory like server uploads;
+ * only adding the finished {@code .zspr} to the output ZIP is done one sheet at a time,
+ * in the order of the sheets in the pack, so the same pack always gives the same ZIP.
+ * Each sprite keeps its sheet's path inside the archive, with a {@code .zspr} extension.
+ * At most two sheets per worker are queued at once, as in {@link BatchConverter}.
+ * <br><br>
+ * With a palette file method and no shared palette, each sheet uses the palette in the pack
+ * that has the same name as the sheet, such as {@code link.gpl} next to {@code link.png}.
+ * <br><br>
+ * The output ZIP is written to a temporary file and renamed into place once it is complete.
+ */
+public class ZipConverter {
+	private final int palMethod;
+	private final String palettePath;
+	private final int threads;
+
+	/**
+	 * @param palMethod - one of the {@code PAL_} methods of {@link SpriteConverter}
+	 * @param palettePath - palette file shared by every sheet, either an entry of the pack or a file on disk;
+	 * blank to look for one next to each sheet; ignored when the palette comes from the sheet
+	 * @param threads - number of workers; 0 or less to use every core
+	 */
+	public ZipConverter(int palMethod, String palettePath, int threads) {
+		this.palMethod = palMethod;
+		this.palettePath = palettePath == null ? "" : palettePath;
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Converts every sheet in {@code src} into {@code target} and waits for all of them to finish.
+	 * Sheets that fail are left out of the output.
+	 * @param src - ZIP to read
+	 * @param target - ZIP to write; replaced if it exists
+	 * @throws IOException if either ZIP can't be read or written
+	 */
+	public BatchSummary convertAll(Path src, Path target) throws IOException, InterruptedException {
+		BatchSummary summary = new BatchSummary();
+		Path tmp = target.resolveSibling("." + target.getFileName() + ".tmp");
+
+		try (ZipFile in = new ZipFile(src.toFile(), StandardCharsets.UTF_8)) {
+			// index the pack first; palettes may come after the sheets using them
+			List<ZipEntry> sheets = new ArrayList<ZipEntry>();
+			Map<String, ZipEntry> palettes = new HashMap<String, ZipEntry>();
+			Enumeration<? extends ZipEntry> entries = in.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry e = entries.nextElement();
+				if (e.isDirectory()) {
+					continue;
+				}
+				if (SpriteManipulator.testFileType(e.getName(), SpriteConverter.IMAGEEXTS)) {
+					sheets.add(e);
+				}
+				else if (SpriteManipulator.testFileType(e.getName(), SpriteConverter.PALETTEEXTS)) {
+					palettes.put(e.getName(), e);
+				}
+			}
+
+			CompiledPalette shared = sharedPalette(in, palettes);
+
+			try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				// sprites barely compress; don't hold up the workers trying
+				out.setLevel(Deflater.BEST_SPEED);
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				Semaphore slots = new Semaphore(threads * 2);
+				InOrder sprites = new InOrder(out, sheets.size(), slots);
+
+				summary.start();
+				try {
+					for (int i = 0; i < sheets.size(); i++) {
+						ZipEntry sheet = sheets.get(i);
+						int at = i;
+						slots.acquire();
+						pool.execute(() -> {
+							long start = System.nanoTime();
+							String name = sheet.getName();
+							String loc = SpriteConverter.changeExtension(name, ZSPRFile.EXTENSION);
+							byte[] zspr = null;
+							try {
+								zspr = convert(in, sheet, palettes, shared);
+								summary.add(SpriteConverter.counted(ConversionResult.success(name, loc, false,
+										System.nanoTime() - start)));
+							} catch (ConversionException e) {
+								summary.add(SpriteConverter.counted(ConversionResult.failure(name, loc, e,
+										System.nanoTime() - start)));
+							} catch (RuntimeException e) {
+								summary.add(SpriteConverter.counted(ConversionResult.unexpected(name, loc, e,
+										System.nanoTime() - start)));
+							} finally {
+								// written, or skipped, once every sheet before it is
+								sprites.put(at, loc, sheet.getTime(), zspr);
+							}
+						});
+					}
+				} finally {
+					pool.shutdown();
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+					summary.finish();
+				}
+				sprites.checkError();
+			}
+			ZSPRWriter.moveInto(tmp, target);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		return summary;
+	}
+
+	/**
+	 * Converts one sheet of the pack.
+	 * @return contents of its sprite file
+	 */
+	private byte[] convert(ZipFile in, ZipEntry sheet, Map<String, ZipEntry> palettes, CompiledPalette shared)
+			throws ConversionException {
+		ConversionRequest req = new ConversionRequest(sheet.getName(), palMethod, palettePath);
+		try {
+			req.setImageData(read(in, sheet));
+		} catch (IOException e) {
+			throw new ConversionException(Failure.IMAGE_READ, "Error reading image", e);
+		}
+		if (shared != null) {
+			req.setCompiledPalette(shared);
+		}
+		else if (palMethod == SpriteConverter.PAL_ASCII || palMethod == SpriteConverter.PAL_BINARY) {
+			// a shared palette outside the pack is read from disk as usual
+			ZipEntry pal = palettePath.equals("") ? paletteFor(sheet.getName(), palettes) : palettes.get(palettePath);
+			if (pal != null) {
+				req.setPalettePath(pal.getName());
+				try {
+					req.setPaletteData(read(in, pal));
+				} catch (IOException e) {
+					throw new ConversionException(Failure.PALETTE_READ, "Error reading palette", e);
+				}
+			}
+		}
+		return SpriteConverter.toZSPR(ConversionContext.local().convert(req));
+	}
+
+	/**
+	 * Reads and compiles the palette shared by every sheet, once.
+	 * @return {@code null} if sheets don't share a palette file, or if it can't be read;
+	 * each sheet then reports why
+	 */
+	private CompiledPalette sharedPalette(ZipFile in, Map<String, ZipEntry> palettes) {
+		if (palettePath.equals("") ||
+				(palMethod != SpriteConverter.PAL_ASCII && palMethod != SpriteConverter.PAL_BINARY)) {
+			return null;
+		}
+		try {
+			ConversionRequest req = new ConversionRequest("", palMethod, palettePath);
+			ZipEntry pal = palettes.get(palettePath);
+			req.setPaletteData(pal != null ? read(in, pal) : SpriteConverter.readPaletteData(req));
+			return SpriteConverter.compilePalette(req);
+		} catch (IOException|ConversionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return palette in the pack with the same name as {@code sheet}, or {@code null} if there is none
+	 */
+	private ZipEntry paletteFor(String sheet, Map<String, ZipEntry> palettes) {
+		String[] exts = palMethod == SpriteConverter.PAL_BINARY ?
+				new String[] { "pal" } : SpriteConverter.PALETTEEXTS;
+		for (String ext : exts) {
+			for (String e : new String[] { ext, ext.toUpperCase() }) {
+				ZipEntry ret = palettes.get(SpriteConverter.changeExtension(sheet, e));
+				if (ret != null) {
+					return ret;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds finished sprites to the output in the order of their sheets in the pack,
+	 * whichever order the workers finish them in.
+	 * A sheet's slot is released once its sprite is written or skipped,
+	 * so no more sprites wait here than there are slots.
+	 */
+	private static final class InOrder {
+		private final ZipOutputStream out;
+		private final Semaphore slots;
+		private final String[] names;
+		private final long[] times;
+		private final byte[][] sprites;
+		private final boolean[] done;
+		private int next;
+		private IOException error;
+
+		InOrder(ZipOutputStream out, int count, Semaphore slots) {
+			this.out = out;
+			this.slots = slots;
+			names = new String[count];
+			times = new long[count];
+			sprites = new byte[count][];
+			done = new boolean[count];
+		}
+
+		/**
+		 * Hands over one sheet's sprite and writes every sprite that is next in line.
+		 * @param at - position of the sheet in the pack
+		 * @param name - name of the entry to write
+		 * @param time - modification time of the entry
+		 * @param zspr - sprite file; {@code null} if the sheet failed and is left out
+		 */
+		synchronized void put(int at, String name, long time, byte[] zspr) {
+			names[at] = name;
+			times[at] = time;
+			sprites[at] = zspr;
+			done[at] = true;
+			for (; next < done.length && done[next]; next++) {
+				if (sprites[next] != null && error == null) {
+					ZipEntry e = new ZipEntry(names[next]);
+					e.setTime(times[next]);
+					try {
+						out.putNextEntry(e);
+						out.write(sprites[next]);
+						out.closeEntry();
+					} catch (IOException ex) {
+						error = ex;
+					}
+				}
+				sprites[next] = null;
+				slots.release();
+			}
+		}
+
+		/**
+		 * @throws IOException the first error writing the output, if there was one
+		 */
+		synchronized void checkError() throws IOException {
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+
+	private static byte[] read(ZipFile in, ZipEntry e) throws IOException {
+		long size = e.getSize();
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ?
+				(int) size : 64 * 1024);
+		byte[] buf = new byte[16 * 1024];
+		try (InputStream s = in.getInputStream(e)) {
+			int n;
+			while ((n = s.read(buf)) > 0) {
+				ret.write(buf, 0, n);
+			}
+		}
+		return ret.toByteArray();
+	}
+
+	// Summary
+	// ZIP command line usage:
+	// zipSrc: ZIP of sheets, and optionally palettes, to convert
+	// zipTarget (optional): ZIP to write the sprite files to. Defaults to <zipSrc> (exported).zip.
+	// palOption: as for single conversions
+	// palSrc (optional): Palette shared by all sheets, either a path inside the ZIP or a file.
+	//   Without one, methods 0 and 1 use the palette named like each sheet inside the ZIP.
+	// threads (optional): Number of workers. Defaults to one per core.
+	// Returns True if every sheet was converted.
+	public static boolean processArgs(String[] args) {
+		Map<String, String> values = new HashMap<String, String>();
+		boolean argumentErrorsFound = !BatchConverter.parseArgs(args, values,
+				"zipSrc", "zipTarget", "palOption", "palSrc", "threads");
+
+		String zipSrc = values.getOrDefault("zipSrc", "");
+		String zipTarget = values.getOrDefault("zipTarget", "");
+		String palSrc = values.getOrDefault("palSrc", "");
+
+		int palOption = -1;
+		if (values.containsKey("palOption")) {
+			palOption = BatchConverter.parseNumber(values.get("palOption"), -1);
+			if (palOption < 0 || palOption >= SpriteConverter.PAL_METHOD_COUNT) {
+				System.out.println("The palOption: " + values.get("palOption") + " is out of range.");
+				argumentErrorsFound = true;
+			}
+		}
+
+		int threads = BatchConverter.parseThreads(values.get("threads"));
+		if (threads < 0) {
+			argumentErrorsFound = true;
+		}
+
+		if (!new File(zipSrc).isFile()) {
+			System.out.println("No ZIP found for: " + zipSrc);
+			argumentErrorsFound = true;
+		}
+
+		if (palOption < 0) {
+			System.out.println("No palette option was specified.");
+			argumentErrorsFound = true;
+		}
+
+		if (argumentErrorsFound) {
+			return false;
+		}
+
+		if (zipTarget.equals("")) {
+			String base = zipSrc.toLowerCase().endsWith(".zip") ? zipSrc.substring(0, zipSrc.length() - 4) : zipSrc;
+			zipTarget = base + " (exported).zip";
+		}
+
+		BatchSummary summary;
+		try {
+			ZipConverter zip = new ZipConverter(palOption, palSrc, threads);
+			summary = zip.convertAll(Paths.get(zipSrc), Paths.get(zipTarget));
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e);
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		summary.print(System.out, "Converted", "sheets");
+		System.out.println("Wrote " + zipTarget);
+
+		return summary.getFailed() == 0;
+	}
+}
@@ -0,0 +1,89 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import spritemanipulator.SpriteManipulator;
+
+public class ColorsTest {
+	@Test
+	public void lutMatchesRoundRasterForEveryByte() {
+		byte[] all = everyByte();
+		byte[] lut = new byte[all.length];
+		Colors.roundRasterLUT(all, 0, lut, 0, all.length);
+		assertArrayEquals(SpriteManipulator.roundRaster(all), lut);
+	}
+
+	@Test
+	public void swarMatchesRoundRasterForEveryByte() {
+		assumeTrue(Colors.SWAR_SUPPORTED);
+		byte[] all = everyByte();
+		byte[] swar = new byte[all.length];
+		Colors.roundRasterSWAR(all, 0, swar, 0, all.length);
+		assertArrayEquals(SpriteManipulator.roundRaster(all), swar);
+	}
+
+	@Test
+	public void enginesMatchOnRandomRasters() {
+		Random rng = new Random(17);
+		for (int run = 0; run < 50; run++) {
+			// odd lengths and offsets leave a tail for the SWAR engine to hand to the table
+			byte[] raster = new byte[1 + rng.nextInt(4096)];
+			rng.nextBytes(raster);
+			int at = rng.nextInt(8);
+			int length = raster.length - at;
+			byte[] expected = SpriteManipulator.roundRaster(raster);
+
+			byte[] lut = new byte[raster.length];
+			Colors.roundRasterLUT(raster, at, lut, at, length);
+			byte[] selected = new byte[raster.length];
+			Colors.roundRaster(raster, at, selected, at, length);
+			for (int i = at; i < raster.length; i++) {
+				assertEquals(expected[i], lut[i]);
+				assertEquals(expected[i], selected[i]);
+			}
+
+			if (Colors.SWAR_SUPPORTED) {
+				byte[] swar = new byte[raster.length];
+				Colors.roundRasterSWAR(raster, at, swar, at, length);
+				for (int i = at; i < raster.length; i++) {
+					assertEquals(expected[i], swar[i]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void roundsInPlace() {
+		Random rng = new Random(71);
+		byte[] raster = new byte[SheetDecoder.WIDTH * SheetDecoder.HEIGHT * 4];
+		rng.nextBytes(raster);
+		byte[] expected = SpriteManipulator.roundRaster(raster);
+		Colors.roundRaster(raster, raster, raster.length);
+		assertArrayEquals(expected, raster);
+	}
+
+	@Test
+	public void roundMatchesRoundPalette() {
+		Random rng = new Random(7);
+		int[] pal = new int[4096];
+		for (int i = 0; i < pal.length; i++) {
+			pal[i] = rng.nextInt(0x1000000);
+		}
+		assertArrayEquals(SpriteManipulator.roundPalette(Colors.toDecimal(pal)),
+				Colors.toDecimal(Colors.roundPalette(pal)));
+	}
+
+	private static byte[] everyByte() {
+		byte[] ret = new byte[256 * 3 + 5]; // not a multiple of 8
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = (byte) i;
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,130 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import spritemanipulator.SpriteManipulator;
+
+public class CompiledPaletteTest {
+	private final Random rng = new Random(6);
+
+	@Test
+	public void indexesLikeIndexAnd8x8() {
+		check(palette());
+	}
+
+	@Test
+	public void duplicateColorsTakeTheFirstIndex() {
+		int[] colors = palette();
+		colors[7] = colors[2];
+		colors[15] = colors[0];
+		colors[12] = colors[11];
+		colors[13] = colors[11];
+		CompiledPalette pal = check(colors);
+		assertEquals(2, pal.indexOf(colors[7]));
+		assertEquals(0, pal.indexOf(colors[15]));
+		assertEquals(11, pal.indexOf(colors[13]));
+	}
+
+	@Test
+	public void allOneColor() {
+		int[] colors = palette();
+		for (int i = 1; i < 16; i++) {
+			colors[i] = colors[0];
+		}
+		check(colors);
+	}
+
+	@Test
+	public void indexOfEveryColor() {
+		int[] colors = palette();
+		CompiledPalette pal = new CompiledPalette(colors);
+		for (int i = 0; i < 16; i++) {
+			assertEquals(i, pal.indexOf(colors[i]));
+		}
+		// other mails aren't green mail
+		for (int i = 16; i < 64; i++) {
+			boolean inGreenMail = false;
+			for (int s = 0; s < 16; s++) {
+				inGreenMail |= colors[s] == colors[i];
+			}
+			if (!inGreenMail) {
+				assertEquals(-1, pal.indexOf(colors[i]));
+			}
+		}
+	}
+
+	@Test
+	public void colorOutsideGreenMail() {
+		int[] colors = palette();
+		byte[] pixels = raster(colors);
+		int p = rng.nextInt(TestSheets.PIXELS);
+		setPixel(pixels, p, colors[40]);
+		assertFalse(new CompiledPalette(colors).indexTiles(pixels, new byte[TestSheets.PIXELS]));
+	}
+
+	@Test
+	public void unroundedPixel() {
+		int[] colors = palette();
+		byte[] pixels = raster(colors);
+		pixels[rng.nextInt(TestSheets.PIXELS) * 4 + 2] |= 1;
+		assertFalse(new CompiledPalette(colors).indexTiles(pixels, new byte[TestSheets.PIXELS]));
+	}
+
+	/**
+	 * Indexes a random sheet in green mail's colors and compares it to {@code indexAnd8x8}.
+	 */
+	private CompiledPalette check(int[] colors) {
+		CompiledPalette pal = new CompiledPalette(colors);
+		byte[] pixels = raster(colors);
+		byte[] tiles = new byte[TestSheets.PIXELS];
+		assertTrue(pal.indexTiles(pixels, tiles));
+
+		byte[] expected = new byte[TestSheets.PIXELS];
+		flatten(SpriteManipulator.indexAnd8x8(pixels, pal.getDecimalColors()), expected);
+		assertArrayEquals(expected, tiles);
+		return pal;
+	}
+
+	/**
+	 * @return 66 random rounded colors
+	 */
+	private int[] palette() {
+		return Colors.roundPalette(TestSheets.colors(rng, 66));
+	}
+
+	/**
+	 * @return ABGR sheet of random green mail colors
+	 */
+	private byte[] raster(int[] colors) {
+		byte[] ret = new byte[TestSheets.PIXELS * 4];
+		for (int p = 0; p < TestSheets.PIXELS; p++) {
+			setPixel(ret, p, colors[rng.nextInt(16)]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Lays blocks from {@code indexAnd8x8} out one after another, 8 rows of 8 indices each.
+	 */
+	private static void flatten(byte[][][] blocks, byte[] tiles) {
+		for (int b = 0, t = 0; b < blocks.length; b++) {
+			for (int r = 0; r < 8; r++, t += 8) {
+				System.arraycopy(blocks[b][r], 0, tiles, t, 8);
+			}
+		}
+	}
+
+	private static void setPixel(byte[] pixels, int p, int rgb) {
+		pixels[p * 4] = (byte) 0xFF;
+		pixels[p * 4 + 1] = (byte) Colors.blue(rgb);
+		pixels[p * 4 + 2] = (byte) Colors.green(rgb);
+		pixels[p * 4 + 3] = (byte) Colors.red(rgb);
+	}
+}
@@ -0,0 +1,277 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The byte scanners must read every file exactly like the line readers they replaced,
+ * which are kept here as they were.
+ */
+public class PaletteReaderTest {
+	private final Random rng = new Random(22);
+
+	@Test
+	public void gimpPalette() throws Exception {
+		StringBuilder gpl = new StringBuilder("GIMP Palette\nName: Link\nColumns: 16\n#\n");
+		for (int i = 0; i < 64; i++) {
+			gpl.append(String.format("%3d %3d %3d\tIndex %d%n", rng.nextInt(256), rng.nextInt(256), rng.nextInt(256), i));
+		}
+		checkText(gpl.toString());
+	}
+
+	@Test
+	public void graphicsGalePalette() throws Exception {
+		StringBuilder pal = new StringBuilder("JASC-PAL\r\n0100\r\n256\r\n");
+		for (int i = 0; i < 256; i++) {
+			pal.append(rng.nextInt(256) + " " + rng.nextInt(256) + " " + rng.nextInt(256) + "\r\n");
+		}
+		checkText(pal.toString());
+	}
+
+	@Test
+	public void linesStartingWithOtherThanDigits() throws Exception {
+		// the first field is empty, so these read as -1 and the next two numbers
+		checkText(colors(16) + "a 1 2 3\n#10 20 30\n  - 4 5 6\nx10,20,30\n\t(7, 8, 9)\n" + colors(11));
+	}
+
+	@Test
+	public void valuesOver255() throws Exception {
+		checkText(colors(10) + "300 400 500\n256 1024 65535\n99999999999 1 2\n1 2 99999999999999999999\n" +
+				"2147483647 2147483648 0\n" + colors(12));
+	}
+
+	@Test
+	public void oddLines() throws Exception {
+		checkText(colors(5) + "\n\n1 2\n1 2 3 4 5\n   \r\n1\t2\t3   \r4 5 6\r\n7-8-9\n" + colors(12) + "10 11 12");
+	}
+
+	@Test
+	public void paletteLengths() throws Exception {
+		for (int n : new int[] { 0, 15, 16, 17, 31, 32, 48, 63, 64, 65, 100 }) {
+			checkText(colors(n));
+		}
+	}
+
+	@Test
+	public void randomText() throws Exception {
+		String alphabet = "0123456789012345678901234567890123456789     \t\t\n\n\n\r,#-;abcXYZéÿ";
+		for (int run = 0; run < 2000; run++) {
+			StringBuilder s = new StringBuilder();
+			int len = rng.nextInt(2000);
+			for (int i = 0; i < len; i++) {
+				s.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+			}
+			checkText(s.toString());
+		}
+	}
+
+	@Test
+	public void paintNETPalette() throws Exception {
+		StringBuilder txt = new StringBuilder("; paint.net Palette File\n; Lines that start with a semicolon are comments\n");
+		for (int i = 0; i < 96; i++) {
+			txt.append(String.format(i % 2 == 0 ? "%08X%n" : "%08x\r\n", rng.nextInt()));
+		}
+		checkPaintNET(txt.toString());
+	}
+
+	@Test
+	public void paintNETOddLines() throws Exception {
+		StringBuilder txt = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			txt.append(String.format("%08X%n", rng.nextInt()));
+			switch (i % 6) {
+				case 0 : txt.append("FFABCDE\n"); break;
+				case 1 : txt.append("FFABCDEF0\n"); break;
+				case 2 : txt.append(" FFABCDEF\n"); break;
+				case 3 : txt.append("FFABCDEG\n"); break;
+				case 4 : txt.append("FFABCDEF \n"); break;
+				default : txt.append("\n"); break;
+			}
+		}
+		checkPaintNET(txt.toString());
+	}
+
+	@Test
+	public void randomPaintNET() throws Exception {
+		String alphabet = "0123456789ABCDEFabcdef0123456789ABCDEF\n\n\r ;Gg";
+		for (int run = 0; run < 2000; run++) {
+			StringBuilder s = new StringBuilder();
+			int len = rng.nextInt(1500);
+			for (int i = 0; i < len; i++) {
+				s.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+			}
+			checkPaintNET(s.toString());
+		}
+	}
+
+	@Test
+	public void paintNETMatchesGIMP() throws Exception {
+		checkAgainstGIMP(64, "%08X%n");
+		checkAgainstGIMP(64, "%08x\r\n");
+		// trimmed to 2 mails, the rest filled from green mail
+		checkAgainstGIMP(40, "%08X%n");
+	}
+
+	@Test
+	public void picksReaderByExtension() throws Exception {
+		String text = colors(64);
+		byte[] data = text.getBytes(StandardCharsets.ISO_8859_1);
+		int[] expected = oldText(new BufferedReader(new StringReader(text)));
+		assertArrayEquals(expected, PaletteReader.palFromFile("link.gpl", data));
+		assertArrayEquals(expected, PaletteReader.palFromFile("link.PAL", data));
+
+		StringBuilder txt = new StringBuilder();
+		for (int i = 0; i < 64; i++) {
+			txt.append(String.format("%08X%n", rng.nextInt()));
+		}
+		data = txt.toString().getBytes(StandardCharsets.ISO_8859_1);
+		assertArrayEquals(oldPaintNET(new BufferedReader(new StringReader(txt.toString()))),
+				PaletteReader.palFromFile("link.txt", data));
+	}
+
+	/**
+	 * Writes the same colors as a Paint.NET and a GIMP palette and reads both.
+	 */
+	private void checkAgainstGIMP(int n, String format) throws Exception {
+		StringBuilder txt = new StringBuilder("; paint.net Palette File\n");
+		StringBuilder gpl = new StringBuilder("GIMP Palette\n#\n");
+		for (int i = 0; i < n; i++) {
+			int c = rng.nextInt(0x1000000);
+			txt.append(String.format(format, 0xFF000000 | c));
+			gpl.append(Colors.red(c) + " " + Colors.green(c) + " " + Colors.blue(c) + "\n");
+		}
+		int[] expected = PaletteReader.palFromText(gpl.toString().getBytes(StandardCharsets.ISO_8859_1));
+		int[] pal = PaletteReader.palFromPaintNET(txt.toString().getBytes(StandardCharsets.ISO_8859_1));
+		assertEquals(66, pal.length);
+		assertArrayEquals(expected, pal);
+	}
+
+	private String colors(int n) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			ret.append(rng.nextInt(256) + " " + rng.nextInt(256) + " " + rng.nextInt(256) + "\n");
+		}
+		return ret.toString();
+	}
+
+	private static void checkText(String file) throws Exception {
+		byte[] data = file.getBytes(StandardCharsets.ISO_8859_1);
+		int[] expected;
+		try {
+			expected = oldText(new BufferedReader(new StringReader(file)));
+		} catch (PNGException e) {
+			try {
+				PaletteReader.palFromText(data);
+				fail("Expected a short palette in:\n" + file);
+			} catch (PNGException e2) {
+				// both agree
+			}
+			return;
+		}
+		assertArrayEquals(file, expected, PaletteReader.palFromText(data));
+	}
+
+	private static void checkPaintNET(String file) throws Exception {
+		byte[] data = file.getBytes(StandardCharsets.ISO_8859_1);
+		int[] expected;
+		try {
+			expected = oldPaintNET(new BufferedReader(new StringReader(file)));
+		} catch (PNGException e) {
+			try {
+				PaletteReader.palFromPaintNET(data);
+				fail("Expected a short palette in:\n" + file);
+			} catch (PNGException e2) {
+				// both agree
+			}
+			return;
+		}
+		assertArrayEquals(file, expected, PaletteReader.palFromPaintNET(data));
+	}
+
+	/**
+	 * The GIMP and Graphics Gale reader before the byte scanner.
+	 */
+	private static int[] oldText(BufferedReader pal) throws IOException, PNGException {
+		int[] ret = new int[64];
+		String line;
+		int pali = 0;
+		while ((line = pal.readLine()) != null) {
+			String[] line2 = (line.trim()).split("\\D+");
+			int colori = 0;
+			int[] colorArray = new int[3];
+			if (line2.length >= 3) {
+				for (String s : line2) {
+					int curCol = -1;
+					try {
+						curCol = Integer.parseInt(s);
+					} catch (NumberFormatException e) {
+						// nothing
+					} finally {
+						colorArray[colori] = curCol;
+						colori++;
+					}
+					if (colori == 3) {
+						break;
+					}
+				}
+				ret[pali] = Colors.rgb(colorArray[0], colorArray[1], colorArray[2]);
+				pali++;
+			}
+			if (pali == 64) {
+				break;
+			}
+		}
+		return oldNormalize(ret, pali);
+	}
+
+	/**
+	 * The Paint.NET reader before the byte scanner.
+	 */
+	private static int[] oldPaintNET(BufferedReader pal) throws IOException, PNGException {
+		int[] ret = new int[64];
+		String line;
+		int pali = 0;
+		while ((line = pal.readLine()) != null) {
+			if (line.matches("[0-9A-Fa-f]{8}")) {
+				char[] line2 = line.toCharArray();
+				int r = Integer.parseInt(("" + line2[2] + line2[3]), 16);
+				int g = Integer.parseInt(("" + line2[4] + line2[5]), 16);
+				int b = Integer.parseInt(("" + line2[6] + line2[7]), 16);
+				ret[pali] = Colors.rgb(r, g, b);
+				pali++;
+			}
+			if (pali == 64) {
+				break;
+			}
+		}
+		return oldNormalize(ret, pali);
+	}
+
+	private static int[] oldNormalize(int[] ret, int pali) throws PNGException {
+		if (pali < 16) {
+			throw new PNGException("Only " + pali + " colors were found.\n" +
+					"At least 16 colors are required.");
+		}
+		int[] newret = new int[64];
+		pali = 16 * (pali / 16);
+		if (pali > 64) {
+			pali = 64;
+		}
+		for (int i = 0; i < pali; i++) {
+			newret[i] = ret[i];
+		}
+		for (int i = pali; i < 64; i++) {
+			newret[i] = ret[i % 16];
+		}
+		return PaletteReader.addGlovesToRGBPal(newret);
+	}
+}
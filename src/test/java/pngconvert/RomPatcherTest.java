@@ -0,0 +1,143 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The checksum patched in by the difference of the written bytes
+ * must match adding up the whole ROM again, as the SNES sees it.
+ */
+public class RomPatcherTest {
+	private static final int HEADER = RomPatcher.HEADER_OFFSET;
+
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+
+	private final Random rng = new Random(11);
+
+	@Test
+	public void powerOfTwo() throws Exception {
+		check(0x100000, false);
+	}
+
+	@Test
+	public void powerOfTwoWithCopierHeader() throws Exception {
+		check(0x100000, true);
+	}
+
+	@Test
+	public void mirrored() throws Exception {
+		// 1MB plus 512KB, mirrored once to fill 2MB
+		check(0x180000, false);
+	}
+
+	@Test
+	public void mirroredWithCopierHeader() throws Exception {
+		check(0x180000, true);
+	}
+
+	@Test
+	public void withoutPaletteOrGloves() throws Exception {
+		Path rom = rom(0x100000, false);
+		byte[] sprite = new byte[RomPatcher.SPRITE_SIZE];
+		rng.nextBytes(sprite);
+		RomPatcher.patch(rom, new SpriteData(sprite, null, null));
+		checkChecksum(Files.readAllBytes(rom), 0);
+	}
+
+	/**
+	 * Patches a random sprite into a random ROM, twice, checking the checksum each time.
+	 */
+	private void check(int size, boolean copierHeader) throws Exception {
+		Path rom = rom(size, copierHeader);
+		int base = copierHeader ? RomPatcher.COPIER_HEADER : 0;
+		for (int i = 0; i < 2; i++) {
+			SpriteData spr = sprite();
+			RomPatcher.patch(rom, spr);
+			RomPatcher.verify(rom);
+
+			byte[] data = Files.readAllBytes(rom);
+			assertEquals(size + base, data.length);
+			checkChecksum(data, base);
+			assertArrayEquals(spr.getSprite(), slice(data, base + RomPatcher.SPRITE_OFFSET, RomPatcher.SPRITE_SIZE));
+			assertArrayEquals(spr.getPalette(), slice(data, base + RomPatcher.PALETTE_OFFSET, RomPatcher.PALETTE_SIZE));
+			assertArrayEquals(spr.getGloves(), slice(data, base + RomPatcher.GLOVES_OFFSET, RomPatcher.GLOVES_SIZE));
+		}
+	}
+
+	/**
+	 * @return a random LoROM with a correct checksum
+	 */
+	private Path rom(int size, boolean copierHeader) throws Exception {
+		int base = copierHeader ? RomPatcher.COPIER_HEADER : 0;
+		byte[] data = new byte[size + base];
+		rng.nextBytes(data);
+		data[base + HEADER + 0x15] = 0x20;
+		int checksum = checksum(data, base);
+		putShort(data, base + HEADER + 0x1C, checksum ^ 0xFFFF);
+		putShort(data, base + HEADER + 0x1E, checksum);
+
+		Path ret = dir.newFile().toPath();
+		Files.write(ret, data);
+		return ret;
+	}
+
+	private SpriteData sprite() {
+		byte[] sprite = new byte[RomPatcher.SPRITE_SIZE];
+		byte[] palette = new byte[RomPatcher.PALETTE_SIZE];
+		byte[] gloves = new byte[RomPatcher.GLOVES_SIZE];
+		rng.nextBytes(sprite);
+		rng.nextBytes(palette);
+		rng.nextBytes(gloves);
+		return new SpriteData(sprite, palette, gloves);
+	}
+
+	private static void checkChecksum(byte[] data, int base) {
+		int checksum = checksum(data, base);
+		assertEquals("checksum", checksum, getShort(data, base + HEADER + 0x1E));
+		assertEquals("complement", checksum ^ 0xFFFF, getShort(data, base + HEADER + 0x1C));
+	}
+
+	/**
+	 * Adds up the whole ROM, with the part past the largest power of two
+	 * repeated to fill the next one, counting the checksum as 0 and the complement as 0xFFFF.
+	 */
+	private static int checksum(byte[] data, int base) {
+		byte[] rom = Arrays.copyOfRange(data, base, data.length);
+		putShort(rom, HEADER + 0x1C, 0xFFFF);
+		putShort(rom, HEADER + 0x1E, 0);
+
+		int main = Integer.highestOneBit(rom.length);
+		int sum = 0;
+		for (int i = 0; i < main; i++) {
+			sum += rom[i] & 0xFF;
+		}
+		int rest = rom.length - main;
+		for (int i = 0; rest > 0 && i < main; i++) {
+			sum += rom[main + i % rest] & 0xFF;
+		}
+		return sum & 0xFFFF;
+	}
+
+	private static byte[] slice(byte[] data, int at, int len) {
+		return Arrays.copyOfRange(data, at, at + len);
+	}
+
+	private static int getShort(byte[] b, int at) {
+		return (b[at] & 0xFF) | (b[at + 1] & 0xFF) << 8;
+	}
+
+	private static void putShort(byte[] b, int at, int v) {
+		b[at] = (byte) v;
+		b[at + 1] = (byte) (v >> 8);
+	}
+}
@@ -0,0 +1,113 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import spritemanipulator.SpriteManipulator;
+
+public class SheetDecoderTest {
+	private final Random rng = new Random(3);
+
+	@Test
+	public void decodesRGB() throws Exception {
+		int[] argb = new int[TestSheets.PIXELS];
+		for (int p = 0; p < argb.length; p++) {
+			argb[p] = rng.nextInt();
+		}
+		check(TestSheets.png(TestSheets.rgb(argb)));
+	}
+
+	@Test
+	public void decodesRGBA() throws Exception {
+		// only fully opaque and fully transparent pixels, with color left in some transparent ones
+		int[] argb = new int[TestSheets.PIXELS];
+		for (int p = 0; p < argb.length; p++) {
+			int rgb = rng.nextInt(0x1000000);
+			switch (rng.nextInt(3)) {
+				case 0 : argb[p] = 0xFF000000 | rgb; break;
+				case 1 : argb[p] = rgb; break;
+				default : argb[p] = 0; break;
+			}
+		}
+		check(TestSheets.png(TestSheets.rgba(argb)));
+	}
+
+	@Test
+	public void decodesIndexed1Bit() throws Exception {
+		checkIndexed(1);
+	}
+
+	@Test
+	public void decodesIndexed2Bit() throws Exception {
+		checkIndexed(2);
+	}
+
+	@Test
+	public void decodesIndexed4Bit() throws Exception {
+		checkIndexed(4);
+	}
+
+	@Test
+	public void decodesIndexed8Bit() throws Exception {
+		checkIndexed(8);
+	}
+
+	@Test
+	public void decodesSolidSheet() throws Exception {
+		// compresses to almost nothing and leaves every row to the same filter
+		int[] argb = new int[TestSheets.PIXELS];
+		Arrays.fill(argb, 0xFF5A8CC3);
+		check(TestSheets.png(TestSheets.rgb(argb)));
+	}
+
+	@Test
+	public void leavesOtherSizesToImageIO() throws Exception {
+		BufferedImage img = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+		assertFalse(new SheetDecoder().decode(TestSheets.png(img)));
+	}
+
+	@Test
+	public void leavesPartialTransparencyToImageIO() throws Exception {
+		int[] argb = new int[TestSheets.PIXELS];
+		Arrays.fill(argb, 0x80FFFFFF);
+		assertFalse(new SheetDecoder().decode(TestSheets.png(TestSheets.rgba(argb))));
+	}
+
+	private void checkIndexed(int bits) throws Exception {
+		int[] plte = TestSheets.colors(rng, 1 << bits);
+		byte[] indices = TestSheets.indices(rng, plte.length);
+		byte[] png = TestSheets.png(TestSheets.indexed(bits, plte, indices));
+		check(png);
+
+		SheetDecoder d = new SheetDecoder();
+		assertTrue(d.decode(png));
+		assertTrue(d.isIndexed());
+		assertEquals(plte.length, d.getPaletteSize());
+		assertArrayEquals(indices, Arrays.copyOf(d.getIndices(), TestSheets.PIXELS));
+		for (int i = 0; i < plte.length; i++) {
+			assertEquals(plte[i], d.getPalette()[i] & 0xFFFFFF);
+		}
+	}
+
+	/**
+	 * Decodes with and without rounding and compares against ImageIO, then {@code roundRaster}.
+	 */
+	private static void check(byte[] png) throws Exception {
+		byte[] expected = TestSheets.imageIORaster(png);
+
+		SheetDecoder d = new SheetDecoder();
+		assertTrue(d.decode(png));
+		assertArrayEquals(expected, Arrays.copyOf(d.getRaster(), expected.length));
+
+		assertTrue(d.decode(png, png.length, true));
+		assertArrayEquals(SpriteManipulator.roundRaster(expected), Arrays.copyOf(d.getRaster(), expected.length));
+	}
+}
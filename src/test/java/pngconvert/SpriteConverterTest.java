@@ -0,0 +1,201 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * Indexed sheets are tiled straight from their index bytes;
+ * they must come out the same as the same picture indexed pixel by pixel.
+ */
+public class SpriteConverterTest {
+	private static final int W = SheetDecoder.WIDTH;
+
+	private final Random rng = new Random(4);
+
+	@Test
+	public void extractedPalette() throws Exception {
+		Sheet s = new Sheet(false, true);
+		check(s, SpriteConverter.PAL_EXTRACT);
+	}
+
+	@Test
+	public void paletteFile() throws Exception {
+		Sheet s = new Sheet(false, true);
+		check(s, SpriteConverter.PAL_ASCII);
+	}
+
+	@Test
+	public void pngPalette() throws Exception {
+		Sheet s = new Sheet(true, false);
+		SheetDecoder d = new SheetDecoder();
+		assertTrue(d.decode(s.indexedPNG));
+		int[] pal = Colors.roundPalette(PaletteReader.palFromPLTE(d.getPalette(), d.getPaletteSize()));
+
+		byte[] pixels = SpriteManipulator.roundRaster(TestSheets.imageIORaster(s.indexedPNG));
+		byte[] expected = SpriteManipulator.export8x8ToSPR(SpriteManipulator.indexAnd8x8(pixels, Colors.toDecimal(pal)));
+		assertArrayEquals(expected, convert(s, s.indexedPNG, SpriteConverter.PAL_PNG).getSprite());
+	}
+
+	@Test
+	public void pngPaletteOfInterlacedSheet() throws Exception {
+		// the decoder leaves interlaced sheets to ImageIO; their palette is still there
+		Sheet s = new Sheet(true, false);
+		byte[] interlaced = interlaced(s.indexedPNG);
+		assertFalse(new SheetDecoder().decode(interlaced));
+		assertArrayEquals(convert(s, s.indexedPNG, SpriteConverter.PAL_PNG).getSprite(),
+				convert(s, interlaced, SpriteConverter.PAL_PNG).getSprite());
+	}
+
+	@Test
+	public void colorsOutsideGreenMail() throws Exception {
+		// leaves the indexed sheet to indexAnd8x8, like any other
+		Sheet s = new Sheet(false, false);
+		check(s, SpriteConverter.PAL_ASCII);
+	}
+
+	/**
+	 * Converts the indexed and RGB versions of a sheet, and compares both
+	 * to ImageIO, {@code roundRaster} and {@code indexAnd8x8}.
+	 */
+	private static void check(Sheet s, int method) throws Exception {
+		byte[] pixels = SpriteManipulator.roundRaster(TestSheets.imageIORaster(s.rgbPNG));
+		int[] pal = method == SpriteConverter.PAL_EXTRACT ? PaletteReader.palExtract(pixels) : s.palette();
+		byte[] expected = SpriteManipulator.export8x8ToSPR(SpriteManipulator.indexAnd8x8(pixels, Colors.toDecimal(pal)));
+		byte[] expectedPal = SpriteManipulator.getPalDataFromArray(Colors.toDecimal(pal));
+
+		SpriteData indexed = convert(s, s.indexedPNG, method);
+		assertArrayEquals("indexed", expected, indexed.getSprite());
+		assertArrayEquals("indexed palette", expectedPal, indexed.getPalette());
+
+		SpriteData rgb = convert(s, s.rgbPNG, method);
+		assertArrayEquals("RGB", expected, rgb.getSprite());
+		assertArrayEquals("RGB palette", expectedPal, rgb.getPalette());
+	}
+
+	private static SpriteData convert(Sheet s, byte[] png, int method) throws Exception {
+		ConversionRequest req = new ConversionRequest("sheet.png", method,
+				method == SpriteConverter.PAL_ASCII ? "sheet.gpl" : "");
+		req.setImageData(png);
+		req.setPaletteData(s.gpl());
+		return SpriteConverter.convert(req);
+	}
+
+	/**
+	 * @return the same PNG, saved Adam7 interlaced
+	 */
+	private static byte[] interlaced(byte[] png) throws Exception {
+		BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(ret)) {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(img, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return ret.toByteArray();
+	}
+
+	/**
+	 * A sheet drawn in green mail's colors, with the 64-color palette block at the end,
+	 * saved both as an 8-bit indexed PNG and as an RGB PNG.
+	 */
+	private final class Sheet {
+		// 64 colors of the palette block; unrounded, with some rounding to the same value
+		final int[] block = new int[64];
+		final byte[] indexedPNG;
+		final byte[] rgbPNG;
+
+		/**
+		 * @param greenMailFirst - {@code true} to put green mail first in the PNG palette, as PAL_PNG expects;
+		 * else the PNG palette is shuffled
+		 * @param allInGreenMail - {@code false} to also draw a color green mail doesn't have
+		 */
+		Sheet(boolean greenMailFirst, boolean allInGreenMail) throws Exception {
+			for (int i = 0; i < block.length; i++) {
+				block[i] = rng.nextInt(0x1000000);
+			}
+			// rounds to the same color as index 3, but comes later
+			block[9] = block[3] ^ 0x010101;
+
+			List<Integer> plte = new ArrayList<Integer>();
+			for (int c : block) {
+				plte.add(c);
+			}
+			int stray = 0x123456;
+			plte.add(stray);
+			// unused entries
+			for (int i = 0; i < 20; i++) {
+				plte.add(rng.nextInt(0x1000000));
+			}
+			if (!greenMailFirst) {
+				Collections.shuffle(plte, rng);
+			}
+			int[] colors = new int[plte.size()];
+			for (int i = 0; i < colors.length; i++) {
+				colors[i] = plte.get(i);
+			}
+
+			int[] argb = new int[TestSheets.PIXELS];
+			for (int p = 0; p < argb.length; p++) {
+				argb[p] = block[rng.nextInt(16)];
+			}
+			if (!allInGreenMail) {
+				argb[rng.nextInt(W * 400)] = stray;
+			}
+			// palette block in the last 8x8 block, 8 colors per row
+			int at = TestSheets.PIXELS - 8 - W * 7;
+			for (int i = 0; i < 64; i++) {
+				argb[at + (i / 8) * W + i % 8] = block[i];
+			}
+
+			byte[] indices = new byte[argb.length];
+			for (int p = 0; p < argb.length; p++) {
+				indices[p] = (byte) plte.indexOf(argb[p]);
+				argb[p] |= 0xFF000000;
+			}
+			indexedPNG = TestSheets.png(TestSheets.indexed(8, colors, indices));
+			rgbPNG = TestSheets.png(TestSheets.rgb(argb));
+		}
+
+		/**
+		 * @return the palette block as a GIMP palette file
+		 */
+		byte[] gpl() {
+			StringBuilder ret = new StringBuilder("GIMP Palette\n#\n");
+			for (int c : block) {
+				ret.append(Colors.red(c) + " " + Colors.green(c) + " " + Colors.blue(c) + "\n");
+			}
+			return ret.toString().getBytes(StandardCharsets.US_ASCII);
+		}
+
+		/**
+		 * @return the palette block as a palette file gives it, rounded and with gloves
+		 */
+		int[] palette() {
+			return Colors.roundPalette(PaletteReader.addGlovesToRGBPal(block.clone()));
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpriteDeltaTest {
+	private static final int TILE = TilePacker.BLOCK_BYTES;
+
+	private final Random rng = new Random(14);
+
+	@Test
+	public void roundTrip() throws Exception {
+		SpriteData old = sprite();
+		byte[] to = old.getSprite().clone();
+		// new graphics
+		randomTile(to, 3);
+		randomTile(to, 500);
+		// graphics moved from elsewhere in the old sprite
+		System.arraycopy(old.getSprite(), 10 * TILE, to, 700 * TILE, TILE);
+		byte[] palette = old.getPalette().clone();
+		palette[7] ^= 0x1F;
+		SpriteData cur = new SpriteData(to, palette, old.getGloves());
+
+		SpriteDelta delta = SpriteDelta.fromBytes(SpriteDelta.diff(old, cur).toBytes());
+		assertArrayEquals(new int[] { 3, 500, 700 }, delta.getChangedTiles());
+		assertEquals(1, delta.getCopiedTiles());
+		assertTrue(delta.hasPalette());
+		assertFalse(delta.hasGloves());
+
+		SpriteData applied = delta.apply(old);
+		assertArrayEquals(to, applied.getSprite());
+		assertArrayEquals(palette, applied.getPalette());
+		assertArrayEquals(old.getGloves(), applied.getGloves());
+		assertEquals(old.getSpriteName(), applied.getSpriteName());
+	}
+
+	@Test
+	public void unchanged() throws Exception {
+		SpriteData old = sprite();
+		SpriteDelta delta = SpriteDelta.fromBytes(SpriteDelta.diff(old, old.copy()).toBytes());
+		assertTrue(delta.isEmpty());
+		assertArrayEquals(old.getSprite(), delta.apply(old).getSprite());
+	}
+
+	@Test
+	public void wrongBaseSprite() throws Exception {
+		SpriteData old = sprite();
+		SpriteData cur = old.copy();
+		randomTile(cur.getSprite(), 0);
+		SpriteDelta delta = SpriteDelta.fromBytes(SpriteDelta.diff(old, cur).toBytes());
+
+		SpriteData other = old.copy();
+		other.getSprite()[100 * TILE] ^= 1;
+		try {
+			delta.apply(other);
+			fail("applied to a different sprite");
+		} catch (PNGException e) {
+			assertEquals("This delta was made from a different sprite", e.getMessage());
+		}
+	}
+
+	@Test
+	public void truncated() throws Exception {
+		SpriteData old = sprite();
+		SpriteData cur = old.copy();
+		randomTile(cur.getSprite(), 42);
+		byte[] gloves = cur.getGloves().clone();
+		gloves[0] ^= 1;
+		byte[] data = SpriteDelta.diff(old, new SpriteData(cur.getSprite(), cur.getPalette(), gloves)).toBytes();
+
+		// every cut, from inside the header to inside the last tile
+		for (int len = 0; len < data.length; len++) {
+			try {
+				SpriteDelta.fromBytes(Arrays.copyOf(data, len));
+				fail("read a delta cut to " + len + " of " + data.length + " bytes");
+			} catch (PNGException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void notADelta() {
+		try {
+			SpriteDelta.fromBytes(new byte[64]);
+			fail("read a delta without its magic");
+		} catch (PNGException e) {
+			assertEquals("Not a sprite delta", e.getMessage());
+		}
+	}
+
+	@Test
+	public void ranges() {
+		assertEquals("", SpriteDelta.ranges(new int[0]));
+		assertEquals("0-15, 40, 42-44", SpriteDelta.ranges(new int[] {
+				0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 40, 42, 43, 44 }));
+	}
+
+	private SpriteData sprite() {
+		byte[] sprite = new byte[RomPatcher.SPRITE_SIZE];
+		rng.nextBytes(sprite);
+		byte[] palette = new byte[RomPatcher.PALETTE_SIZE];
+		rng.nextBytes(palette);
+		byte[] gloves = new byte[RomPatcher.GLOVES_SIZE];
+		rng.nextBytes(gloves);
+		SpriteData ret = new SpriteData(sprite, palette, gloves);
+		ret.setSpriteName("Link");
+		return ret;
+	}
+
+	/**
+	 * Draws new graphics for one tile.
+	 */
+	private void randomTile(byte[] sprite, int i) {
+		byte[] tile = new byte[TILE];
+		rng.nextBytes(tile);
+		System.arraycopy(tile, 0, sprite, i * TILE, TILE);
+	}
+}
@@ -0,0 +1,105 @@
+package pngconvert;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import spritemanipulator.SpriteManipulator;
+
+/**
+ * Builds 128x448 sheets in the formats sprite sheets are saved as, for the tests.
+ */
+final class TestSheets {
+	static final int PIXELS = SheetDecoder.WIDTH * SheetDecoder.HEIGHT;
+
+	private TestSheets() {}
+
+	/**
+	 * @param argb - one {@code 0xAARRGGBB} color per pixel; alpha is ignored
+	 */
+	static BufferedImage rgb(int[] argb) {
+		BufferedImage ret = new BufferedImage(SheetDecoder.WIDTH, SheetDecoder.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		ret.setRGB(0, 0, SheetDecoder.WIDTH, SheetDecoder.HEIGHT, argb, 0, SheetDecoder.WIDTH);
+		return ret;
+	}
+
+	/**
+	 * @param argb - one {@code 0xAARRGGBB} color per pixel
+	 */
+	static BufferedImage rgba(int[] argb) {
+		BufferedImage ret = new BufferedImage(SheetDecoder.WIDTH, SheetDecoder.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		ret.setRGB(0, 0, SheetDecoder.WIDTH, SheetDecoder.HEIGHT, argb, 0, SheetDecoder.WIDTH);
+		return ret;
+	}
+
+	/**
+	 * @param bits - 1, 2, 4 or 8
+	 * @param plte - {@code 0xRRGGBB} colors of the PNG palette; at most {@code 1 << bits}
+	 * @param indices - one palette index per pixel
+	 */
+	static BufferedImage indexed(int bits, int[] plte, byte[] indices) {
+		byte[] r = new byte[plte.length];
+		byte[] g = new byte[plte.length];
+		byte[] b = new byte[plte.length];
+		for (int i = 0; i < plte.length; i++) {
+			r[i] = (byte) Colors.red(plte[i]);
+			g[i] = (byte) Colors.green(plte[i]);
+			b[i] = (byte) Colors.blue(plte[i]);
+		}
+		IndexColorModel cm = new IndexColorModel(bits, plte.length, r, g, b);
+		BufferedImage ret = new BufferedImage(SheetDecoder.WIDTH, SheetDecoder.HEIGHT,
+				bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY, cm);
+		WritableRaster raster = ret.getRaster();
+		for (int p = 0; p < indices.length; p++) {
+			raster.setSample(p % SheetDecoder.WIDTH, p / SheetDecoder.WIDTH, 0, indices[p] & 0xFF);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return {@code img} saved as a PNG
+	 */
+	static byte[] png(BufferedImage img) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		if (!ImageIO.write(img, "png", ret)) {
+			throw new IOException("No PNG writer");
+		}
+		return ret.toByteArray();
+	}
+
+	/**
+	 * @return ABGR raster of a PNG the way SpriteConverter read every sheet before {@link SheetDecoder}
+	 */
+	static byte[] imageIORaster(byte[] png) throws IOException {
+		BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+		return SpriteManipulator.getImageRaster(SpriteManipulator.convertToABGR(img));
+	}
+
+	/**
+	 * @return {@code n} random {@code 0xRRGGBB} colors
+	 */
+	static int[] colors(Random rng, int n) {
+		int[] ret = new int[n];
+		for (int i = 0; i < n; i++) {
+			ret[i] = rng.nextInt(0x1000000);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return one random index below {@code n} per pixel
+	 */
+	static byte[] indices(Random rng, int n) {
+		byte[] ret = new byte[PIXELS];
+		for (int p = 0; p < ret.length; p++) {
+			ret[p] = (byte) rng.nextInt(n);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,121 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import spritemanipulator.SpriteManipulator;
+
+public class TilePackerTest {
+	private static final int BLOCKS = 896; // a full sheet
+
+	@Test
+	public void randomBlocks() {
+		Random rng = new Random(16);
+		for (int run = 0; run < 20; run++) {
+			byte[] tiles = new byte[BLOCKS * TilePacker.BLOCK_PIXELS];
+			for (int i = 0; i < tiles.length; i++) {
+				tiles[i] = (byte) rng.nextInt(16);
+			}
+			check(tiles);
+		}
+	}
+
+	@Test
+	public void everyIndexInEveryPosition() {
+		// block i holds index (i + pixel) % 16, so each of the 64 positions sees all 16 indices
+		byte[] tiles = new byte[16 * TilePacker.BLOCK_PIXELS];
+		for (int b = 0; b < 16; b++) {
+			for (int p = 0; p < TilePacker.BLOCK_PIXELS; p++) {
+				tiles[b * TilePacker.BLOCK_PIXELS + p] = (byte) ((b + p) % 16);
+			}
+		}
+		check(tiles);
+	}
+
+	@Test
+	public void singleIndexBlocks() {
+		// one lone pixel of each index on a background of every other index
+		byte[] tiles = new byte[16 * 16 * TilePacker.BLOCK_PIXELS];
+		int b = 0;
+		for (int bg = 0; bg < 16; bg++) {
+			for (int fg = 0; fg < 16; fg++, b++) {
+				for (int p = 0; p < TilePacker.BLOCK_PIXELS; p++) {
+					tiles[b * TilePacker.BLOCK_PIXELS + p] = (byte) (p == (b % TilePacker.BLOCK_PIXELS) ? fg : bg);
+				}
+			}
+		}
+		check(tiles);
+	}
+
+	@Test
+	public void solidBlocks() {
+		byte[] tiles = new byte[16 * TilePacker.BLOCK_PIXELS];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = (byte) (i / TilePacker.BLOCK_PIXELS);
+		}
+		check(tiles);
+	}
+
+	@Test
+	public void packsAtOffset() {
+		Random rng = new Random(4);
+		byte[] tiles = new byte[16 * TilePacker.BLOCK_PIXELS];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = (byte) rng.nextInt(16);
+		}
+		byte[] expected = SpriteManipulator.export8x8ToSPR(blocks(tiles));
+		int at = 5 * TilePacker.BLOCK_BYTES;
+
+		byte[] swar = new byte[at + expected.length];
+		TilePacker.packSWAR(tiles, swar, at);
+		byte[] scalar = new byte[at + expected.length];
+		TilePacker.packScalar(tiles, scalar, at);
+
+		byte[] ref = new byte[at + expected.length];
+		System.arraycopy(expected, 0, ref, at, expected.length);
+		assertArrayEquals(ref, swar);
+		assertArrayEquals(ref, scalar);
+	}
+
+	@Test
+	public void unpackReverses() {
+		Random rng = new Random(8);
+		byte[] tiles = new byte[BLOCKS * TilePacker.BLOCK_PIXELS];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = (byte) rng.nextInt(16);
+		}
+		byte[] spr = new byte[BLOCKS * TilePacker.BLOCK_BYTES];
+		TilePacker.pack(tiles, spr);
+		byte[] back = new byte[tiles.length];
+		TilePacker.unpack(spr, back);
+		assertArrayEquals(tiles, back);
+	}
+
+	private static void check(byte[] tiles) {
+		byte[] expected = SpriteManipulator.export8x8ToSPR(blocks(tiles));
+
+		byte[] swar = new byte[expected.length];
+		TilePacker.packSWAR(tiles, swar, 0);
+		assertArrayEquals("SWAR", expected, swar);
+
+		byte[] scalar = new byte[expected.length];
+		TilePacker.packScalar(tiles, scalar, 0);
+		assertArrayEquals("scalar", expected, scalar);
+	}
+
+	/**
+	 * @return flat blocks as {@code [block][row][column]}, the way {@code export8x8ToSPR} takes them
+	 */
+	static byte[][][] blocks(byte[] tiles) {
+		byte[][][] ret = new byte[tiles.length / TilePacker.BLOCK_PIXELS][8][8];
+		for (int b = 0; b < ret.length; b++) {
+			for (int r = 0; r < 8; r++) {
+				System.arraycopy(tiles, b * TilePacker.BLOCK_PIXELS + r * 8, ret[b][r], 0, 8);
+			}
+		}
+		return ret;
+	}
+}
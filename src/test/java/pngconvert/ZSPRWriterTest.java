@@ -0,0 +1,98 @@
+package pngconvert;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import spritemanipulator.SpriteManipulator;
+
+public class ZSPRWriterTest {
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+
+	private final Random rng = new Random(24);
+
+	@Test
+	public void blankNames() throws Exception {
+		check(sprite("", "", ""));
+	}
+
+	@Test
+	public void plainNames() throws Exception {
+		check(sprite("Link", "Nintendo", "NINTENDO"));
+	}
+
+	@Test
+	public void longNames() throws Exception {
+		String name = repeat("Hero of Time ", 40);
+		check(sprite(name, name, name));
+	}
+
+	@Test
+	public void longROMAuthorName() throws Exception {
+		check(sprite("Link", "Nintendo", "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789"));
+	}
+
+	@Test
+	public void nonASCIINames() throws Exception {
+		check(sprite("Zelda – 勇者", "Émilie", "Émilie – 勇者"));
+	}
+
+	@Test
+	public void blankROMAuthorOnly() throws Exception {
+		check(sprite("Link", "Nintendo", ""));
+	}
+
+	@Test
+	public void sameNamesDifferentData() throws Exception {
+		// the header buffer is reused from one sprite to the next
+		for (int i = 0; i < 5; i++) {
+			check(sprite("Link", "Nintendo", ""));
+		}
+	}
+
+	private void check(SpriteData spr) throws Exception {
+		File ref = dir.newFile();
+		SpriteManipulator.writeSPRFile(ref.getPath(), spr.toZSPRFile());
+		byte[] expected = Files.readAllBytes(ref.toPath());
+
+		assertArrayEquals("toBytes", expected, ZSPRWriter.local().toBytes(spr));
+
+		Path loc = dir.newFile().toPath();
+		ZSPRWriter.local().write(spr, loc, false);
+		assertArrayEquals("write", expected, Files.readAllBytes(loc));
+
+		ZSPRWriter.local().write(spr, loc, true);
+		assertArrayEquals("atomic write", expected, Files.readAllBytes(loc));
+	}
+
+	private SpriteData sprite(String name, String author, String authorROM) {
+		SpriteData ret = new SpriteData(random(RomPatcher.SPRITE_SIZE), random(RomPatcher.PALETTE_SIZE),
+				random(RomPatcher.GLOVES_SIZE));
+		ret.setSpriteName(name);
+		ret.setAuthorName(author);
+		ret.setAuthorNameROM(authorROM);
+		return ret;
+	}
+
+	private byte[] random(int length) {
+		byte[] ret = new byte[length];
+		rng.nextBytes(ret);
+		return ret;
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			ret.append(s);
+		}
+		return ret.toString();
+	}
+}